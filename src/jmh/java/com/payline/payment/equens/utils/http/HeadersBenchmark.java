@@ -0,0 +1,61 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.bean.configuration.RequestConfiguration;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.message.BasicHeader;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the construction of the API request headers, as it was done before (new date format, SecureRandom-based
+ * UUID and new Authorization header for each request, copy of the list into a pre-sized array) with the current
+ * implementation. Run with the GC profiler to compare the allocation rates: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeadersBenchmark {
+
+    private PisHttpClient pisHttpClient;
+    private RequestConfiguration requestConfiguration;
+    private Authorization authorization;
+
+    @Setup
+    public void setup() {
+        authorization = MockUtils.anAuthorization();
+        requestConfiguration = MockUtils.aRequestConfiguration();
+        // the access token is supposed to be available: the benchmark only measures the headers construction
+        pisHttpClient = new PisHttpClient() {
+            @Override
+            public Authorization authorize(RequestConfiguration requestConfiguration) {
+                return authorization;
+            }
+        };
+    }
+
+    @Benchmark
+    public Header[] uncached() {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(HttpHeaders.AUTHORIZATION, authorization.getHeaderValue()));
+        headers.add(new BasicHeader(EquensHttpClient.HEADER_REQUEST_ID, UUID.randomUUID().toString()));
+        headers.add(new BasicHeader(EquensHttpClient.MESSAGE_CREATE_DATE_TIME, new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())));
+
+        Header[] headersArray = new Header[headers.size()];
+        headers.toArray(headersArray);
+        return headersArray;
+    }
+
+    @Benchmark
+    public Header[] cached() {
+        return pisHttpClient.initHeaders(requestConfiguration).toArray(new Header[0]);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
+import com.payline.payment.equens.service.JsonService;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the decoding of an ASPSP directory response, as it was done before (content buffered as a String,
+ * then parsed), with the streaming decoding. Run with the gc profiler to compare the allocations.
+ *
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseDecodingBenchmark {
+
+    @Param({"100", "3000"})
+    private int aspspCount;
+
+    private JsonService jsonService = JsonService.getInstance();
+    private HttpResponse httpResponse;
+
+    @Setup
+    public void setup() {
+        StringBuilder content = new StringBuilder("{\"MessageCreateDateTime\":\"2019-11-15T15:52:37.092+0000\",")
+                .append("\"MessageId\":\"6f31954f-7ad6-4a63-950c-a2a363488e\",\"Application\":\"PIS\",\"ASPSP\":[");
+        for (int i = 0; i < aspspCount; i++) {
+            if (i > 0) {
+                content.append(',');
+            }
+            content.append("{\"AspspId\":\"").append(i).append("\",\"Name\":[\"Bank ").append(i).append("\"],")
+                    .append("\"CountryCode\":\"FR\",\"Details\":[{\"ProtocolVersion\":\"STET_V_1_4_0_47\"}],")
+                    .append("\"BIC\":\"BANKFRPP").append(i % 1000).append("\"}");
+        }
+        content.append("]}");
+
+        // the entity is repeatable: it can be read by each invocation
+        httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        httpResponse.setEntity(new ByteArrayEntity(content.toString().getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+    }
+
+    @Benchmark
+    public GetAspspsResponse buffered() {
+        StringResponse response = StringResponse.fromHttpResponse(httpResponse);
+        return jsonService.fromJson(response.getContent(), GetAspspsResponse.class);
+    }
+
+    @Benchmark
+    public GetAspspsResponse streamed() throws IOException {
+        return JsonResponse.fromHttpResponse(httpResponse, GetAspspsResponse.class, jsonService, Long.MAX_VALUE, 2048).getBody();
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.bean.configuration.RequestConfiguration;
+import com.payline.payment.equens.utils.security.RSAHolder;
+import org.openjdk.jmh.annotations.*;
+import org.tomitribe.auth.signatures.Signature;
+import org.tomitribe.auth.signatures.Signer;
+
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.tomitribe.auth.signatures.Algorithm.RSA_SHA256;
+
+/**
+ * Compare the signature of a token request, as it was done before the signing material was cached
+ * (SHA1 of the certificate, new signer and date format for each request), with the current implementation.
+ *
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+
+    private static final String URI = "https://xs2a.awltest.de/xs2a/routingservice/services/authorize/token";
+
+    private PisHttpClient pisHttpClient;
+    private RequestConfiguration requestConfiguration;
+    private RSAHolder rsaHolder;
+
+    @Setup
+    public void setup() {
+        pisHttpClient = new PisHttpClient();
+        requestConfiguration = MockUtils.aRequestConfiguration();
+        rsaHolder = MockUtils.anRsaHolder();
+    }
+
+    @Benchmark
+    public String uncached() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(EquensHttpClient.HEADER_AUTH_APP, "PIS");
+        headers.put(EquensHttpClient.HEADER_AUTH_CLIENT, "MarketPay");
+        headers.put(EquensHttpClient.HEADER_AUTH_DATE, new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy", Locale.US).format(new Date()));
+        headers.put(EquensHttpClient.HEADER_AUTH_ID, "XXXXXX");
+
+        byte[] sha1 = MessageDigest.getInstance("SHA1").digest(rsaHolder.getClientCertificate().getEncoded());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sha1.length; i++) {
+            sb.append(String.format("%02X", sha1[i]));
+            if (i < sha1.length - 1) {
+                sb.append(":");
+            }
+        }
+        String keyId = sb.toString().replace(":", "");
+
+        Signature signature = new Signature(keyId, RSA_SHA256, null, "app", "client", "id", "date");
+        Signer signer = new Signer(rsaHolder.getPrivateKey(), signature);
+        signature = signer.sign("POST", URI, headers);
+        return signature.toString().replace(RSA_SHA256.getPortableName(), RSA_SHA256.getJmvName());
+    }
+
+    @Benchmark
+    public Map<String, String> cached() {
+        return pisHttpClient.authorizationHeaders(URI, requestConfiguration);
+    }
+
+}
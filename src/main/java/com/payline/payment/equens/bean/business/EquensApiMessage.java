@@ -17,6 +17,14 @@ public abstract class EquensApiMessage {
         this.messageId = builder.messageId;
     }
 
+    /**
+     * Copy the fields of another message.
+     */
+    protected EquensApiMessage( EquensApiMessage other ){
+        this.messageCreateDateTime = other.messageCreateDateTime;
+        this.messageId = other.messageId;
+    }
+
     public static class EquensApiMessageBuilder {
         private Date messageCreateDateTime = new Date();
         private String messageId = "PAYLINE" + new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date());
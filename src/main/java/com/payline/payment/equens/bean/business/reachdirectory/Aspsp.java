@@ -10,6 +10,11 @@ import java.util.List;
 @Setter
 public class Aspsp {
 
+    /**
+     * Value of {@link #capabilities} when the details have not been decoded yet.
+     */
+    public static final int UNKNOWN_CAPABILITIES = -1;
+
     @SerializedName("AspspId")
     private String aspspId;
     @SerializedName("BIC")
@@ -24,4 +29,33 @@ public class Aspsp {
 
     private List<Aspsp> subsidiariesList;
 
+    /**
+     * The capabilities decoded from the details, see {@link com.payline.payment.equens.business.impl.BankBusinessImpl}.
+     * Not serialized: they are decoded again after each parsing of the directory.
+     */
+    private transient int capabilities = UNKNOWN_CAPABILITIES;
+
+    public void setDetails(List<Detail> details) {
+        this.details = details;
+        this.capabilities = UNKNOWN_CAPABILITIES;
+    }
+
+    /**
+     * Copy this ASPSP with other subsidiaries, leaving it unchanged (it may be shared, see {@link AspspDirectory}).
+     *
+     * @param subsidiariesList the subsidiaries of the copy
+     * @return the copy
+     */
+    public Aspsp withSubsidiariesList(List<Aspsp> subsidiariesList) {
+        final Aspsp copy = new Aspsp();
+        copy.aspspId = this.aspspId;
+        copy.bic = this.bic;
+        copy.countryCode = this.countryCode;
+        copy.name = this.name;
+        copy.details = this.details;
+        copy.capabilities = this.capabilities;
+        copy.subsidiariesList = subsidiariesList;
+        return copy;
+    }
+
 }
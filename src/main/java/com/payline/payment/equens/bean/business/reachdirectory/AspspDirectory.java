@@ -0,0 +1,260 @@
+package com.payline.payment.equens.bean.business.reachdirectory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot of the ASPSP directory stored in the plugin configuration, parsed once and shared between the requests
+ * (see {@link com.payline.payment.equens.service.AspspDirectoryCache}).
+ * The snapshot never changes: the ASPSPs it contains must not be modified either.
+ *
+ * The ASPSPs are indexed when the snapshot is built, so that the lookups by id, BIC and country code
+ * do not depend on the directory size. When several ASPSPs match a lookup, the first one in the directory wins.
+ *
+ * The views of the directory displayed by the payment form (the banks filtered and rendered as a form script, see
+ * {@link com.payline.payment.equens.service.BankFormService}) are computed once for each set of countries and payment
+ * product, then kept with the snapshot: a new snapshot (refreshed directory) starts with no view, and the views are
+ * dropped together with the snapshot when it leaves the cache.
+ */
+public class AspspDirectory {
+
+    /**
+     * Directory without any ASPSP.
+     */
+    public static final AspspDirectory EMPTY = new AspspDirectory(Collections.<Aspsp>emptyList());
+
+    private static final int BIC8_LENGTH = 8;
+
+    /**
+     * Maximum number of views kept by a snapshot. There is one for each distinct contract configuration
+     * (countries and payment product), so this limit should never be reached: above it, the views are not kept.
+     */
+    static final int MAX_VIEWS = 64;
+
+    private final List<Aspsp> aspsps;
+
+    /**
+     * Version of the processing the plugin configuration went through before it was stored
+     * (see {@link com.payline.payment.equens.service.PluginConfigurationCodec}), 0 if unknown.
+     */
+    private final int contentVersion;
+
+    /**
+     * The ASPSPs and their subsidiaries, by id.
+     */
+    private final Map<String, Aspsp> byId = new HashMap<>();
+
+    /**
+     * The ASPSPs, by BIC (upper case).
+     */
+    private final Map<String, Aspsp> byBic = new HashMap<>();
+
+    /**
+     * The ASPSPs, by the first 8 characters of their BIC (upper case).
+     */
+    private final Map<String, Aspsp> byBic8 = new HashMap<>();
+
+    /**
+     * The ASPSPs with a country code, in the directory order.
+     */
+    private final List<Aspsp> withCountry = new ArrayList<>();
+
+    /**
+     * The ASPSPs, by country code, in the directory order.
+     */
+    private final Map<String, List<Aspsp>> byCountry = new HashMap<>();
+
+    /**
+     * The views already computed, by countries and payment product.
+     */
+    private final Map<View, Object> views = new ConcurrentHashMap<>();
+
+    /**
+     * @param response the parsed plugin configuration, possibly null
+     */
+    public AspspDirectory(GetAspspsResponse response) {
+        this(response == null || response.getAspsps() == null ? Collections.<Aspsp>emptyList() : response.getAspsps());
+    }
+
+    /**
+     * @param aspsps the ASPSPs of the directory
+     */
+    public AspspDirectory(List<Aspsp> aspsps) {
+        this(aspsps, 0);
+    }
+
+    /**
+     * @param aspsps the ASPSPs of the directory
+     * @param contentVersion the content version of the plugin configuration they come from
+     */
+    public AspspDirectory(List<Aspsp> aspsps, int contentVersion) {
+        this.aspsps = Collections.unmodifiableList(new ArrayList<>(aspsps));
+        this.contentVersion = contentVersion;
+
+        for (Aspsp aspsp : this.aspsps) {
+            index(aspsp);
+            if (aspsp.getSubsidiariesList() != null) {
+                for (Aspsp subsidiary : aspsp.getSubsidiariesList()) {
+                    if (subsidiary.getAspspId() != null) {
+                        byId.putIfAbsent(subsidiary.getAspspId(), subsidiary);
+                    }
+                }
+            }
+        }
+        byCountry.replaceAll((countryCode, list) -> Collections.unmodifiableList(list));
+    }
+
+    private void index(Aspsp aspsp) {
+        if (aspsp.getAspspId() != null) {
+            byId.putIfAbsent(aspsp.getAspspId(), aspsp);
+        }
+        String bic = aspsp.getBic();
+        if (bic != null && !bic.isEmpty()) {
+            bic = bic.toUpperCase(Locale.ROOT);
+            byBic.putIfAbsent(bic, aspsp);
+            if (bic.length() >= BIC8_LENGTH) {
+                byBic8.putIfAbsent(bic.substring(0, BIC8_LENGTH), aspsp);
+            }
+        }
+        if (aspsp.getCountryCode() != null) {
+            withCountry.add(aspsp);
+            byCountry.computeIfAbsent(aspsp.getCountryCode(), k -> new ArrayList<>()).add(aspsp);
+        }
+    }
+
+    /**
+     * @return the ASPSPs of the directory, in the plugin configuration order (unmodifiable)
+     */
+    public List<Aspsp> getAspsps() {
+        return aspsps;
+    }
+
+    /**
+     * @return the content version of the plugin configuration the directory comes from, 0 if unknown
+     */
+    public int getContentVersion() {
+        return contentVersion;
+    }
+
+    /**
+     * @param aspspId an ASPSP id
+     * @return the ASPSP or subsidiary with this id, or null if there is none
+     */
+    public Aspsp getById(String aspspId) {
+        return aspspId == null ? null : byId.get(aspspId);
+    }
+
+    /**
+     * @param bic a BIC (case insensitive)
+     * @return the ASPSP whose BIC is exactly this one, or null if there is none
+     */
+    public Aspsp getByBic(String bic) {
+        return bic == null ? null : byBic.get(bic.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param bic a BIC of at least 8 characters (case insensitive)
+     * @return the ASPSP whose BIC starts with the same 8 characters (bank, country and location codes), or null if there is none
+     */
+    public Aspsp getByBic8(String bic) {
+        if (bic == null || bic.length() < BIC8_LENGTH) {
+            return null;
+        }
+        return byBic8.get(bic.substring(0, BIC8_LENGTH).toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param countryCodes the country codes to keep, all the countries if empty
+     * @return the ASPSPs with one of the given country codes, in the directory order (unmodifiable)
+     */
+    public List<Aspsp> getByCountries(Collection<String> countryCodes) {
+        if (countryCodes.isEmpty()) {
+            return Collections.unmodifiableList(withCountry);
+        }
+        if (countryCodes.size() == 1) {
+            return byCountry.getOrDefault(countryCodes.iterator().next(), Collections.emptyList());
+        }
+        // several countries: keep the directory order, rather than concatenating the partitions
+        final Set<String> countries = new HashSet<>(countryCodes);
+        final List<Aspsp> result = new ArrayList<>();
+        for (Aspsp aspsp : withCountry) {
+            if (countries.contains(aspsp.getCountryCode())) {
+                result.add(aspsp);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Get the view of the directory for the given countries and payment product, computing it the first time only.
+     * The order of the countries does not matter. A snapshot holds a single kind of view.
+     *
+     * @param countryCodes   the country codes
+     * @param paymentProduct the payment product
+     * @param builder        computes the view, if it's not known yet. It must only depend on the snapshot
+     *                       and on the two other arguments, and must not modify the ASPSPs.
+     * @param <T>            the view type
+     * @return the view, shared: it must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getView(Collection<String> countryCodes, String paymentProduct, Supplier<T> builder) {
+        final View key = new View(new HashSet<>(countryCodes), paymentProduct);
+        T view = (T) views.get(key);
+        if (view == null) {
+            // In case of concurrent calls, the view may be computed twice: both are equivalent.
+            view = builder.get();
+            if (views.size() < MAX_VIEWS) {
+                views.putIfAbsent(key, view);
+            }
+        }
+        return view;
+    }
+
+    /**
+     * @return the number of views kept
+     */
+    int viewCount() {
+        return views.size();
+    }
+
+    /**
+     * Key of a view.
+     */
+    private static class View {
+        private final Set<String> countryCodes;
+        private final String paymentProduct;
+
+        private View(Set<String> countryCodes, String paymentProduct) {
+            this.countryCodes = countryCodes;
+            this.paymentProduct = paymentProduct;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof View)) {
+                return false;
+            }
+            View other = (View) o;
+            return countryCodes.equals(other.countryCodes) && Objects.equals(paymentProduct, other.paymentProduct);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * countryCodes.hashCode() + Objects.hashCode(paymentProduct);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.payline.payment.equens.bean.business.reachdirectory;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Differences between two versions of the ASPSP directory: the number of banks added, removed and changed.
+ * A bank is identified by its id, and changed if any of its fields or details changed, or if it's now attached
+ * to another mother bank.
+ */
+public class DirectoryDiff {
+
+    private final int added;
+    private final int removed;
+    private final int changed;
+
+    public DirectoryDiff(int added, int removed, int changed) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return true if both versions contain the same banks
+     */
+    public boolean isEmpty() {
+        return added == 0 && removed == 0 && changed == 0;
+    }
+
+    /**
+     * @return true if both banks have the same fields and details (the subsidiaries are not compared)
+     */
+    public static boolean sameBank(Aspsp a, Aspsp b) {
+        return Objects.equals(a.getAspspId(), b.getAspspId())
+                && Objects.equals(a.getBic(), b.getBic())
+                && Objects.equals(a.getCountryCode(), b.getCountryCode())
+                && Objects.equals(a.getName(), b.getName())
+                && sameDetails(a.getDetails(), b.getDetails());
+    }
+
+    private static boolean sameDetails(List<Detail> a, List<Detail> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            Detail x = a.get(i);
+            Detail y = b.get(i);
+            if (!Objects.equals(x.getApi(), y.getApi())
+                    || !Objects.equals(x.getFieldName(), y.getFieldName())
+                    || !Objects.equals(x.getType(), y.getType())
+                    || !Objects.equals(x.getValue(), y.getValue())
+                    || !Objects.equals(x.getProtocolVersion(), y.getProtocolVersion())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return added + " added, " + removed + " removed, " + changed + " changed";
+    }
+
+}
@@ -14,7 +14,51 @@ public class GetAspspsResponse extends EquensApiMessage {
     @SerializedName("ASPSP")
     private List<Aspsp> aspsps;
 
+    /**
+     * Not part of the Equens response: version of the content of the plugin configuration (see
+     * {@link com.payline.payment.equens.service.PluginConfigurationCodec#CONTENT_VERSION}), null if it was stored
+     * before it existed.
+     */
+    @SerializedName("PluginContentVersion")
+    private Integer contentVersion;
+
+    /**
+     * The validators of the HTTP response (ETag and Last-Modified headers), null if it had none.
+     * They are not part of the response content.
+     */
+    private transient String etag;
+    private transient String lastModified;
+
     GetAspspsResponse(EquensApiMessageBuilder builder) {
         super(builder);
     }
+
+    private GetAspspsResponse(GetAspspsResponse other, List<Aspsp> aspsps, Integer contentVersion) {
+        super(other);
+        this.aspsps = aspsps;
+        this.contentVersion = contentVersion;
+        this.etag = other.etag;
+        this.lastModified = other.lastModified;
+    }
+
+    /**
+     * Copy this response with other ASPSPs, leaving it unchanged (it may be shared, see
+     * {@link com.payline.payment.equens.utils.http.PisHttpClient#getAspsps}).
+     *
+     * @param aspsps the ASPSPs of the copy
+     * @return the copy
+     */
+    public GetAspspsResponse withAspsps(List<Aspsp> aspsps) {
+        return new GetAspspsResponse(this, aspsps, contentVersion);
+    }
+
+    /**
+     * Copy this response with another content version, leaving it unchanged.
+     *
+     * @param contentVersion the content version of the copy
+     * @return the copy
+     */
+    public GetAspspsResponse withContentVersion(Integer contentVersion) {
+        return new GetAspspsResponse(this, aspsps, contentVersion);
+    }
 }
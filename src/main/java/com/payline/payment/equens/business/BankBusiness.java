@@ -10,9 +10,11 @@ public interface BankBusiness {
 
     boolean isCompatibleBank(List<Detail> details, String paymentMode);
 
-    String getPrefixBic(String bic);
+    boolean isCompatibleAspsp(Aspsp aspsp, String paymentMode);
 
     Aspsp convertToAspsp(String label, BankAffiliation bankAffiliation);
 
     boolean isIbanRequired(Aspsp aspsp);
+
+    int getCapabilities(Aspsp aspsp);
 }
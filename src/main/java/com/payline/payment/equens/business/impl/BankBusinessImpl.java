@@ -7,9 +7,7 @@ import com.payline.payment.equens.business.BankBusiness;
 import com.payline.payment.equens.service.impl.ConfigurationServiceImpl;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class BankBusinessImpl implements BankBusiness {
 
@@ -19,6 +17,19 @@ public class BankBusinessImpl implements BankBusiness {
     private static final String SUPPORTED_TYPE = "SUPPORTED";
     private static final String POST_PAYMENTS_API = "POST /payments";
 
+    /**
+     * Capability flag set when the debtor account (IBAN) is mandatory to initiate a payment.
+     * The lower bits are the supported payment products, by {@link ConfigurationServiceImpl.PaymentProduct} ordinal.
+     */
+    static final int IBAN_REQUIRED = 1 << 30;
+
+    private static final ConfigurationServiceImpl.PaymentProduct[] PAYMENT_PRODUCTS = ConfigurationServiceImpl.PaymentProduct.values();
+
+    /**
+     * The payment products supported when the details do not tell otherwise.
+     */
+    private static final int DEFAULT_PAYMENT_PRODUCTS = defaultPaymentProducts();
+
     /**
      * Check if a bank is compatible with payment mode given in parameter .
      * see PAYLAPMEXT-294
@@ -29,23 +40,19 @@ public class BankBusinessImpl implements BankBusiness {
      */
     @Override
     public boolean isCompatibleBank(final List<Detail> details, final String paymentMode) {
-        final Map<String, Boolean> compatibilityMap = new HashMap<>();
-        for (ConfigurationServiceImpl.PaymentProduct product : ConfigurationServiceImpl.PaymentProduct.values()) {
-            compatibilityMap.put(product.getPaymentProductCode(), product.getSupportedByDefault());
-        }
+        return (decodeCapabilities(details) & paymentProduct(paymentMode)) != 0;
+    }
 
-        if (details != null) {
-            for (Detail detail : details) {
-                if (PAYMENT_PRODUCT_FIELD_NAME.equals(detail.getFieldName())
-                        && SUPPORTED_TYPE.equals(detail.getType())
-                        && POST_PAYMENTS_API.equals(detail.getApi())) {
-                    for (ConfigurationServiceImpl.PaymentProduct product : ConfigurationServiceImpl.PaymentProduct.values()) {
-                        compatibilityMap.put(product.getPaymentProductCode(), detail.getValue().contains(product.getPaymentProductCode()));
-                    }
-                }
-            }
-        }
-        return compatibilityMap.get(paymentMode);
+    /**
+     * Check if a bank is compatible with payment mode given in parameter, using its decoded capabilities.
+     *
+     * @param aspsp
+     *      the bank.
+     * @return true if aspsp is compatible else false.
+     */
+    @Override
+    public boolean isCompatibleAspsp(final Aspsp aspsp, final String paymentMode) {
+        return (getCapabilities(aspsp) & paymentProduct(paymentMode)) != 0;
     }
 
     /**
@@ -55,24 +62,76 @@ public class BankBusinessImpl implements BankBusiness {
      * @return
      *      true si l'iban est obligatoire false sinon.
      */
+    @Override
     public boolean isIbanRequired(final Aspsp aspsp) {
-        boolean isRequired = false;
-        if (aspsp.getDetails() != null) {
-            for (Detail detail : aspsp.getDetails()) {
-                if (DEBTOR_ACCOUNT_FIELD_NAME.equals(detail.getFieldName())
-                        && POST_PAYMENTS_API.equals(detail.getApi())
-                        && MANDATORY.equals(detail.getType())) {
-                    isRequired = true;
-                    break;
+        return (getCapabilities(aspsp) & IBAN_REQUIRED) != 0;
+    }
+
+    /**
+     * Decode the details of the bank the first time, then return the decoded value kept by the bank.
+     * Concurrent first calls may decode the details twice, but they store the same value.
+     */
+    @Override
+    public int getCapabilities(final Aspsp aspsp) {
+        int capabilities = aspsp.getCapabilities();
+        if (capabilities == Aspsp.UNKNOWN_CAPABILITIES) {
+            capabilities = decodeCapabilities(aspsp.getDetails());
+            aspsp.setCapabilities(capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Decode the supported payment products and the IBAN requirement from the details of a bank.
+     * When several details list the supported payment products, the last one wins.
+     *
+     * @param details the bank details, possibly null
+     * @return the capabilities, as flags
+     */
+    static int decodeCapabilities(final List<Detail> details) {
+        int paymentProducts = DEFAULT_PAYMENT_PRODUCTS;
+        int ibanRequired = 0;
+        if (details != null) {
+            for (Detail detail : details) {
+                if (!POST_PAYMENTS_API.equals(detail.getApi())) {
+                    continue;
+                }
+                if (PAYMENT_PRODUCT_FIELD_NAME.equals(detail.getFieldName()) && SUPPORTED_TYPE.equals(detail.getType())) {
+                    paymentProducts = 0;
+                    for (ConfigurationServiceImpl.PaymentProduct product : PAYMENT_PRODUCTS) {
+                        if (detail.getValue() != null && detail.getValue().contains(product.getPaymentProductCode())) {
+                            paymentProducts |= 1 << product.ordinal();
+                        }
+                    }
+                } else if (DEBTOR_ACCOUNT_FIELD_NAME.equals(detail.getFieldName()) && MANDATORY.equals(detail.getType())) {
+                    ibanRequired = IBAN_REQUIRED;
                 }
             }
         }
-        return isRequired;
+        return paymentProducts | ibanRequired;
     }
 
-    @Override
-    public String getPrefixBic(String bic) {
-        return bic.length() >= 8 ? bic.substring(0,8) : bic;
+    /**
+     * @param paymentMode a payment product code
+     * @return the flag of this payment product, 0 if it is unknown
+     */
+    static int paymentProduct(final String paymentMode) {
+        for (ConfigurationServiceImpl.PaymentProduct product : PAYMENT_PRODUCTS) {
+            if (product.getPaymentProductCode().equals(paymentMode)) {
+                return 1 << product.ordinal();
+            }
+        }
+        return 0;
+    }
+
+    private static int defaultPaymentProducts() {
+        int paymentProducts = 0;
+        for (ConfigurationServiceImpl.PaymentProduct product : PAYMENT_PRODUCTS) {
+            if (product.getSupportedByDefault()) {
+                paymentProducts |= 1 << product.ordinal();
+            }
+        }
+        return paymentProducts;
     }
 
     @Override
@@ -0,0 +1,182 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.business.BankBusiness;
+import com.payline.payment.equens.business.impl.BankBusinessImpl;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.metrics.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Cache of the ASPSP directories parsed from the plugin configuration.
+ * The plugin configuration contains the whole directory (several thousands of banks), so it's parsed only once
+ * for each distinct content, whatever its format (see {@link PluginConfigurationCodec}). The directories are stored by a SHA-256 digest of the plugin configuration,
+ * so that a new directory is parsed as soon as it changes (refresh). Only the last configuration string looked up
+ * is kept.
+ *
+ * The capabilities of the banks are decoded when the directory is parsed, before it's shared. Then the listeners are
+ * notified (see {@link #addListener(BiConsumer)}): every instance of the plugin goes through this path when a new
+ * directory is used.
+ *
+ * The hits, misses and evictions are counted in the {@link Metrics}, with the prefix "directory.cache.".
+ */
+public class AspspDirectoryCache {
+
+    static final String METRIC_HIT = "directory.cache.hit";
+    static final String METRIC_MISS = "directory.cache.miss";
+    static final String METRIC_EVICTION = "directory.cache.eviction";
+
+    /**
+     * Maximum number of directories kept in cache. There is one plugin configuration per environment,
+     * plus the previous one for a short time after a refresh.
+     */
+    static final int MAX_ENTRIES = 4;
+
+    private Metrics metrics = Metrics.getInstance();
+
+    private PluginConfigurationCodec codec = PluginConfigurationCodec.getInstance();
+
+    private BankBusiness bankBusiness = new BankBusinessImpl();
+
+    private final Map<String, AspspDirectory> directories = new LinkedHashMap<String, AspspDirectory>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AspspDirectory> eldest) {
+            if (size() > MAX_ENTRIES) {
+                metrics.increment(METRIC_EVICTION);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Last plugin configuration looked up and its directory. The same configuration string is often looked up
+     * several times during a request: in this case, it's not even digested again.
+     */
+    private volatile LastLookup last;
+
+    /**
+     * Called with each directory parsed and the plugin configuration it comes from.
+     */
+    private final List<BiConsumer<String, AspspDirectory>> listeners = new CopyOnWriteArrayList<>();
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    AspspDirectoryCache() {
+    }
+
+    private static class Holder {
+        private static final AspspDirectoryCache instance = new AspspDirectoryCache();
+    }
+
+    public static AspspDirectoryCache getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Get the directory contained in the given plugin configuration, parsing it if it's not in cache yet.
+     *
+     * @param pluginConfiguration The plugin configuration (JSON)
+     * @return the corresponding directory, {@link AspspDirectory#EMPTY} if the plugin configuration is null
+     */
+    public AspspDirectory get(String pluginConfiguration) {
+        if (pluginConfiguration == null) {
+            return AspspDirectory.EMPTY;
+        }
+        LastLookup lastLookup = this.last;
+        if (lastLookup != null && lastLookup.pluginConfiguration == pluginConfiguration) {
+            metrics.increment(METRIC_HIT);
+            return lastLookup.directory;
+        }
+
+        String fingerprint = fingerprint(pluginConfiguration);
+        AspspDirectory directory;
+        synchronized (this.directories) {
+            directory = this.directories.get(fingerprint);
+        }
+        if (directory == null) {
+            metrics.increment(METRIC_MISS);
+            // In case of concurrent calls, the directory may be parsed twice: both instances are equivalent.
+            directory = codec.decodeDirectory(pluginConfiguration);
+            decodeCapabilities(directory);
+            synchronized (this.directories) {
+                this.directories.put(fingerprint, directory);
+            }
+            this.last = new LastLookup(pluginConfiguration, directory);
+            for (BiConsumer<String, AspspDirectory> listener : this.listeners) {
+                listener.accept(pluginConfiguration, directory);
+            }
+            return directory;
+        }
+        metrics.increment(METRIC_HIT);
+        this.last = new LastLookup(pluginConfiguration, directory);
+        return directory;
+    }
+
+    /**
+     * Register a listener, called each time a directory is parsed, with the plugin configuration it comes from.
+     * It's called by the thread which looks the directory up: it must not block.
+     *
+     * @param listener the listener
+     */
+    public void addListener(BiConsumer<String, AspspDirectory> listener) {
+        this.listeners.add(listener);
+    }
+
+    private void decodeCapabilities(AspspDirectory directory) {
+        for (Aspsp aspsp : directory.getAspsps()) {
+            bankBusiness.getCapabilities(aspsp);
+            if (aspsp.getSubsidiariesList() != null) {
+                for (Aspsp subsidiary : aspsp.getSubsidiariesList()) {
+                    bankBusiness.getCapabilities(subsidiary);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of directories in cache
+     */
+    int size() {
+        synchronized (this.directories) {
+            return this.directories.size();
+        }
+    }
+
+    /**
+     * Compute the SHA-256 digest of the given plugin configuration.
+     *
+     * @param pluginConfiguration The plugin configuration
+     * @return the digest, as a Base64 string
+     */
+    static String fingerprint(String pluginConfiguration) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(pluginConfiguration.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // should not happen as "SHA-256" is a verified valid algorithm
+            throw new PluginException("Plugin error: unable to digest the plugin configuration", e);
+        }
+    }
+
+    private static class LastLookup {
+        private final String pluginConfiguration;
+        private final AspspDirectory directory;
+
+        private LastLookup(String pluginConfiguration, AspspDirectory directory) {
+            this.pluginConfiguration = pluginConfiguration;
+            this.directory = directory;
+        }
+    }
+
+}
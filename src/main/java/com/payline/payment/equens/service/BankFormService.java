@@ -0,0 +1,350 @@
+package com.payline.payment.equens.service;
+
+import com.google.gson.stream.JsonWriter;
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.PluginUtils;
+import com.payline.payment.equens.utils.ScriptTemplate;
+import com.payline.payment.equens.utils.metrics.Metrics;
+import com.payline.pmapi.bean.paymentform.bean.field.SelectOption;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bank part of the payment form: the form script, with the data block of the banks, and the select options of the
+ * banks and subsidiaries. It only depends on the directory, the countries and the payment product, so it's built once
+ * for each directory and contract configuration, then kept as a view of the directory (see
+ * {@link AspspDirectory#getView}). This is the only cache of the payment form: it lives and dies with the directory in
+ * the {@link AspspDirectoryCache}. The filtered banks list it's built from is not kept, and the rest of the form
+ * (labels, fields) is built for each call.
+ *
+ * The scripts don't wait for the first payment form of a new directory: as soon as a directory is parsed, the scripts
+ * of the contract configurations already displayed by this instance are rendered in background, for the new directory.
+ *
+ * The hits, misses and scripts rendered in background are counted in the {@link Metrics}, with the prefix "form.script.".
+ */
+public class BankFormService {
+
+    private static final Logger LOGGER = LogManager.getLogger(BankFormService.class);
+
+    private static final String EQUENS_FILE_SCRIPT = "equensForm.js";
+
+    /**
+     * Keys of the banks data block (see {@link #buildBankScript(List, List, List)}).
+     */
+    private static final String DATA_LABELS = "l";
+    private static final String DATA_BANKS = "b";
+    private static final String DATA_LABEL = "n";
+    private static final String DATA_IBAN = "i";
+    private static final String DATA_SUBSIDIARIES = "s";
+    private static final String DATA_ASPSP_ID = "a";
+
+    static final String METRIC_SCRIPT_HIT = "form.script.hit";
+    static final String METRIC_SCRIPT_MISS = "form.script.miss";
+    static final String METRIC_SCRIPT_PRECOMPUTED = "form.script.precomputed";
+
+    /**
+     * Maximum number of contract configurations whose scripts are rendered for each new directory, as the number of
+     * views kept by a directory.
+     */
+    static final int MAX_PROFILES = 64;
+
+    private BankService bankService = BankService.getInstance();
+
+    private Metrics metrics = Metrics.getInstance();
+
+    /**
+     * The form script template, loaded on first use.
+     */
+    private volatile ScriptTemplate template;
+
+    /**
+     * The contract configurations (countries and payment product) whose script has been rendered.
+     */
+    private final Set<Profile> profiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Renders the scripts of the new directories, in background.
+     */
+    private final ExecutorService precomputer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "equens-form-precomputer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    BankFormService() {
+    }
+
+    private static class Holder {
+        private static final BankFormService instance = new BankFormService();
+
+        static {
+            instance.bankService.addDirectoryListener(instance::precompute);
+        }
+    }
+
+    public static BankFormService getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Get the form script and the select options of the banks available for the given countries and payment product,
+     * rendering them the first time only for each directory. The order of the countries does not matter.
+     * @param pluginConfiguration
+     *          the plugin configuration (directory).
+     * @param listCountryCode
+     *          the country codes.
+     * @param paymentProduct
+     *          the payment product.
+     * @return
+     *          the bank script, shared: it must not be modified.
+     */
+    public BankScript getBankScript(final String pluginConfiguration, final List<String> listCountryCode, final String paymentProduct) {
+        final AspspDirectory directory = bankService.getDirectory(pluginConfiguration);
+        final BankScript[] built = new BankScript[1];
+        final BankScript bankScript = directory.getView(listCountryCode, paymentProduct,
+                () -> built[0] = renderBankScript(pluginConfiguration, listCountryCode, paymentProduct));
+        if (built[0] == null) {
+            metrics.increment(METRIC_SCRIPT_HIT);
+        } else {
+            metrics.increment(METRIC_SCRIPT_MISS);
+            if (profiles.size() < MAX_PROFILES) {
+                profiles.add(new Profile(new HashSet<>(listCountryCode), paymentProduct));
+            }
+        }
+        return bankScript;
+    }
+
+    /**
+     * Render in background the scripts of the contract configurations already displayed, for a new directory.
+     * @param pluginConfiguration
+     *          the plugin configuration (directory).
+     * @param directory
+     *          the directory, just parsed.
+     * @return
+     *          the background task, null if there is no script to render.
+     */
+    Future<?> precompute(final String pluginConfiguration, final AspspDirectory directory) {
+        if (profiles.isEmpty()) {
+            return null;
+        }
+        return precomputer.submit(() -> {
+            for (Profile profile : profiles) {
+                try {
+                    directory.getView(profile.countryCodes, profile.paymentProduct, () -> {
+                        metrics.increment(METRIC_SCRIPT_PRECOMPUTED);
+                        return renderBankScript(pluginConfiguration, new ArrayList<>(profile.countryCodes), profile.paymentProduct);
+                    });
+                } catch (RuntimeException e) {
+                    // the script will be rendered by the first payment form which needs it
+                    LOGGER.warn("Unable to render the bank script in background", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Render the form script and the select options of the banks available for the given countries and payment product.
+     */
+    private BankScript renderBankScript(final String pluginConfiguration, final List<String> listCountryCode, final String paymentProduct) {
+        final List<Aspsp> banksList = bankService.fetchBanks(pluginConfiguration, listCountryCode, paymentProduct);
+        final List<SelectOption> bankOptionsList = new ArrayList<>();
+        final List<SelectOption> bankSubsidiairesList = new ArrayList<>();
+        final String bankJSScript = buildBankScript(banksList, bankOptionsList, bankSubsidiairesList);
+
+        return new BankScript(loadScript(Collections.singletonMap("$BANKS_TO_REPLACE$", bankJSScript)),
+                bankOptionsList, bankSubsidiairesList);
+    }
+
+    /**
+     * Method used to load JQuery script for Equens form.
+     * The script file is read and split at its placeholders once, then only rendered.
+     * @param arguments list of arguments to inject to script.
+     * @return script with arguments.
+     */
+    protected String loadScript(Map<String, String> arguments) {
+        ScriptTemplate scriptTemplate = this.template;
+        if (scriptTemplate == null) {
+            scriptTemplate = ScriptTemplate.load(EQUENS_FILE_SCRIPT);
+            this.template = scriptTemplate;
+        }
+        return scriptTemplate.render(arguments);
+    }
+
+    /**
+     * Build the data block of the banks for the JS script: a minified JSON object, with short keys, containing
+     * <ul>
+     *     <li>"l": the distinct labels of the subsidiaries, each written once</li>
+     *     <li>"b": the banks by name (the value of the select field), so that the script finds the selected bank
+     *     with a single lookup. A bank has "i" set to 1 if the IBAN is required (omitted otherwise) and "s" its
+     *     subsidiaries (omitted if there is none), with "a" their AspspId, "n" the index of their label and "i".
+     *     If several banks have the same name, the first one is kept.</li>
+     * </ul>
+     * The strings are escaped by the JSON writer, including the characters which can't be embedded as is in a script
+     * (quotes, '&lt;', '&gt;', '&amp;', '=', U+2028 and U+2029).
+     * The select options of the banks and of the subsidiaries are filled at the same time.
+     * @param banksList
+     *          the banks, with their subsidiaries.
+     * @param bankOptionsList
+     *          the select options of the banks, to fill.
+     * @param bankSubsidiairesList
+     *          the select options of the subsidiaries, to fill.
+     * @return
+     *          the data block.
+     */
+    protected String buildBankScript(final List<Aspsp> banksList, final List<SelectOption> bankOptionsList, final List<SelectOption> bankSubsidiairesList) {
+        final Map<String, Integer> labels = new LinkedHashMap<>();
+        final Set<String> bankNames = new HashSet<>();
+        final StringWriter banks = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(banks)) {
+            writer.setHtmlSafe(true);
+            writer.beginObject();
+            for (Aspsp bank : banksList) {
+                bankOptionsList.add(buildAspspOption(bank));
+                final String bankName = getName(bank);
+                if (!bankNames.add(bankName)) {
+                    continue;
+                }
+                writer.name(bankName).beginObject();
+                writeIban(writer, bank);
+                if (!PluginUtils.isEmptyList(bank.getSubsidiariesList())) {
+                    writer.name(DATA_SUBSIDIARIES).beginArray();
+                    for (Aspsp sub : bank.getSubsidiariesList()) {
+                        bankSubsidiairesList.add(buildAspspOption(sub));
+                        writer.beginObject();
+                        writer.name(DATA_ASPSP_ID).value(sub.getAspspId());
+                        writer.name(DATA_LABEL).value(getLabelIndex(labels, getName(sub)));
+                        writeIban(writer, sub);
+                        writer.endObject();
+                    }
+                    writer.endArray();
+                }
+                writer.endObject();
+            }
+            writer.endObject();
+
+            final StringWriter data = new StringWriter(banks.getBuffer().length() + 32 * labels.size());
+            try (JsonWriter dataWriter = new JsonWriter(data)) {
+                dataWriter.setHtmlSafe(true);
+                dataWriter.beginObject().name(DATA_LABELS).beginArray();
+                for (String label : labels.keySet()) {
+                    dataWriter.value(label);
+                }
+                dataWriter.endArray().name(DATA_BANKS).jsonValue(banks.toString()).endObject();
+            }
+            return data.toString();
+        } catch (IOException e) {
+            // should not happen as the data is written in memory
+            throw new PluginException("Plugin error: unable to write the banks data", e);
+        }
+    }
+
+    private static String getName(final Aspsp aspsp) {
+        return PluginUtils.isEmptyList(aspsp.getName()) ? "" : aspsp.getName().get(0);
+    }
+
+    private static int getLabelIndex(final Map<String, Integer> labels, final String label) {
+        Integer index = labels.get(label);
+        if (index == null) {
+            index = labels.size();
+            labels.put(label, index);
+        }
+        return index;
+    }
+
+    private void writeIban(final JsonWriter writer, final Aspsp aspsp) throws IOException {
+        if (bankService.isIbanRequired(aspsp)) {
+            writer.name(DATA_IBAN).value(1);
+        }
+    }
+
+    /**
+     * Build a SelectOption object from aspsp information
+     * @param aspsp
+     *          Aspsp object which contains information.
+     * @return
+     *        selectOption build.
+     */
+    protected SelectOption buildAspspOption(Aspsp aspsp) {
+        // add the aspsp name if exists
+        return SelectOption.SelectOptionBuilder.aSelectOption()
+                .withKey(aspsp.getAspspId())
+                .withValue(getName(aspsp))
+                .build();
+    }
+
+    /**
+     * The form script of a list of banks, and the corresponding select options.
+     */
+    public static class BankScript {
+        private final String script;
+        private final List<SelectOption> bankOptions;
+        private final List<SelectOption> subsidiaryOptions;
+
+        BankScript(String script, List<SelectOption> bankOptions, List<SelectOption> subsidiaryOptions) {
+            this.script = script;
+            this.bankOptions = Collections.unmodifiableList(bankOptions);
+            this.subsidiaryOptions = Collections.unmodifiableList(subsidiaryOptions);
+        }
+
+        public String getScript() {
+            return script;
+        }
+
+        public List<SelectOption> getBankOptions() {
+            return bankOptions;
+        }
+
+        public List<SelectOption> getSubsidiaryOptions() {
+            return subsidiaryOptions;
+        }
+    }
+
+    /**
+     * A contract configuration the bank script depends on: the countries and the payment product.
+     */
+    private static class Profile {
+        private final Set<String> countryCodes;
+        private final String paymentProduct;
+
+        private Profile(Set<String> countryCodes, String paymentProduct) {
+            this.countryCodes = countryCodes;
+            this.paymentProduct = paymentProduct;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Profile)) {
+                return false;
+            }
+            Profile other = (Profile) o;
+            return countryCodes.equals(other.countryCodes) && Objects.equals(paymentProduct, other.paymentProduct);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * countryCodes.hashCode() + Objects.hashCode(paymentProduct);
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.payline.payment.equens.service;
 import com.payline.payment.equens.bean.business.banks.BankAffiliation;
 import com.payline.payment.equens.bean.business.banks.BanksAffiliation;
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.bean.business.reachdirectory.DirectoryDiff;
 import com.payline.payment.equens.business.BankBusiness;
 import com.payline.payment.equens.business.impl.BankBusinessImpl;
 import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.BicPrefixTrie;
 import com.payline.payment.equens.utils.PluginUtils;
 import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,19 +20,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
+import java.util.Objects;
+import java.util.Set;
 
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 public class BankService {
 
     protected static final String BANK_AFFILIATION_PATH = "bank/Bank_Affiliation_file.json";
 
+    /**
+     * Locale of the rules used to sort the banks by name.
+     */
+    private static final Locale COLLATION_LOCALE = Locale.FRENCH;
+
     private static class Holder {
         private static final BankService instance = new BankService();
     }
@@ -44,6 +59,39 @@ public class BankService {
 
     private BankBusiness bankBusiness = new BankBusinessImpl();
 
+    private AspspDirectoryCache directoryCache = AspspDirectoryCache.getInstance();
+
+    /**
+     * The bank affiliation registry (mother banks by name), see {@link #getMotherBanks()}.
+     */
+    private volatile Map<String, BankAffiliation> motherBanks;
+
+    /**
+     * The mother banks indexed by BIC prefix, see {@link #getAffiliations()}.
+     */
+    private volatile BicPrefixTrie<Map.Entry<String, BankAffiliation>> affiliations;
+
+    /**
+     * Retrieve the ASPSP directory contained in the plugin configuration.
+     * It's parsed once for each distinct plugin configuration, and shared: it must not be modified.
+     * @param pluginConfiguration
+     *      Plugin configuration.
+     * @return
+     *      the ASPSP directory, empty if the plugin configuration is null.
+     */
+    public AspspDirectory getDirectory(final String pluginConfiguration) {
+        return directoryCache.get(pluginConfiguration);
+    }
+
+    /**
+     * Register a listener, called each time a new directory is parsed (see {@link AspspDirectoryCache#addListener}).
+     *
+     * @param listener the listener, called with the plugin configuration and its directory
+     */
+    public void addDirectoryListener(final BiConsumer<String, AspspDirectory> listener) {
+        directoryCache.addListener(listener);
+    }
+
     /**
      * Retrieve Aspsp with aspspId given in parameter.
      * @param pluginConfiguration
@@ -54,67 +102,148 @@ public class BankService {
      *      Aspsp object if found.
      */
     public Aspsp getAspsp(final String pluginConfiguration, final String aspspId) {
-        final List<Aspsp> aspspList = jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class).getAspsps();
-        final List<Aspsp> resultList = new ArrayList<>();
-
-        for (Aspsp aspsp: aspspList) {
-            if (aspspId.equals(aspsp.getAspspId())) {
-                resultList.add(aspsp);
-            } else if (aspsp.getSubsidiariesList() != null) {
-                resultList.addAll(aspsp.getSubsidiariesList()
-                        .stream().filter(e -> e.getAspspId().equals(aspspId)).collect(Collectors.toList()));
-            }
-        }
-        return resultList.isEmpty() ? null : resultList.get(0);
+        return getDirectory(pluginConfiguration).getById(aspspId);
     }
 
     /**
      * Method used to build Banks with subsidiariesList.
+     * A bank is a subsidiary of the mother bank with the longest BIC prefix matching its BIC, whatever the prefix length.
+     * The banks are grouped in a single pass, then each group is sorted once, by name. The names are compared
+     * with the rules of the French language (accents), using collation keys computed once for each bank.
      * @param aspspsList
      *      List of Aspsps with subsidiairies.
      * @return
-     *      Aspsp list wi
+     *      Aspsp list with the mother banks having at least one subsidiary, and the other banks, sorted by name.
      *
      */
     public List<Aspsp> buildBanksWithAffiliation(List<Aspsp> aspspsList) {
-        final Map<String, BankAffiliation> primaryBankList = fetchMotherBanks(BANK_AFFILIATION_PATH);
-        final List<Aspsp> resultList = new ArrayList<>();
-        final Map<String, Aspsp> primaryList = new HashMap<>();
+        final Collator collator = Collator.getInstance(COLLATION_LOCALE);
 
-        // On transforme les banques primaires en AspspId
-        primaryBankList.forEach((k, v) -> {
-            final Aspsp temp = bankBusiness.convertToAspsp(k, v);
-            primaryList.put(temp.getBic(), temp);
-        });
+        final BicPrefixTrie<Map.Entry<String, BankAffiliation>> primaryBanks = getAffiliations();
 
-        // On compare la liste reçu par Equens si on trouve un bic qui commençe par
-        //alors on l'ajoute à la liste des subsidiaries sinon on considère que c'est une banque primaire
+        // Si on trouve une banque primaire correspondant au début du BIC (le préfixe le plus long),
+        // la banque est une filiale, sinon on considère que c'est une banque primaire
+        final List<SortableAspsp> resultList = new ArrayList<>();
+        final Map<Map.Entry<String, BankAffiliation>, List<SortableAspsp>> subsidiaries = new IdentityHashMap<>();
         for (Aspsp aspsp : aspspsList) {
-            if (!PluginUtils.isEmpty(aspsp.getBic()) && !PluginUtils.isEmptyList(aspsp.getName())) {
-                final Aspsp motherBank = primaryList.get(bankBusiness.getPrefixBic(aspsp.getBic()));
-                if (motherBank == null) {
-                    resultList.add(aspsp);
+            if (isListed(aspsp)) {
+                final Map.Entry<String, BankAffiliation> primaryBank = primaryBanks.getLongestPrefix(aspsp.getBic());
+                final SortableAspsp sortable = new SortableAspsp(aspsp, collator);
+                if (primaryBank != null) {
+                    subsidiaries.computeIfAbsent(primaryBank, k -> new ArrayList<>()).add(sortable);
                 } else {
-                    List<Aspsp> subsidiariesList = motherBank.getSubsidiariesList();
-                    if (subsidiariesList == null) {
-                        subsidiariesList = new ArrayList<>();
-                    }
-                    subsidiariesList.add(aspsp);
-                    subsidiariesList.sort(Comparator.comparing(e -> e.getName().get(0)));
-                    motherBank.setSubsidiariesList(subsidiariesList);
+                    resultList.add(sortable);
                 }
             }
         }
-        //On ajoute les maisons mères qui ont au moins une filiale et on les tri
-        //par nom.
-        resultList.addAll(primaryList.values()
-                .stream()
-                .filter(e -> !PluginUtils.isEmptyList(e.getSubsidiariesList()))
-                .collect(Collectors.toList()));
+
+        // On ajoute les maisons mères qui ont au moins une filiale, avec leurs filiales triées par nom.
+        subsidiaries.forEach((primaryBank, group) -> {
+            Collections.sort(group);
+            final Aspsp motherBank = bankBusiness.convertToAspsp(primaryBank.getKey(), primaryBank.getValue());
+            motherBank.setSubsidiariesList(group.stream().map(SortableAspsp::getAspsp).collect(Collectors.toList()));
+            resultList.add(new SortableAspsp(motherBank, collator));
+        });
 
         //On tri les résultats par nom.
-        resultList.sort(Comparator.comparing(e -> e.getName().get(0)));
-        return resultList;
+        Collections.sort(resultList);
+        return resultList.stream().map(SortableAspsp::getAspsp).collect(Collectors.toList());
+    }
+
+    /**
+     * Compare the ASPSPs retrieved from the partner API with the directory of a previous plugin configuration,
+     * as they would be listed and attached to their mother banks by {@link #buildBanksWithAffiliation(List)}.
+     * @param previousConfiguration
+     *      the previous plugin configuration, not null
+     * @param aspsps
+     *      the ASPSPs retrieved from the partner API
+     * @return
+     *      the differences, or null if the previous plugin configuration can't be read.
+     */
+    public DirectoryDiff diff(final String previousConfiguration, final List<Aspsp> aspsps) {
+        final AspspDirectory previous;
+        try {
+            previous = getDirectory(previousConfiguration);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to read the previous plugin configuration", e);
+            return null;
+        }
+
+        // the previous banks and the name of their mother bank, by id
+        final Map<String, Aspsp> previousBanks = new HashMap<>();
+        final Map<String, String> previousMotherBanks = new HashMap<>();
+        for (Aspsp aspsp : previous.getAspsps()) {
+            if (PluginUtils.isEmptyList(aspsp.getSubsidiariesList())) {
+                previousBanks.put(diffKey(aspsp), aspsp);
+            } else {
+                for (Aspsp subsidiary : aspsp.getSubsidiariesList()) {
+                    previousBanks.put(diffKey(subsidiary), subsidiary);
+                    previousMotherBanks.put(diffKey(subsidiary), PluginUtils.isEmptyList(aspsp.getName()) ? null : aspsp.getName().get(0));
+                }
+            }
+        }
+
+        final BicPrefixTrie<Map.Entry<String, BankAffiliation>> affiliations = getAffiliations();
+        final Set<String> found = new HashSet<>();
+        int added = 0;
+        int changed = 0;
+        for (Aspsp aspsp : aspsps == null ? Collections.<Aspsp>emptyList() : aspsps) {
+            if (!isListed(aspsp)) {
+                continue;
+            }
+            final String key = diffKey(aspsp);
+            final Aspsp before = previousBanks.get(key);
+            if (before == null || !found.add(key)) {
+                // new bank, or the same id twice
+                added++;
+                continue;
+            }
+            final Map.Entry<String, BankAffiliation> motherBank = affiliations.getLongestPrefix(aspsp.getBic());
+            if (!DirectoryDiff.sameBank(before, aspsp)
+                    || !Objects.equals(previousMotherBanks.get(key), motherBank == null ? null : motherBank.getKey())) {
+                changed++;
+            }
+        }
+        return new DirectoryDiff(added, previousBanks.size() - found.size(), changed);
+    }
+
+    private static String diffKey(Aspsp aspsp) {
+        return aspsp.getAspspId() != null ? aspsp.getAspspId() : "BIC:" + aspsp.getBic();
+    }
+
+    /**
+     * @return true if the bank can be listed: it has a BIC and a name
+     */
+    private static boolean isListed(Aspsp aspsp) {
+        return !PluginUtils.isEmpty(aspsp.getBic()) && !PluginUtils.isEmptyList(aspsp.getName());
+    }
+
+    /**
+     * @return the mother banks (name and affiliation) by BIC prefix, built the first time only
+     */
+    BicPrefixTrie<Map.Entry<String, BankAffiliation>> getAffiliations() {
+        BicPrefixTrie<Map.Entry<String, BankAffiliation>> trie = this.affiliations;
+        if (trie == null) {
+            trie = new BicPrefixTrie<>();
+            for (Map.Entry<String, BankAffiliation> primaryBank : getMotherBanks().entrySet()) {
+                trie.put(primaryBank.getValue().getPrefixBIC(), primaryBank);
+            }
+            this.affiliations = trie;
+        }
+        return trie;
+    }
+
+    /**
+     * @return the bank affiliation registry, loaded the first time only
+     */
+    Map<String, BankAffiliation> getMotherBanks() {
+        Map<String, BankAffiliation> banks = this.motherBanks;
+        if (banks == null) {
+            // In case of concurrent calls, the registry may be loaded twice: both instances are equivalent.
+            banks = Collections.unmodifiableMap(fetchMotherBanks(BANK_AFFILIATION_PATH));
+            this.motherBanks = banks;
+        }
+        return banks;
     }
 
     /**
@@ -122,21 +251,19 @@ public class BankService {
      * for a select list. The key of each option is the AspspId and the value is "BIC - name".
      * PAYLAPMEXT-204: if BIC is null, the selection option's value will just be the name of the bank.
      * PAYLAPMEXT-203: filter the list using the countryCode (if provided) to keep only the banks which country code matches.
+     * The list is computed for each call: the payment form keeps the banks it displays with the directory
+     * (see {@link BankFormService}).
      *
      * @param pluginConfiguration The PluginConfiguration string
      * @param listCountryCode     List of 2-letters country code
-     * @return The list of banks, as select options.
+     * @return The list of banks, as select options (unmodifiable).
      */
     public List<Aspsp> fetchBanks(String pluginConfiguration, List<String> listCountryCode, String paymentMode) {
-        final List<Aspsp> aspspList = new ArrayList<>();
         if (pluginConfiguration == null) {
             LOGGER.warn("pluginConfiguration is null");
-        } else {
-            final List<Aspsp> aspsps = jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class).getAspsps();
-            final List<Aspsp> validAspsps = fetchValidAspsp(aspsps, listCountryCode, paymentMode);
-            aspspList.addAll(validAspsps);
+            return Collections.emptyList();
         }
-        return aspspList;
+        return Collections.unmodifiableList(fetchValidAspsp(getDirectory(pluginConfiguration), listCountryCode, paymentMode));
     }
 
     public boolean isIbanRequired(Aspsp aspsp) {
@@ -144,7 +271,7 @@ public class BankService {
     }
 
     public boolean isCompatibleBank(Aspsp aspsp, final String paymentMode) {
-        return bankBusiness.isCompatibleBank(aspsp.getDetails(), paymentMode);
+        return bankBusiness.isCompatibleAspsp(aspsp, paymentMode);
     }
 
     protected Map<String, BankAffiliation> fetchMotherBanks(String motherBankPath) {
@@ -165,23 +292,21 @@ public class BankService {
         }
     }
 
-    protected List<Aspsp> fetchValidAspsp(List<Aspsp> aspsps, List<String> listCountryCode, String paymentMode) {
-        final List<Aspsp> validAspsp = aspsps.stream()
-                .filter(e -> e.getCountryCode() != null)
-                .filter(e -> listCountryCode.isEmpty() || listCountryCode.contains(e.getCountryCode()))
+    protected List<Aspsp> fetchValidAspsp(AspspDirectory directory, List<String> listCountryCode, String paymentMode) {
+        final List<Aspsp> validAspsp = directory.getByCountries(listCountryCode).stream()
                 .filter(e -> !PluginUtils.isEmpty(e.getBic()))
                 .collect(Collectors.toList());
 
         final List<Aspsp> resultList = new ArrayList<>();
         for (final Aspsp aspsp : validAspsp) {
-            if (PluginUtils.isEmptyList(aspsp.getSubsidiariesList()) && bankBusiness.isCompatibleBank(aspsp.getDetails(), paymentMode)) {
+            if (PluginUtils.isEmptyList(aspsp.getSubsidiariesList()) && bankBusiness.isCompatibleAspsp(aspsp, paymentMode)) {
                 resultList.add(aspsp);
             }
             if (!PluginUtils.isEmptyList(aspsp.getSubsidiariesList())) {
                 final List<Aspsp> validSubsidiaires = fetchValidSubsidiaries(aspsp, paymentMode);
                 if (!PluginUtils.isEmptyList(validSubsidiaires)) {
-                    aspsp.setSubsidiariesList(validSubsidiaires);
-                    resultList.add(aspsp);
+                    // the ASPSPs are shared by the cached directory: filter a copy
+                    resultList.add(aspsp.withSubsidiariesList(validSubsidiaires));
                 }
             }
         }
@@ -197,11 +322,33 @@ public class BankService {
     protected List<Aspsp> fetchValidSubsidiaries(final Aspsp aspsp, final String paymentMode) {
         final List<Aspsp> validSubsidiaires = new ArrayList<>();
         for (final Aspsp sub : aspsp.getSubsidiariesList()) {
-            if (bankBusiness.isCompatibleBank(sub.getDetails(), paymentMode)) {
+            if (bankBusiness.isCompatibleAspsp(sub, paymentMode)) {
                 validSubsidiaires.add(sub);
             }
         }
         return validSubsidiaires;
     }
 
-}
\ No newline at end of file
+    /**
+     * A bank and the collation key of its name.
+     */
+    private static class SortableAspsp implements Comparable<SortableAspsp> {
+        private final Aspsp aspsp;
+        private final CollationKey key;
+
+        private SortableAspsp(Aspsp aspsp, Collator collator) {
+            this.aspsp = aspsp;
+            this.key = collator.getCollationKey(aspsp.getName().get(0));
+        }
+
+        private Aspsp getAspsp() {
+            return aspsp;
+        }
+
+        @Override
+        public int compareTo(SortableAspsp other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.Constants;
+import com.payline.payment.equens.utils.PluginUtils;
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local copy of the last plugin configuration (ASPSP directory) successfully retrieved, kept across restarts,
+ * with the validators (ETag, Last-Modified) of the ASPSPs response it was built from.
+ * It's used when the directory can't be retrieved and the host has no plugin configuration yet, and to send
+ * conditional requests to the ASPSPs endpoint.
+ *
+ * There is one snapshot per partner environment: the file name is the property "directory.snapshot.path" followed by
+ * a fingerprint of the token and ASPSPs endpoints URLs, so an environment never falls back on the directory of another.
+ * Each file is written in its own temporary file then moved, so that it's never read partially written, even if
+ * several saves run at the same time. It's read once, then kept in memory. The file starts with the header
+ * {@link #HEADER} (format version), followed by a line with the ETag, a line with the Last-Modified date (both empty
+ * if the response had none) and the plugin configuration, in UTF-8. The files with the previous header
+ * {@link #HEADER_V1} (without validators) are still read.
+ *
+ * The property can refer to system properties, like "${java.io.tmpdir}" (the default is in the temporary directory).
+ * If it's empty, the snapshots are only kept in memory.
+ */
+public class DirectorySnapshotStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(DirectorySnapshotStore.class);
+
+    static final String HEADER = "EQNS-SNAPSHOT-2\n";
+    static final String HEADER_V1 = "EQNS-SNAPSHOT-1\n";
+
+    private static final String PATH_PROPERTY = "directory.snapshot.path";
+
+    /**
+     * Reference to a system property in the path, like "${java.io.tmpdir}".
+     */
+    private static final Pattern SYSTEM_PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+
+    protected ConfigProperties config = ConfigProperties.getInstance();
+
+    /**
+     * The last snapshot saved or loaded, by partner environment (see {@link #environmentKey(PartnerConfiguration)}).
+     */
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    DirectorySnapshotStore() {
+    }
+
+    private static class Holder {
+        private static final DirectorySnapshotStore instance = new DirectorySnapshotStore();
+    }
+
+    public static DirectorySnapshotStore getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Save the given plugin configuration. A failure to write the file is only logged: the snapshot is a fallback.
+     *
+     * @param partnerConfiguration the partner configuration of the environment the plugin configuration comes from
+     * @param snapshot the snapshot, not null
+     */
+    public void save(PartnerConfiguration partnerConfiguration, Snapshot snapshot) {
+        final String environmentKey = environmentKey(partnerConfiguration);
+        if (snapshot.equals(this.snapshots.put(environmentKey, snapshot))) {
+            return;
+        }
+        final Path path = path(environmentKey);
+        if (path == null) {
+            return;
+        }
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            Files.write(temporary, (HEADER + nullToEmpty(snapshot.etag) + "\n" + nullToEmpty(snapshot.lastModified) + "\n"
+                    + snapshot.pluginConfiguration).getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save the directory snapshot {}", path, e);
+            deleteQuietly(temporary);
+        }
+    }
+
+    /**
+     * @param partnerConfiguration the partner configuration of the environment
+     * @return the last snapshot saved for this environment, or null if there is none (or if it can't be read)
+     */
+    public Snapshot load(PartnerConfiguration partnerConfiguration) {
+        final String environmentKey = environmentKey(partnerConfiguration);
+        Snapshot loaded = this.snapshots.get(environmentKey);
+        if (loaded != null) {
+            return loaded;
+        }
+        final Path path = path(environmentKey);
+        if (path == null) {
+            return null;
+        }
+        try {
+            final String content = StandardCharsets.UTF_8.newDecoder()
+                    .decode(ByteBuffer.wrap(Files.readAllBytes(path)))
+                    .toString();
+            loaded = parse(content);
+            if (loaded == null) {
+                LOGGER.warn("Invalid directory snapshot {}", path);
+                return null;
+            }
+        } catch (NoSuchFileException e) {
+            LOGGER.info("No directory snapshot {}", path);
+            return null;
+        } catch (CharacterCodingException e) {
+            LOGGER.warn("Invalid directory snapshot {}", path, e);
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to load the directory snapshot {}", path, e);
+            return null;
+        }
+        this.snapshots.putIfAbsent(environmentKey, loaded);
+        return loaded;
+    }
+
+    /**
+     * @param content the content of a snapshot file
+     * @return the snapshot, or null if the content is invalid
+     */
+    private static Snapshot parse(String content) {
+        if (content.startsWith(HEADER_V1)) {
+            return new Snapshot(content.substring(HEADER_V1.length()), null, null);
+        }
+        if (!content.startsWith(HEADER)) {
+            return null;
+        }
+        final int etagEnd = content.indexOf('\n', HEADER.length());
+        final int lastModifiedEnd = etagEnd < 0 ? -1 : content.indexOf('\n', etagEnd + 1);
+        if (lastModifiedEnd < 0) {
+            return null;
+        }
+        return new Snapshot(content.substring(lastModifiedEnd + 1),
+                emptyToNull(content.substring(HEADER.length(), etagEnd)),
+                emptyToNull(content.substring(etagEnd + 1, lastModifiedEnd)));
+    }
+
+    /**
+     * @param environmentKey the key of the partner environment
+     * @return the path of the snapshot of this environment, or null if the snapshots are not written
+     */
+    private Path path(String environmentKey) {
+        final String path = config.get(PATH_PROPERTY);
+        return PluginUtils.isEmpty(path) ? null : Paths.get(resolveSystemProperties(path) + "." + environmentKey);
+    }
+
+    /**
+     * @param path the path, with references to system properties
+     * @return the path where the references are replaced by the system properties values (empty if not set)
+     */
+    static String resolveSystemProperties(String path) {
+        final Matcher matcher = SYSTEM_PROPERTY.matcher(path);
+        final StringBuffer resolved = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(System.getProperty(matcher.group(1), "")));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    /**
+     * @param partnerConfiguration the partner configuration of the environment
+     * @return the path of the snapshot of this environment, or null if the snapshots are not written
+     */
+    Path path(PartnerConfiguration partnerConfiguration) {
+        return path(environmentKey(partnerConfiguration));
+    }
+
+    /**
+     * Identify the partner environment a directory comes from, by a SHA-256 digest of the token and ASPSPs endpoints URLs.
+     *
+     * @param partnerConfiguration the partner configuration
+     * @return the digest, as a Base64 string which can be used in a file name
+     */
+    static String environmentKey(PartnerConfiguration partnerConfiguration) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String key : new String[]{Constants.PartnerConfigurationKeys.API_URL_TOKEN, Constants.PartnerConfigurationKeys.API_URL_PIS_ASPSPS}) {
+                String value = partnerConfiguration.getProperty(key);
+                digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                // separator, so that moving characters from one value to the next changes the digest
+                digest.update((byte) 0);
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // should not happen as "SHA-256" is a verified valid algorithm
+            throw new PluginException("Plugin error: unable to digest the partner configuration", e);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void deleteQuietly(Path temporary) {
+        if (temporary == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete the temporary file {}", temporary, e);
+        }
+    }
+
+    /**
+     * A plugin configuration, and the validators of the ASPSPs response it was built from.
+     */
+    public static class Snapshot {
+        private final String pluginConfiguration;
+        private final String etag;
+        private final String lastModified;
+
+        /**
+         * @param pluginConfiguration the plugin configuration, not null
+         * @param etag the ETag of the ASPSPs response, or null
+         * @param lastModified the Last-Modified date of the ASPSPs response, or null
+         */
+        public Snapshot(String pluginConfiguration, String etag, String lastModified) {
+            this.pluginConfiguration = pluginConfiguration;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getPluginConfiguration() {
+            return pluginConfiguration;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return `true` if the snapshot has validators, so that a conditional request can be sent
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Snapshot snapshot = (Snapshot) o;
+            return pluginConfiguration.equals(snapshot.pluginConfiguration)
+                    && Objects.equals(etag, snapshot.etag)
+                    && Objects.equals(lastModified, snapshot.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pluginConfiguration, etag, lastModified);
+        }
+    }
+
+}
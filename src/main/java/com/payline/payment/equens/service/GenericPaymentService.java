@@ -3,7 +3,6 @@ package com.payline.payment.equens.service;
 import com.payline.payment.equens.bean.GenericPaymentRequest;
 import com.payline.payment.equens.bean.business.payment.*;
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
-import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.exception.PluginException;
@@ -33,7 +32,6 @@ public class GenericPaymentService {
     public static final String PSU_IP_ADDRESS = "PsuIpAddress";
 
     private PisHttpClient pisHttpClient = PisHttpClient.getInstance();
-    private static JsonService jsonService = JsonService.getInstance();
     private BankService bankService = BankService.getInstance();
 
     private GenericPaymentService() {
@@ -242,7 +240,7 @@ public class GenericPaymentService {
         // get the countryCode from the BIC or ASPSP id
         if (paymentData.getBic() != null) {
             countryCode = PluginUtils.getCountryCodeFromBIC(
-                    jsonService.fromJson(paymentRequest.getPluginConfiguration(), GetAspspsResponse.class).getAspsps()
+                    bankService.getDirectory(paymentRequest.getPluginConfiguration())
                     , paymentData.getBic());
         }
         else {
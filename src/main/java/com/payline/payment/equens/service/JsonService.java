@@ -3,6 +3,8 @@ package com.payline.payment.equens.service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.io.Reader;
+
 public class JsonService {
     private final Gson gson;
 
@@ -26,6 +28,14 @@ public class JsonService {
         return gson.fromJson(json, clazz);
     }
 
+    /**
+     * Decode the JSON read from the given reader, as it is read: the JSON is never held entirely in memory.
+     * The document must be complete, with nothing after it.
+     */
+    public <T> T fromJson(Reader json, Class<T> clazz) {
+        return gson.fromJson(json, clazz);
+    }
+
     public String toJson(Object o) {
         return gson.toJson(o);
     }
@@ -0,0 +1,380 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.bean.business.reachdirectory.Detail;
+import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encode and decode the ASPSP directory stored by the host as plugin configuration.
+ *
+ * Two formats can be read:
+ * <ul>
+ *     <li>the legacy format: the JSON of the {@link GetAspspsResponse}</li>
+ *     <li>the compact format: the header {@link #COMPACT_HEADER}, followed by the Base64 of the deflated binary
+ *     encoding of the ASPSPs. Each distinct string is written only once, in a table at the beginning, then
+ *     referred to by its index.</li>
+ * </ul>
+ * The compact format is only written when the property "pluginConfiguration.compact" is true, so that it can be
+ * enabled once all the plugin instances are able to read it.
+ *
+ * Both formats also hold the {@link #CONTENT_VERSION}: in the JSON as an additional field, in the compact format
+ * after the ASPSPs. Readers which don't know about it ignore it. It's read together with the ASPSPs
+ * (see {@link #decodeDirectory(String)}), so that checking it does not parse the directory once more.
+ */
+public class PluginConfigurationCodec {
+
+    /**
+     * Header of the compact format, including its version.
+     */
+    static final String COMPACT_HEADER = "EQNS1:";
+
+    /**
+     * Version of the content of the plugin configuration, that is of the processing of the ASPSPs before they're
+     * stored (see {@link BankService#buildBanksWithAffiliation}: grouping of the subsidiaries, sort order...).
+     * To increase each time this processing changes, so that a plugin configuration built by a previous version is
+     * built again, even though the directory did not change.
+     */
+    static final int CONTENT_VERSION = 1;
+
+    /**
+     * Content version of a plugin configuration stored before the version existed.
+     */
+    private static final int NO_CONTENT_VERSION = 0;
+
+    private static final String COMPACT_PROPERTY = "pluginConfiguration.compact";
+
+    /**
+     * Reference of a null string, the strings of the table being numbered from 1.
+     */
+    private static final int NULL_STRING = 0;
+
+    /**
+     * Size of a null list.
+     */
+    private static final int NULL_LIST = -1;
+
+    protected ConfigProperties config = ConfigProperties.getInstance();
+
+    private JsonService jsonService = JsonService.getInstance();
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    PluginConfigurationCodec() {
+    }
+
+    private static class Holder {
+        private static final PluginConfigurationCodec instance = new PluginConfigurationCodec();
+    }
+
+    public static PluginConfigurationCodec getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Encode the ASPSP directory to store as plugin configuration.
+     * In the compact format, only the ASPSPs are kept: the other fields of the response are not used.
+     *
+     * @param response the ASPSP directory
+     * @return the plugin configuration
+     */
+    public String encode(GetAspspsResponse response) {
+        if (!isCompactEnabled()) {
+            return jsonService.toJson(response.withContentVersion(CONTENT_VERSION));
+        }
+        try {
+            final Encoder encoder = new Encoder();
+            encoder.writeAspsps(response.getAspsps());
+            encoder.writeContentVersion(CONTENT_VERSION);
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION)))) {
+                encoder.writeTo(out);
+            }
+            return COMPACT_HEADER + Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            // should not happen as the data is written in memory
+            throw new PluginException("Plugin error: unable to encode the plugin configuration", e);
+        }
+    }
+
+    /**
+     * Decode the ASPSPs of a plugin configuration, whatever its format.
+     *
+     * @param pluginConfiguration the plugin configuration, not null
+     * @return the ASPSPs, possibly null
+     */
+    public List<Aspsp> decode(String pluginConfiguration) {
+        if (!isCompact(pluginConfiguration)) {
+            final GetAspspsResponse response = jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class);
+            return response == null ? null : response.getAspsps();
+        }
+        try (DataInputStream in = openCompact(pluginConfiguration)) {
+            return new Decoder(in).readAspsps();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new PluginException("Plugin error: invalid compact plugin configuration", e);
+        }
+    }
+
+    /**
+     * Decode the ASPSPs of a plugin configuration and its content version, whatever its format.
+     *
+     * @param pluginConfiguration the plugin configuration, not null
+     * @return the directory, with the content version {@link #NO_CONTENT_VERSION} if the plugin configuration has none
+     */
+    public AspspDirectory decodeDirectory(String pluginConfiguration) {
+        final List<Aspsp> aspsps;
+        final int contentVersion;
+        if (!isCompact(pluginConfiguration)) {
+            final GetAspspsResponse response = jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class);
+            aspsps = response == null ? null : response.getAspsps();
+            contentVersion = response == null || response.getContentVersion() == null
+                    ? NO_CONTENT_VERSION : response.getContentVersion();
+        } else {
+            try (DataInputStream in = openCompact(pluginConfiguration)) {
+                final Decoder decoder = new Decoder(in);
+                aspsps = decoder.readAspsps();
+                contentVersion = decoder.readContentVersion();
+            } catch (IOException | IllegalArgumentException e) {
+                throw new PluginException("Plugin error: invalid compact plugin configuration", e);
+            }
+        }
+        return new AspspDirectory(aspsps == null ? Collections.<Aspsp>emptyList() : aspsps, contentVersion);
+    }
+
+    private static DataInputStream openCompact(String pluginConfiguration) {
+        final byte[] bytes = Base64.getDecoder().decode(pluginConfiguration.substring(COMPACT_HEADER.length()));
+        return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * @param pluginConfiguration a plugin configuration
+     * @param directory the directory decoded from it (usually from the {@link AspspDirectoryCache})
+     * @return true if it's in the format {@link #encode(GetAspspsResponse)} would write, with the current content
+     * version
+     */
+    public boolean isCurrentFormat(String pluginConfiguration, AspspDirectory directory) {
+        return isCompact(pluginConfiguration) == isCompactEnabled() && directory.getContentVersion() == CONTENT_VERSION;
+    }
+
+    private boolean isCompactEnabled() {
+        return Boolean.parseBoolean(config.get(COMPACT_PROPERTY));
+    }
+
+    /**
+     * @param pluginConfiguration a plugin configuration
+     * @return true if it's in the compact format
+     */
+    public static boolean isCompact(String pluginConfiguration) {
+        return pluginConfiguration != null && pluginConfiguration.startsWith(COMPACT_HEADER);
+    }
+
+    /**
+     * Write the ASPSPs in a buffer, collecting the distinct strings, then the table of strings followed by the buffer.
+     */
+    private static class Encoder {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream body = new DataOutputStream(buffer);
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            writeVarInt(out, table.size());
+            for (String string : table) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, utf8.length);
+                out.write(utf8);
+            }
+            body.flush();
+            buffer.writeTo(out);
+        }
+
+        private void writeAspsps(List<Aspsp> aspsps) throws IOException {
+            if (aspsps == null) {
+                writeVarInt(body, NULL_LIST + 1);
+                return;
+            }
+            writeVarInt(body, aspsps.size() + 1);
+            for (Aspsp aspsp : aspsps) {
+                writeString(aspsp.getAspspId());
+                writeString(aspsp.getBic());
+                writeString(aspsp.getCountryCode());
+                writeStrings(aspsp.getName());
+                writeDetails(aspsp.getDetails());
+                writeAspsps(aspsp.getSubsidiariesList());
+            }
+        }
+
+        private void writeContentVersion(int contentVersion) throws IOException {
+            writeVarInt(body, contentVersion);
+        }
+
+        private void writeDetails(List<Detail> details) throws IOException {
+            if (details == null) {
+                writeVarInt(body, NULL_LIST + 1);
+                return;
+            }
+            writeVarInt(body, details.size() + 1);
+            for (Detail detail : details) {
+                writeString(detail.getApi());
+                writeString(detail.getFieldName());
+                writeString(detail.getType());
+                writeString(detail.getValue());
+                writeString(detail.getProtocolVersion());
+            }
+        }
+
+        private void writeStrings(List<String> list) throws IOException {
+            if (list == null) {
+                writeVarInt(body, NULL_LIST + 1);
+                return;
+            }
+            writeVarInt(body, list.size() + 1);
+            for (String string : list) {
+                writeString(string);
+            }
+        }
+
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                writeVarInt(body, NULL_STRING);
+                return;
+            }
+            Integer ref = strings.get(string);
+            if (ref == null) {
+                table.add(string);
+                ref = table.size();
+                strings.put(string, ref);
+            }
+            writeVarInt(body, ref);
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Read the table of strings, then the ASPSPs.
+     */
+    private static class Decoder {
+        private final DataInputStream in;
+        private final String[] table;
+
+        private Decoder(DataInputStream in) throws IOException {
+            this.in = in;
+            final int size = readVarInt();
+            if (size < 0) {
+                throw new IOException("Invalid strings table size: " + size);
+            }
+            this.table = new String[size + 1];
+            for (int i = 1; i < table.length; i++) {
+                byte[] utf8 = new byte[readVarInt()];
+                in.readFully(utf8);
+                table[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+        }
+
+        private List<Aspsp> readAspsps() throws IOException {
+            final int size = readVarInt() - 1;
+            if (size == NULL_LIST) {
+                return null;
+            }
+            final List<Aspsp> aspsps = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final Aspsp aspsp = new Aspsp();
+                aspsp.setAspspId(readString());
+                aspsp.setBic(readString());
+                aspsp.setCountryCode(readString());
+                aspsp.setName(readStrings());
+                aspsp.setDetails(readDetails());
+                aspsp.setSubsidiariesList(readAspsps());
+                aspsps.add(aspsp);
+            }
+            return aspsps;
+        }
+
+        /**
+         * To call after {@link #readAspsps()}.
+         */
+        private int readContentVersion() throws IOException {
+            try {
+                return readVarInt();
+            } catch (EOFException e) {
+                // written before the content version existed
+                return NO_CONTENT_VERSION;
+            }
+        }
+
+        private List<Detail> readDetails() throws IOException {
+            final int size = readVarInt() - 1;
+            if (size == NULL_LIST) {
+                return null;
+            }
+            final List<Detail> details = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                details.add(new Detail(readString(), readString(), readString(), readString(), readString()));
+            }
+            return details;
+        }
+
+        private List<String> readStrings() throws IOException {
+            final int size = readVarInt() - 1;
+            if (size == NULL_LIST) {
+                return null;
+            }
+            if (size == 1) {
+                return Collections.singletonList(readString());
+            }
+            final List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readString());
+            }
+            return list;
+        }
+
+        private String readString() throws IOException {
+            final int ref = readVarInt();
+            if (ref < 0 || ref >= table.length) {
+                throw new IOException("Invalid string reference: " + ref);
+            }
+            return table[ref];
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid variable length integer");
+        }
+    }
+
+}
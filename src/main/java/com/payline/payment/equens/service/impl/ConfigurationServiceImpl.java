@@ -1,15 +1,18 @@
 package com.payline.payment.equens.service.impl;
 
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.DirectoryDiff;
 import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.PluginException;
 import com.payline.payment.equens.service.BankService;
-import com.payline.payment.equens.service.JsonService;
+import com.payline.payment.equens.service.DirectorySnapshotStore;
+import com.payline.payment.equens.service.PluginConfigurationCodec;
 import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.PluginUtils;
 import com.payline.payment.equens.utils.http.PisHttpClient;
 import com.payline.payment.equens.utils.i18n.I18nService;
+import com.payline.payment.equens.utils.metrics.Metrics;
 import com.payline.payment.equens.utils.properties.ReleaseProperties;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import com.payline.pmapi.bean.configuration.ReleaseInformation;
@@ -34,7 +37,13 @@ public class ConfigurationServiceImpl implements ConfigurationService {
 
     private static final String I18N_CONTRACT_PREFIX = "contract.";
 
-    private final JsonService jsonService = JsonService.getInstance();
+    // Metrics of the directory refreshes
+    static final String METRIC_REFRESH_ADDED = "directory.refresh.added";
+    static final String METRIC_REFRESH_REMOVED = "directory.refresh.removed";
+    static final String METRIC_REFRESH_CHANGED = "directory.refresh.changed";
+    static final String METRIC_REFRESH_UNCHANGED = "directory.refresh.unchanged";
+
+    private final PluginConfigurationCodec pluginConfigurationCodec = PluginConfigurationCodec.getInstance();
 
 
     public enum ChannelType {
@@ -114,6 +123,8 @@ public class ConfigurationServiceImpl implements ConfigurationService {
     private PisHttpClient pisHttpClient = PisHttpClient.getInstance();
     private ReleaseProperties releaseProperties = ReleaseProperties.getInstance();
     private BankService bankService = BankService.getInstance();
+    private DirectorySnapshotStore snapshotStore = DirectorySnapshotStore.getInstance();
+    private Metrics metrics = Metrics.getInstance();
 
 
     @Override
@@ -268,18 +279,81 @@ public class ConfigurationServiceImpl implements ConfigurationService {
             // Init HTTP client
             pisHttpClient.init(requestConfiguration.getPartnerConfiguration());
 
-            // Retrieve account service providers list
-            final GetAspspsResponse apspsps = pisHttpClient.getAspsps(requestConfiguration);
+            // Retrieve account service providers list, unless it did not change since the last snapshot
+            // (the request is conditional only if the snapshot can be returned as is)
+            final DirectorySnapshotStore.Snapshot snapshot = snapshotStore.load(partnerConfiguration);
+            final boolean conditional = snapshot != null && snapshot.hasValidators()
+                    && isCurrentFormat(snapshot.getPluginConfiguration());
+            final GetAspspsResponse apspsps = conditional
+                    ? pisHttpClient.getAspsps(requestConfiguration, snapshot.getEtag(), snapshot.getLastModified())
+                    : pisHttpClient.getAspsps(requestConfiguration);
+            if (apspsps == null) {
+                metrics.increment(METRIC_REFRESH_UNCHANGED);
+                LOGGER.info("ASPSP directory not modified since the last snapshot");
+                return snapshot.getPluginConfiguration();
+            }
+
+            // Keep the previous plugin configuration as is if the directory did not change
+            final String previousConfiguration = retrievePluginConfigurationRequest.getPluginConfiguration();
+            if (!PluginUtils.isEmpty(previousConfiguration) && isCurrentFormat(previousConfiguration)) {
+                final DirectoryDiff diff = bankService.diff(previousConfiguration, apspsps.getAspsps());
+                if (diff != null) {
+                    metrics.add(METRIC_REFRESH_ADDED, diff.getAdded());
+                    metrics.add(METRIC_REFRESH_REMOVED, diff.getRemoved());
+                    metrics.add(METRIC_REFRESH_CHANGED, diff.getChanged());
+                    LOGGER.info("ASPSP directory refreshed: {}", diff);
+                    if (diff.isEmpty()) {
+                        metrics.increment(METRIC_REFRESH_UNCHANGED);
+                        final DirectorySnapshotStore.Snapshot unchanged = new DirectorySnapshotStore.Snapshot(
+                                previousConfiguration, apspsps.getEtag(), apspsps.getLastModified());
+                        // nothing to save if the snapshot is already up to date
+                        if (!unchanged.equals(snapshot)) {
+                            snapshotStore.save(partnerConfiguration, unchanged);
+                        }
+                        return previousConfiguration;
+                    }
+                }
+            }
+
             final List<Aspsp> banksAspsps = bankService.buildBanksWithAffiliation(apspsps.getAspsps());
-            // Serialize the list (as JSON)
-            apspsps.setAspsps(banksAspsps);
-            return jsonService.toJson(apspsps);
+            // Serialize the list (as JSON, or in the compact format if it's enabled)
+            // the response may be shared with concurrent callers: it's copied rather than modified
+            final String pluginConfiguration = pluginConfigurationCodec.encode(apspsps.withAspsps(banksAspsps));
+            // parse the new directory now, so that its bank scripts are rendered in background before the first
+            // payment form (see BankFormService), and the next refresh finds it in cache
+            bankService.getDirectory(pluginConfiguration);
+            snapshotStore.save(partnerConfiguration,
+                    new DirectorySnapshotStore.Snapshot(pluginConfiguration, apspsps.getEtag(), apspsps.getLastModified()));
+            return pluginConfiguration;
         } catch (RuntimeException e) {
             LOGGER.error("Could not retrieve plugin configuration due to a plugin error", e);
+            if (PluginUtils.isEmpty(retrievePluginConfigurationRequest.getPluginConfiguration())) {
+                // no previous configuration (first start): fallback on the last one retrieved, if any
+                final DirectorySnapshotStore.Snapshot snapshot = snapshotStore.load(retrievePluginConfigurationRequest.getPartnerConfiguration());
+                if (snapshot != null) {
+                    return snapshot.getPluginConfiguration();
+                }
+            }
             return retrievePluginConfigurationRequest.getPluginConfiguration();
         }
     }
 
+    /**
+     * Check if a plugin configuration is in the current format. Its directory is parsed through the
+     * {@link BankService} cache, so it's parsed once for this check and the diff with the new directory.
+     *
+     * @param pluginConfiguration the plugin configuration
+     * @return true if it's in the current format, false if not or if it can't be read
+     */
+    private boolean isCurrentFormat(final String pluginConfiguration) {
+        try {
+            return pluginConfigurationCodec.isCurrentFormat(pluginConfiguration, bankService.getDirectory(pluginConfiguration));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to read the plugin configuration", e);
+            return false;
+        }
+    }
+
     @Override
     public ReleaseInformation getReleaseInformation() {
         return ReleaseInformation.ReleaseBuilder.aRelease()
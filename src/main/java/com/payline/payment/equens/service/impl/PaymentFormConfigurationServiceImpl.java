@@ -1,9 +1,8 @@
 package com.payline.payment.equens.service.impl;
 
-import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
 import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.exception.PluginException;
-import com.payline.payment.equens.service.BankService;
+import com.payline.payment.equens.service.BankFormService;
 import com.payline.payment.equens.service.LogoPaymentFormConfigurationService;
 import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.PluginUtils;
@@ -12,7 +11,6 @@ import com.payline.pmapi.bean.common.FailureCause;
 import com.payline.pmapi.bean.payment.ContractProperty;
 import com.payline.pmapi.bean.paymentform.bean.field.PaymentFormField;
 import com.payline.pmapi.bean.paymentform.bean.field.PaymentFormInputFieldSelect;
-import com.payline.pmapi.bean.paymentform.bean.field.SelectOption;
 import com.payline.pmapi.bean.paymentform.bean.field.specific.PaymentFormInputFieldGTC;
 import com.payline.pmapi.bean.paymentform.bean.field.specific.PaymentFormInputFieldIban;
 import com.payline.pmapi.bean.paymentform.bean.field.specific.gtc.GTCFieldLink;
@@ -26,13 +24,7 @@ import com.payline.pmapi.bean.paymentform.response.configuration.impl.PaymentFor
 import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static com.payline.payment.equens.utils.Constants.FormKeys.*;
 
@@ -40,11 +32,9 @@ public class PaymentFormConfigurationServiceImpl extends LogoPaymentFormConfigur
 
     private static final Logger LOGGER = LogManager.getLogger(PaymentFormConfigurationServiceImpl.class);
 
-    private static final String EQUENS_FILE_SCRIPT = "equensForm.js";
-
     protected ConfigProperties config = ConfigProperties.getInstance();
 
-    private BankService bankService = BankService.getInstance();
+    private BankFormService bankFormService = BankFormService.getInstance();
 
     @Override
     public PaymentFormConfigurationResponse getPaymentFormConfiguration(PaymentFormConfigurationRequest paymentFormConfigurationRequest) {
@@ -73,92 +63,10 @@ public class PaymentFormConfigurationServiceImpl extends LogoPaymentFormConfigur
                 throw new InvalidDataException("Payment product must not be empty");
             }
 
-            final List<Aspsp> banksList = bankService.fetchBanks(paymentFormConfigurationRequest.getPluginConfiguration(), listCountryCode, paymentModeProperty.getValue());
-
-            final List<SelectOption> bankOptionsList = new ArrayList<>();
-            final List<SelectOption> bankSubsidiairesList = new ArrayList<>();
-            final String bankJSScript = buildBankScript(banksList, bankOptionsList, bankSubsidiairesList);
-
-            final Map<String,String> arguments = new HashMap<>();
-            arguments.put("$BANKS_TO_REPLACE$", bankJSScript);
-
-            final List<PaymentFormField> customFields = new ArrayList<>();
-
-            // Champ de selection de banque
-            final PaymentFormInputFieldSelect selectField = PaymentFormInputFieldSelect.PaymentFormFieldSelectBuilder.aPaymentFormInputFieldSelect()
-                    .withSelectOptions(bankOptionsList)
-                    .withIsFilterable(true)
-                    .withKey(Constants.FormKeys.ASPSP_ID)
-                    .withLabel(i18n.getMessage(FIELD_BANKS_LABEL, locale))
-                    .withPlaceholder(i18n.getMessage(FIELD_PLACEHOLDER_LABEL, locale))
-                    .withValidationErrorMessage(i18n.getMessage(FIELD_BANKS_ERROR_MSG, locale))
-                    .withRequired(true)
-                    .withRequiredErrorMessage(i18n.getMessage(FIELD_BANKS_REQUIRED_MSG, locale))
-                    .build();
-            customFields.add(selectField);
-
-            final PaymentFormInputFieldSelect selectSubsidiaries = PaymentFormInputFieldSelect.PaymentFormFieldSelectBuilder.aPaymentFormInputFieldSelect()
-                    .withSelectOptions(bankSubsidiairesList)
-                    .withIsFilterable(true)
-                    .withKey(Constants.FormKeys.SUB_ASPSP_ID)
-                    .withLabel(i18n.getMessage(FIELD_SUBSIDIARY_LABEL, locale))
-                    .withPlaceholder(i18n.getMessage(FIELD_SUBSIDIARY_PLACEHOLDER, locale))
-                    .withValidationErrorMessage(i18n.getMessage(FIELD_SUBSIDIARY_ERROR_MSG, locale))
-                    .withRequired(false)
-                    .withRequiredErrorMessage(i18n.getMessage(FIELD_SUBSIDIARY_REQUIRED_MSG, locale)).build();
-
-            customFields.add(selectSubsidiaries);
-
-            // Champ IBAN
-            final PaymentFormInputFieldIban ibanField = PaymentFormInputFieldIban.IbanFieldBuilder.anIbanField()
-                    .withKey(BankTransferForm.IBAN_KEY)
-                    .withLabel(i18n.getMessage(FIELD_IBAN_LABEL, locale))
-                    .withRequired(false)
-                    .withRequiredErrorMessage(i18n.getMessage(FIELD_IBAN_REQUIRED_MSG, locale))
-                    .build();
-            customFields.add(ibanField);
-
-            final GTCFieldText gtcFieldText = GTCFieldText.builder()
-                    .text(i18n.getMessage(FIELD_GTC_LABEL_1, locale))
-                    .build();
-
-            final GTCFieldLink gtcFieldLink = GTCFieldLink.builder()
-                    .text(i18n.getMessage(FIELD_GTC_LINK_1, locale))
-                    .url(i18n.getMessage("gtc.link.userCondition", locale))
-                    .build();
-
-            final GTCFieldText gtcFieldText2 = GTCFieldText.builder()
-                    .text(i18n.getMessage(FIELD_GTC_LABEL_2, locale))
-                    .build();
-
-            final GTCFieldLink gtcFieldLink2 = GTCFieldLink.builder()
-                    .text(i18n.getMessage(FIELD_GTC_LINK_2, locale))
-                    .url(i18n.getMessage("gtc.link.authorityControl", locale))
-                    .build();
-
-            final PaymentFormInputFieldGTC paymentFormInputFieldGTC = PaymentFormInputFieldGTC.
-                    PaymentFormInputFieldGTCBuilder.aPaymentFormInputFieldGTC()
-                    .withGtcFields(Arrays.asList(gtcFieldText, gtcFieldLink, gtcFieldText2, gtcFieldLink2))
-                    .withKey(GTC_KEY)
-                    .withRequired(true)
-                    .withRequiredErrorMessage(i18n.getMessage(FIELD_GTC_REQUIRED_MSG, locale))
-                    .build();
-
-            customFields.add(paymentFormInputFieldGTC);
-
-            // Build the payment form
-            final CustomForm form = CustomForm.builder()
-                    .withDescription(i18n.getMessage("paymentForm.description", locale))
-                    .withDisplayButton(true)
-                    .withButtonText(i18n.getMessage("paymentForm.buttonText", locale))
-                    .withCustomFields(customFields)
-                    .withFormScript(loadScript(arguments))
-                    .build();
-
-            pfcResponse = PaymentFormConfigurationResponseSpecific.PaymentFormConfigurationResponseSpecificBuilder
-                    .aPaymentFormConfigurationResponseSpecific()
-                    .withPaymentForm(form)
-                    .build();
+            // the bank part is kept with the directory; the response is built for each call, as the caller may modify it
+            final BankFormService.BankScript bankScript = bankFormService.getBankScript(
+                    paymentFormConfigurationRequest.getPluginConfiguration(), listCountryCode, paymentModeProperty.getValue());
+            pfcResponse = buildPaymentFormConfiguration(bankScript, locale);
         } catch (PluginException e) {
             pfcResponse = e.toPaymentFormConfigurationResponseFailureBuilder().build();
         } catch (RuntimeException e) {
@@ -174,86 +82,92 @@ public class PaymentFormConfigurationServiceImpl extends LogoPaymentFormConfigur
     }
 
     /**
-     * Method used to load JQuery script for Equens form.
-     * @param arguments list of arguments to inject to script.
-     * @return script with arguments.
+     * Build the payment form: the select fields of the banks and subsidiaries, the IBAN field, the GTC and the script.
+     * The bank part is built once for each directory (see {@link BankFormService}).
+     * @param bankScript
+     *          the script and the select options of the banks.
+     * @param locale
+     *          the locale of the labels.
+     * @return
+     *          a new payment form.
      */
-    protected String loadScript(Map<String, String> arguments) {
-
-        try (InputStream input = this.getClass().getClassLoader().getResourceAsStream(EQUENS_FILE_SCRIPT)) {
-            if (input == null) {
-                LOGGER.error("Unable to load file {}", EQUENS_FILE_SCRIPT);
-                throw new PluginException("Plugin error: unable to load equens js file");
-            }
-
-             String script = new BufferedReader(
-                    new InputStreamReader(input, StandardCharsets.UTF_8)).lines()
-                    .collect(Collectors.joining("\n"));
-
-            for (Map.Entry<String, String> entry : arguments.entrySet()) {
-                script = script.replace(entry.getKey(), entry.getValue());
-            }
+    protected PaymentFormConfigurationResponse buildPaymentFormConfiguration(final BankFormService.BankScript bankScript, final Locale locale) {
+        final List<PaymentFormField> customFields = new ArrayList<>();
+
+        // Champ de selection de banque
+        final PaymentFormInputFieldSelect selectField = PaymentFormInputFieldSelect.PaymentFormFieldSelectBuilder.aPaymentFormInputFieldSelect()
+                .withSelectOptions(new ArrayList<>(bankScript.getBankOptions()))
+                .withIsFilterable(true)
+                .withKey(Constants.FormKeys.ASPSP_ID)
+                .withLabel(i18n.getMessage(FIELD_BANKS_LABEL, locale))
+                .withPlaceholder(i18n.getMessage(FIELD_PLACEHOLDER_LABEL, locale))
+                .withValidationErrorMessage(i18n.getMessage(FIELD_BANKS_ERROR_MSG, locale))
+                .withRequired(true)
+                .withRequiredErrorMessage(i18n.getMessage(FIELD_BANKS_REQUIRED_MSG, locale))
+                .build();
+        customFields.add(selectField);
+
+        final PaymentFormInputFieldSelect selectSubsidiaries = PaymentFormInputFieldSelect.PaymentFormFieldSelectBuilder.aPaymentFormInputFieldSelect()
+                .withSelectOptions(new ArrayList<>(bankScript.getSubsidiaryOptions()))
+                .withIsFilterable(true)
+                .withKey(Constants.FormKeys.SUB_ASPSP_ID)
+                .withLabel(i18n.getMessage(FIELD_SUBSIDIARY_LABEL, locale))
+                .withPlaceholder(i18n.getMessage(FIELD_SUBSIDIARY_PLACEHOLDER, locale))
+                .withValidationErrorMessage(i18n.getMessage(FIELD_SUBSIDIARY_ERROR_MSG, locale))
+                .withRequired(false)
+                .withRequiredErrorMessage(i18n.getMessage(FIELD_SUBSIDIARY_REQUIRED_MSG, locale)).build();
+
+        customFields.add(selectSubsidiaries);
+
+        // Champ IBAN
+        final PaymentFormInputFieldIban ibanField = PaymentFormInputFieldIban.IbanFieldBuilder.anIbanField()
+                .withKey(BankTransferForm.IBAN_KEY)
+                .withLabel(i18n.getMessage(FIELD_IBAN_LABEL, locale))
+                .withRequired(false)
+                .withRequiredErrorMessage(i18n.getMessage(FIELD_IBAN_REQUIRED_MSG, locale))
+                .build();
+        customFields.add(ibanField);
 
-            return script;
-        } catch (final IOException e) {
-            throw new PluginException("Plugin error: unable to read the logo", e);
-        }
-    }
+        final GTCFieldText gtcFieldText = GTCFieldText.builder()
+                .text(i18n.getMessage(FIELD_GTC_LABEL_1, locale))
+                .build();
 
-    protected String buildBankScript(final List<Aspsp> banksList, final List<SelectOption> bankOptionsList, final List<SelectOption> bankSubsidiairesList) {
-        List<String> bankJSList = new ArrayList<>();
-        banksList.forEach(e -> {
-                bankOptionsList.add(buildAspspOption(e));
-                String temp = "{ id : '" + escapeJSVar(e.getName().get(0))+ "',\n" +
-                        " iban : " + bankService.isIbanRequired(e) + ", " +
-                        " subList : [";
-                final List<String> subsidiariesJSScript = new ArrayList<>();
-                if (!PluginUtils.isEmptyList(e.getSubsidiariesList())) {
-                    e.getSubsidiariesList().forEach(sub -> {
-                        bankSubsidiairesList.add(buildAspspOption(sub));
-                        subsidiariesJSScript.add(buildSubsidiariesJS(sub));
-                    });
-                }
-            temp += String.join(",", subsidiariesJSScript ) + "]}";
-            bankJSList.add(temp);
+        final GTCFieldLink gtcFieldLink = GTCFieldLink.builder()
+                .text(i18n.getMessage(FIELD_GTC_LINK_1, locale))
+                .url(i18n.getMessage("gtc.link.userCondition", locale))
+                .build();
 
-        });
-        return String.join(",", bankJSList);
-    }
+        final GTCFieldText gtcFieldText2 = GTCFieldText.builder()
+                .text(i18n.getMessage(FIELD_GTC_LABEL_2, locale))
+                .build();
 
-    /**
-     * Method used to build subsidiaries information for JS file.
-     * @param sub
-     *          Aspsp subsidiary
-     * @return
-     *          Subsidiary info for JS Script.
-     */
-    protected String buildSubsidiariesJS(final Aspsp sub) {
-        final String name = PluginUtils.isEmptyList(sub.getName()) ? "" : sub.getName().get(0);
-        return "{aspspId : '" + sub.getAspspId() + "'" +
-                ", label : '" + escapeJSVar(name) + "'," +
-                "  iban : " +  bankService.isIbanRequired(sub) + "}";
-    }
+        final GTCFieldLink gtcFieldLink2 = GTCFieldLink.builder()
+                .text(i18n.getMessage(FIELD_GTC_LINK_2, locale))
+                .url(i18n.getMessage("gtc.link.authorityControl", locale))
+                .build();
 
+        final PaymentFormInputFieldGTC paymentFormInputFieldGTC = PaymentFormInputFieldGTC.
+                PaymentFormInputFieldGTCBuilder.aPaymentFormInputFieldGTC()
+                .withGtcFields(Arrays.asList(gtcFieldText, gtcFieldLink, gtcFieldText2, gtcFieldLink2))
+                .withKey(GTC_KEY)
+                .withRequired(true)
+                .withRequiredErrorMessage(i18n.getMessage(FIELD_GTC_REQUIRED_MSG, locale))
+                .build();
 
+        customFields.add(paymentFormInputFieldGTC);
 
-    /**
-     * Build a SelectOption object from aspsp information
-     * @param aspsp
-     *          Aspsp object which contains information.
-     * @return
-     *        selectOption build.
-     */
-    protected SelectOption buildAspspOption(Aspsp aspsp) {
-        // add the aspsp name if exists
-        final String name = PluginUtils.isEmptyList(aspsp.getName()) ? "" : aspsp.getName().get(0);
-        return SelectOption.SelectOptionBuilder.aSelectOption()
-                .withKey(aspsp.getAspspId())
-                .withValue(name)
+        // Build the payment form
+        final CustomForm form = CustomForm.builder()
+                .withDescription(i18n.getMessage("paymentForm.description", locale))
+                .withDisplayButton(true)
+                .withButtonText(i18n.getMessage("paymentForm.buttonText", locale))
+                .withCustomFields(customFields)
+                .withFormScript(bankScript.getScript())
                 .build();
-    }
 
-    protected String escapeJSVar(String varToEscape){
-        return varToEscape.replace("'", "\\'");
+        return PaymentFormConfigurationResponseSpecific.PaymentFormConfigurationResponseSpecificBuilder
+                .aPaymentFormConfigurationResponseSpecific()
+                .withPaymentForm(form)
+                .build();
     }
 }
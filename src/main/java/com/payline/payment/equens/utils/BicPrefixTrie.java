@@ -0,0 +1,101 @@
+package com.payline.payment.equens.utils;
+
+import com.payline.payment.equens.exception.InvalidDataException;
+
+/**
+ * Prefix tree of BIC prefixes, to find the longest prefix matching a BIC with a single walk along its characters,
+ * whatever the number and the length of the prefixes.
+ * BICs only contain letters (case insensitive) and digits: any other character ends the walk.
+ *
+ * Not thread-safe while it's built: it must be safely published once filled, then only read.
+ *
+ * @param <V> the type of the values associated to the prefixes
+ */
+public class BicPrefixTrie<V> {
+
+    private static final int ALPHABET_SIZE = 36;
+
+    private final Node<V> root = new Node<>();
+
+    private int size;
+
+    /**
+     * Associate a value to a prefix. If the prefix already had a value, it's replaced.
+     *
+     * @param prefix the BIC prefix, not empty
+     * @param value  the value
+     */
+    @SuppressWarnings("unchecked")
+    public void put(String prefix, V value) {
+        if (PluginUtils.isEmpty(prefix)) {
+            throw new InvalidDataException("BIC prefix must not be empty");
+        }
+        Node<V> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            int index = index(prefix.charAt(i));
+            if (index < 0) {
+                throw new InvalidDataException("Invalid BIC prefix: " + prefix);
+            }
+            if (node.children == null) {
+                node.children = new Node[ALPHABET_SIZE];
+            }
+            if (node.children[index] == null) {
+                node.children[index] = new Node<>();
+            }
+            node = node.children[index];
+        }
+        if (node.value == null) {
+            size++;
+        }
+        node.value = value;
+    }
+
+    /**
+     * @param bic a BIC, possibly null
+     * @return the value of the longest prefix of this BIC, or null if there is none
+     */
+    public V getLongestPrefix(String bic) {
+        if (bic == null) {
+            return null;
+        }
+        V found = null;
+        Node<V> node = root;
+        for (int i = 0; i < bic.length() && node.children != null; i++) {
+            int index = index(bic.charAt(i));
+            if (index < 0 || node.children[index] == null) {
+                break;
+            }
+            node = node.children[index];
+            if (node.value != null) {
+                found = node.value;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of prefixes
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int index(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return 10 + c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return 10 + c - 'a';
+        }
+        return -1;
+    }
+
+    private static class Node<V> {
+        private Node<V>[] children;
+        private V value;
+    }
+
+}
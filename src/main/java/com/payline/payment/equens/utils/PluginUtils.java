@@ -1,6 +1,7 @@
 package com.payline.payment.equens.utils;
 
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
 import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.service.impl.ConfigurationServiceImpl;
 import org.apache.http.Header;
@@ -116,56 +117,65 @@ public class PluginUtils {
      * @see https://payline.atlassian.net/browse/PAYLAPMEXT-221
      */
     public static String getAspspIdFromBIC(List<Aspsp> aspsps, String bic) {
+        return getAspspIdFromBIC(new AspspDirectory(aspsps), bic);
+    }
+
+    /**
+     * Try to find in the directory an aspsp with the given BIC11
+     * if no aspsp found, try again by truncating the BIC11 into a BIC8
+     *
+     * @param directory The aspsp directory
+     * @param bic       The BIC to find
+     * @return The ID of the aspsp
+     */
+    public static String getAspspIdFromBIC(AspspDirectory directory, String bic) {
         if (isEmpty(bic) || bic.length() < 8) {
             throw new InvalidDataException("Invalid bic:" + bic);
         }
 
         // try with the full BIC11
-        String aspspId = filter(aspsps, bic);
+        Aspsp aspsp = directory.getByBic(bic);
 
         // no aspsp for this BIC11, we'll try with the BIC8
-        if (aspspId == null) {
-            aspspId = filter(aspsps, bic.substring(0, 8));
+        if (aspsp == null) {
+            aspsp = directory.getByBic(bic.substring(0, 8));
         }
 
-        if (aspspId == null) {
+        if (aspsp == null) {
             throw new InvalidDataException("Aspsp list does not contain the bic:" + bic);
         }
 
         // return its aspspId
-        return aspspId;
-    }
-
-    public static String filter(List<Aspsp> aspsps, String bic) {
-        // found aspsp with the correct Bic
-        List<Aspsp> goodAspsps = aspsps.stream()
-                .filter(x -> !PluginUtils.isEmpty(x.getBic()))
-                .filter(x -> x.getBic().equalsIgnoreCase(bic))
-                .collect(Collectors.toList());
-
-        if (goodAspsps.isEmpty()) {
-            return null;
-        }
-
-        // return its aspspId
-        return goodAspsps.get(0).getAspspId();
+        return aspsp.getAspspId();
     }
 
     // find the country of the bank from his BIC
     public static String getCountryCodeFromBIC(List<Aspsp> listAspsps, String bic) {
+        return getCountryCodeFromBIC(new AspspDirectory(listAspsps), bic);
+    }
+
+    /**
+     * Find the country of the bank from its BIC: the country of the aspsp with this exact BIC
+     * or, if there is none, the country of the aspsp with the same 8 first characters.
+     *
+     * @param directory The aspsp directory
+     * @param bic       The BIC to find
+     * @return The country code
+     */
+    public static String getCountryCodeFromBIC(AspspDirectory directory, String bic) {
 
         if (isEmpty(bic) || bic.length() < 8) {
             throw new InvalidDataException("Invalid bic:" + bic);
         }
 
-        if (listAspsps.isEmpty()) {
+        if (directory.getAspsps().isEmpty()) {
             throw new InvalidDataException("the list of Aspsps is empty");
         }
 
-        String countryCode = checkBICFromListAspsps(listAspsps, bic, false);
+        String countryCode = countryCode(directory.getByBic(bic));
 
         if (countryCode == null) {
-            countryCode = checkBICFromListAspsps(listAspsps, bic, true);
+            countryCode = countryCode(directory.getByBic8(bic));
         }
 
         if (countryCode != null) {
@@ -176,31 +186,8 @@ public class PluginUtils {
 
     }
 
-    /**
-     * Check if a BIC is present in the Aspsps list. The CheckOnlyEightFirstsCharacters allow you to choose how the BIC check will be done.
-     * - FALSE: The raw values will be checked.
-     * - TRUE : The 8 first characters will be checked.
-     *
-     * @param listAspsps                     The list of aspsp
-     * @param bic                            The BIC to find
-     * @param checkOnlyEightFirstsCharacters The check to do
-     * @return
-     */
-    public static String checkBICFromListAspsps(List<Aspsp> listAspsps, String bic, boolean checkOnlyEightFirstsCharacters) {
-        final String bicToCompare = checkOnlyEightFirstsCharacters ? bic.substring(0, 8) : bic;
-        String countryCode = null;
-
-        for (Aspsp aspsp : listAspsps) {
-            if (!PluginUtils.isEmpty(aspsp.getBic()) && aspsp.getBic().length() >= 8) {
-                final String aspspBic = checkOnlyEightFirstsCharacters ? aspsp.getBic().substring(0, 8) : aspsp.getBic();
-                if (aspspBic.equals(bicToCompare)) {
-                    countryCode = aspsp.getCountryCode();
-                    break;
-                }
-            }
-        }
-
-        return countryCode;
+    private static String countryCode(Aspsp aspsp) {
+        return aspsp == null ? null : aspsp.getCountryCode();
     }
 
     // create the list of countries accepted by the merchant
@@ -0,0 +1,108 @@
+package com.payline.payment.equens.utils;
+
+import com.payline.payment.equens.exception.PluginException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Script template, split once at its placeholders, so that it's rendered with a single concatenation.
+ * A placeholder is an upper case name surrounded by '$' (for example "$BANKS_TO_REPLACE$").
+ *
+ * Immutable: a template can be shared and rendered concurrently.
+ */
+public class ScriptTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$[A-Z0-9_]+\\$");
+
+    /**
+     * The text around the placeholders: there is one more fragment than placeholders.
+     */
+    private final List<String> fragments;
+
+    /**
+     * The placeholders, in the order they appear in the template.
+     */
+    private final List<String> placeholders;
+
+    private final int fragmentsLength;
+
+    /**
+     * @param template the template text
+     */
+    public ScriptTemplate(String template) {
+        final List<String> fragmentList = new ArrayList<>();
+        final List<String> placeholderList = new ArrayList<>();
+        final Matcher matcher = PLACEHOLDER.matcher(template);
+        int start = 0;
+        while (matcher.find()) {
+            fragmentList.add(template.substring(start, matcher.start()));
+            placeholderList.add(matcher.group());
+            start = matcher.end();
+        }
+        fragmentList.add(template.substring(start));
+
+        this.fragments = Collections.unmodifiableList(fragmentList);
+        this.placeholders = Collections.unmodifiableList(placeholderList);
+        this.fragmentsLength = fragmentList.stream().mapToInt(String::length).sum();
+    }
+
+    /**
+     * Load a template from the classpath. The lines are joined with '\n'.
+     *
+     * @param resource the resource path
+     * @return the template
+     */
+    public static ScriptTemplate load(String resource) {
+        try (InputStream input = ScriptTemplate.class.getClassLoader().getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new PluginException("Plugin error: unable to load the script " + resource);
+            }
+            return new ScriptTemplate(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)).lines()
+                    .collect(Collectors.joining("\n")));
+        } catch (IOException e) {
+            throw new PluginException("Plugin error: unable to read the script " + resource, e);
+        }
+    }
+
+    /**
+     * Replace the placeholders by the given values. A placeholder without value is left as is.
+     *
+     * @param arguments the values, by placeholder (including the '$')
+     * @return the rendered script
+     */
+    public String render(Map<String, String> arguments) {
+        final String[] values = new String[placeholders.size()];
+        int length = fragmentsLength;
+        for (int i = 0; i < values.length; i++) {
+            final String placeholder = placeholders.get(i);
+            final String value = arguments.get(placeholder);
+            values[i] = value == null ? placeholder : value;
+            length += values[i].length();
+        }
+
+        final StringBuilder script = new StringBuilder(length);
+        for (int i = 0; i < values.length; i++) {
+            script.append(fragments.get(i)).append(values[i]);
+        }
+        return script.append(fragments.get(values.length)).toString();
+    }
+
+    /**
+     * @return the placeholders, in the order they appear in the template (unmodifiable)
+     */
+    public List<String> getPlaceholders() {
+        return placeholders;
+    }
+
+}
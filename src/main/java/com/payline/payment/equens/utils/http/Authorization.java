@@ -1,5 +1,9 @@
 package com.payline.payment.equens.utils.http;
 
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.message.BasicHeader;
+
 import java.util.Date;
 
 public class Authorization {
@@ -7,11 +11,17 @@ public class Authorization {
     private String accessToken;
     private Date expiresAt;
     private String tokenType;
+    /**
+     * The Authorization header to add to the API requests. It's immutable, so the same instance is used by all the
+     * requests sent with this access token.
+     */
+    private Header header;
 
     Authorization( AuthorizationBuilder builder ){
         this.accessToken = builder.accessToken;
         this.expiresAt = builder.expiresAt;
         this.tokenType = builder.tokenType;
+        this.header = new BasicHeader( HttpHeaders.AUTHORIZATION, this.getHeaderValue() );
     }
 
     public String getAccessToken() {
@@ -30,6 +40,10 @@ public class Authorization {
         return this.tokenType + " " + this.accessToken;
     }
 
+    public Header getHeader(){
+        return this.header;
+    }
+
     public static class AuthorizationBuilder {
 
         private String accessToken;
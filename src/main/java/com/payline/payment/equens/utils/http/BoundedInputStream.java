@@ -0,0 +1,109 @@
+package com.payline.payment.equens.utils.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Input stream which fails once more than a maximum number of bytes have been read,
+ * and keeps a copy of the first bytes read (the excerpt), to report errors.
+ */
+class BoundedInputStream extends FilterInputStream {
+
+    private final long maxSize;
+    private final int excerptSize;
+    private final ByteArrayOutputStream excerpt;
+    private long count;
+    private boolean exceeded;
+
+    /**
+     * @param in the underlying input stream
+     * @param maxSize the maximum number of bytes which can be read
+     * @param excerptSize the number of bytes kept in the excerpt
+     */
+    BoundedInputStream( InputStream in, long maxSize, int excerptSize ){
+        super( in );
+        this.maxSize = maxSize;
+        this.excerptSize = excerptSize;
+        this.excerpt = new ByteArrayOutputStream( Math.min( excerptSize, 1024 ) );
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if( b != -1 ){
+            this.consumed( new byte[]{ (byte) b }, 0, 1 );
+        }
+        return b;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+        int n = super.read( b, off, len );
+        if( n > 0 ){
+            this.consumed( b, off, n );
+        }
+        return n;
+    }
+
+    @Override
+    public long skip( long n ) throws IOException {
+        // read the skipped bytes, so that they are counted and copied into the excerpt
+        byte[] buffer = new byte[(int) Math.min( n, 4096 )];
+        long skipped = 0;
+        while( skipped < n ){
+            int read = this.read( buffer, 0, (int) Math.min( buffer.length, n - skipped ) );
+            if( read == -1 ){
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void consumed( byte[] b, int off, int n ) throws IOException {
+        int room = this.excerptSize - this.excerpt.size();
+        if( room > 0 ){
+            this.excerpt.write( b, off, Math.min( room, n ) );
+        }
+        this.count += n;
+        if( this.count > this.maxSize ){
+            this.exceeded = true;
+            throw new IOException( "Content exceeds the maximum size of " + this.maxSize + " bytes" );
+        }
+    }
+
+    /**
+     * Read the stream until its end, without keeping anything but the excerpt.
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[4096];
+        while( this.read( buffer, 0, buffer.length ) != -1 ){
+            // only counted and copied into the excerpt
+        }
+    }
+
+    /**
+     * @param charset the charset of the content
+     * @return the first bytes read, decoded
+     */
+    String excerpt( Charset charset ){
+        return new String( this.excerpt.toByteArray(), charset );
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    boolean isExceeded() {
+        return exceeded;
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.utils.metrics.Metrics;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Circuit breaker protecting the calls to one partner API endpoint.
+ *
+ * The outcome of the last calls (failed or not, slow or not) is kept in a sliding window. When the failure rate or
+ * the slow call rate over this window reaches its threshold, the circuit opens: the calls are rejected immediately,
+ * without waiting for the timeouts of a partner in trouble. After the open duration, a limited number of probe calls
+ * are let through (half-open state): if they all succeed the circuit closes, otherwise it opens again.
+ *
+ * The state changes and the rejected calls are counted in the {@link Metrics}, with the prefix "circuitBreaker.".
+ */
+class CircuitBreaker {
+
+    private static final Logger LOGGER = LogManager.getLogger(CircuitBreaker.class);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private Metrics metrics = Metrics.getInstance();
+
+    private final String name;
+    private final Config config;
+
+    /**
+     * Outcomes of the last calls (circular buffer): a combination of the {@link #FAILURE} and {@link #SLOW} flags.
+     */
+    private final byte[] outcomes;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesLeft;
+    private int probesSucceeded;
+
+    /**
+     * @param name the name of the protected endpoint
+     * @param config the circuit breaker thresholds
+     */
+    CircuitBreaker( String name, Config config ){
+        this.name = name;
+        this.config = config;
+        this.outcomes = new byte[Math.max( 1, config.windowSize )];
+    }
+
+    /**
+     * Ask for the permission to call the endpoint. If it is granted, the result of the call must be reported using
+     * {@link #onResult(boolean, long)} or {@link #release()}.
+     *
+     * @return `false` if the call must be rejected
+     */
+    synchronized boolean tryAcquire(){
+        if( this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.config.openDuration ){
+            this.transition( State.HALF_OPEN );
+            this.probesLeft = this.config.halfOpenCalls;
+            this.probesSucceeded = 0;
+        }
+        switch( this.state ){
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if( this.probesLeft > 0 ){
+                    this.probesLeft--;
+                    return true;
+                }
+                // fall through: the probe calls are in progress
+            default:
+                this.metrics.increment( "circuitBreaker." + this.name + ".rejected" );
+                return false;
+        }
+    }
+
+    /**
+     * Report the result of a call.
+     *
+     * @param failure `true` if the call failed because of the partner
+     * @param duration the call duration (milliseconds)
+     */
+    synchronized void onResult( boolean failure, long duration ){
+        boolean slow = duration >= this.config.slowCallDuration;
+        switch( this.state ){
+            case HALF_OPEN:
+                if( failure || slow ){
+                    this.open();
+                }
+                else if( ++this.probesSucceeded >= this.config.halfOpenCalls ){
+                    this.close();
+                }
+                break;
+            case CLOSED:
+                this.record( (byte) ( (failure ? FAILURE : 0) | (slow ? SLOW : 0) ) );
+                if( this.calls >= this.config.minimumCalls
+                        && ( this.failures * 100 >= this.config.failureRateThreshold * this.calls
+                        || this.slowCalls * 100 >= this.config.slowCallRateThreshold * this.calls ) ){
+                    this.open();
+                }
+                break;
+            default:
+                // result of a call started before the circuit opened: ignored
+        }
+    }
+
+    /**
+     * Report that a permitted call did not reach the partner (ex: invalid input), so its result is irrelevant.
+     */
+    synchronized void release(){
+        if( this.state == State.HALF_OPEN ){
+            this.probesLeft++;
+        }
+    }
+
+    synchronized State getState(){
+        return this.state;
+    }
+
+    private void record( byte outcome ){
+        if( this.calls == this.outcomes.length ){
+            byte evicted = this.outcomes[this.next];
+            this.failures -= evicted & FAILURE;
+            this.slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            this.calls++;
+        }
+        this.outcomes[this.next] = outcome;
+        this.failures += outcome & FAILURE;
+        this.slowCalls += (outcome & SLOW) >> 1;
+        this.next = (this.next + 1) % this.outcomes.length;
+    }
+
+    private void open(){
+        this.openedAt = System.currentTimeMillis();
+        this.transition( State.OPEN );
+    }
+
+    private void close(){
+        this.next = 0;
+        this.calls = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+        this.transition( State.CLOSED );
+    }
+
+    private void transition( State newState ){
+        LOGGER.warn( "Circuit breaker {}: {} -> {}", this.name, this.state, newState );
+        this.state = newState;
+        this.metrics.increment( "circuitBreaker." + this.name + "." + newState.name().toLowerCase() );
+    }
+
+    /**
+     * Thresholds of a circuit breaker.
+     */
+    static class Config {
+
+        /**
+         * Never opens the circuit.
+         */
+        static final Config DISABLED = new Config( 1, Integer.MAX_VALUE, 100, 100, Long.MAX_VALUE, 0, 1 );
+
+        private final int windowSize;
+        private final int minimumCalls;
+        private final int failureRateThreshold;
+        private final int slowCallRateThreshold;
+        private final long slowCallDuration;
+        private final long openDuration;
+        private final int halfOpenCalls;
+
+        /**
+         * @param windowSize number of last calls on which the rates are computed
+         * @param minimumCalls minimum number of calls before the rates are computed
+         * @param failureRateThreshold failure rate from which the circuit opens (percent)
+         * @param slowCallRateThreshold slow call rate from which the circuit opens (percent)
+         * @param slowCallDuration duration from which a call is slow (milliseconds)
+         * @param openDuration time during which the circuit stays open before letting probe calls through (milliseconds)
+         * @param halfOpenCalls number of probe calls which must succeed to close the circuit
+         */
+        Config( int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+                long slowCallDuration, long openDuration, int halfOpenCalls ){
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallDuration = slowCallDuration;
+            this.openDuration = openDuration;
+            this.halfOpenCalls = halfOpenCalls;
+        }
+    }
+
+}
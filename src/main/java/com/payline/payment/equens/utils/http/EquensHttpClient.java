@@ -7,6 +7,7 @@ import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.exception.PluginException;
 import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.security.RSAHolder;
+import com.payline.payment.equens.utils.security.RSAHolderCache;
 import com.payline.pmapi.bean.common.FailureCause;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import com.payline.pmapi.bean.payment.ContractConfiguration;
@@ -14,17 +15,20 @@ import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.message.BasicHeader;
 import org.tomitribe.auth.signatures.Signature;
-import org.tomitribe.auth.signatures.Signer;
 
 import java.io.IOException;
-import java.security.*;
-import java.security.cert.CertificateEncodingException;
-import java.text.SimpleDateFormat;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static org.tomitribe.auth.signatures.Algorithm.RSA_SHA256;
-
 /**
  * Generic HTTP client to contact Equens Worldline API.
  * It's based upon OAuthHttpClient as Equens API uses this authorization protocol.
@@ -41,38 +45,200 @@ abstract class EquensHttpClient extends OAuthHttpClient {
     static final String MESSAGE_CREATE_DATE_TIME = "MessageCreateDateTime";
 
     /**
-     * Holder containing the keystore data (keys or certificates).
+     * Format of the Date header of the token requests.
      */
-    private RSAHolder rsaHolder;
+    static final DateTimeFormatter AUTH_DATE_FORMATTER = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss z yyyy", Locale.US)
+            .withZone( ZoneId.systemDefault() );
+
+    /**
+     * Format of the MessageCreateDateTime header of the API requests.
+     */
+    static final DateTimeFormatter MESSAGE_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+            .withZone( ZoneId.systemDefault() );
+
+    /**
+     * Initial capacity of the headers list returned by {@link #initHeaders(RequestConfiguration)}, so that the
+     * headers added by the callers do not cause the list to grow.
+     */
+    private static final int HEADERS_CAPACITY = 8;
+
+    /**
+     * Time after which a partner context which has not been used is discarded (milliseconds).
+     */
+    static final long CONTEXT_IDLE_TIMEOUT = TimeUnit.HOURS.toMillis( 1 );
+
+    /**
+     * Partner contexts, by values of the partner properties they depend on.
+     * Several partner configurations (environments, certificate rotations) can be used at the same time.
+     */
+    private final ConcurrentMap<ContextKey, PartnerContext> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * Credentials last used to obtain each access token, by token key, to renew the tokens in background.
+     * Only identifiers are kept: the partner context is resolved again when a token is renewed.
+     * They are discarded, with their tokens, together with their partner context.
+     */
+    private final ConcurrentMap<String, TokenCredentials> tokenCredentials = new ConcurrentHashMap<>();
 
     public void init(PartnerConfiguration partnerConfiguration) {
+        // Check the partner configuration and register the corresponding context
+        this.getContext( partnerConfiguration );
+
+        // Initialize the HTTP client, shared by all the partner configurations
+        super.init();
+    }
+
+    /**
+     * Get the context corresponding to the given partner configuration, building it if it does not exist yet.
+     * A new context is built as soon as the token endpoint URL or the client credentials change, so the new
+     * partner configuration is taken into account without restarting. The contexts which are not used anymore
+     * are discarded.
+     * The contexts are looked up by the values of the properties, whatever the partner configuration instance: the
+     * credentials are only hashed when a new context is built, so the steady-state calls are just lookups.
+     *
+     * @param partnerConfiguration The partner configuration
+     * @return the partner context
+     */
+    PartnerContext getContext( PartnerConfiguration partnerConfiguration ){
+        String certificate = partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE );
+        String privateKey = partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY );
+        String tokenEndpointUrl = partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.API_URL_TOKEN );
+        if( certificate == null ){
+            throw new InvalidDataException("Missing client certificate chain from partner configuration (sensitive properties)");
+        }
+        if( privateKey == null ){
+            throw new InvalidDataException("Missing client private key from partner configuration (sensitive properties)");
+        }
+        if( tokenEndpointUrl == null ){
+            throw new InvalidDataException("Missing API URL Token from partner configuration");
+        }
+
+        ContextKey key = new ContextKey( tokenEndpointUrl, certificate, privateKey );
+        PartnerContext context = this.contexts.get( key );
+        if( context == null ){
+            context = this.buildContext( key );
+        }
+        context.touch();
+        return context;
+    }
+
+    /**
+     * Build the context of the given partner properties, unless another thread just did it.
+     *
+     * @param key The partner properties
+     * @return the partner context
+     */
+    private PartnerContext buildContext( ContextKey key ){
+        // Retrieve the RsaHolder instance (only built if the credentials changed)
+        // and precompute the signing material
+        PartnerContext newContext;
         try {
-            // Build RSA holder from PartnerConfiguration
-            if( partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE ) == null ){
-                throw new InvalidDataException("Missing client certificate chain from partner configuration (sensitive properties)");
+            RSAHolder rsaHolder = RSAHolderCache.getInstance().get( key.certificate, key.privateKey );
+            newContext = new PartnerContext( PartnerContext.fingerprint( key.tokenEndpointUrl, key.certificate, key.privateKey ),
+                    key.tokenEndpointUrl, rsaHolder );
+        } catch ( IOException | GeneralSecurityException e ){
+            throw new PluginException( "A problem occurred initializing SSL context", FailureCause.INVALID_DATA, e );
+        }
+
+        PartnerContext context = this.contexts.putIfAbsent( key, newContext );
+        if( context == null ){
+            context = newContext;
+            this.discardIdleContexts();
+        }
+        return context;
+    }
+
+    /**
+     * Remove the partner contexts which have not been used for more than {@link #CONTEXT_IDLE_TIMEOUT}, with the
+     * credentials and the access tokens obtained with them.
+     * They hold neither connection nor thread, so they just have to be dereferenced.
+     */
+    private void discardIdleContexts(){
+        long limit = System.currentTimeMillis() - CONTEXT_IDLE_TIMEOUT;
+        Set<String> discarded = new HashSet<>();
+        this.contexts.values().removeIf( context -> {
+            if( context.getLastAccess() < limit ){
+                discarded.add( context.getFingerprint() );
+                return true;
             }
-            if( partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY ) == null ){
-                throw new InvalidDataException("Missing client private key from partner configuration (sensitive properties)");
+            return false;
+        });
+        if( discarded.isEmpty() ){
+            return;
+        }
+        this.tokenCredentials.entrySet().removeIf( entry -> {
+            if( discarded.contains( entry.getValue().fingerprint ) ){
+                this.invalidateToken( entry.getKey() );
+                return true;
             }
-            if( partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.API_URL_TOKEN ) == null ){
-                throw new InvalidDataException("Missing API URL Token from partner configuration");
+            return false;
+        });
+    }
+
+    /**
+     * @param fingerprint The fingerprint of a partner context
+     * @return the partner context currently registered with this fingerprint, or null if it has been discarded
+     */
+    private PartnerContext findContext( String fingerprint ){
+        for( PartnerContext context : this.contexts.values() ){
+            if( context.getFingerprint().equals( fingerprint ) ){
+                return context;
             }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of partner contexts currently registered
+     */
+    int contextsCount(){
+        return this.contexts.size();
+    }
 
-            // Initialize RsaHolder instance
-            this.rsaHolder = new RSAHolder.RSAHolderBuilder()
-                    .parseChain( partnerConfiguration.getProperty(Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE) )
-                    .parsePrivateKey( partnerConfiguration.getProperty(Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY) )
-                    .build();
+    /**
+     * The API detects the duplicate requests thanks to their X-Request-ID, which is generated once per request
+     * (see {@link #initHeaders(RequestConfiguration)}) and so is the same for all the attempts.
+     */
+    @Override
+    protected String idempotencyKeyHeader(){
+        return HEADER_REQUEST_ID;
+    }
 
-        } catch ( IOException | GeneralSecurityException e ){
-            throw new PluginException( "A problem occurred initializing SSL context", FailureCause.INVALID_DATA, e );
+    /**
+     * The credentials of the request configuration are registered under its token key first, so that the token
+     * is renewed with the latest partner configuration used.
+     */
+    @Override
+    public Authorization authorize( RequestConfiguration requestConfiguration ){
+        ContractConfiguration contractConfiguration = requestConfiguration.getContractConfiguration();
+        PartnerContext context = this.getContext( requestConfiguration.getPartnerConfiguration() );
+        String tokenKey = this.tokenKey( requestConfiguration );
+        TokenCredentials credentials = this.tokenCredentials.get( tokenKey );
+        if( credentials == null || !credentials.fingerprint.equals( context.getFingerprint() ) ){
+            this.tokenCredentials.put( tokenKey, new TokenCredentials( context.getFingerprint(),
+                    this.getClientName( contractConfiguration ), this.getOnboardingId( contractConfiguration ) ) );
         }
+        return super.authorize( requestConfiguration );
+    }
 
-        // Build authorization endpoint
-        String authorizationEndpoint = partnerConfiguration.getProperty(Constants.PartnerConfigurationKeys.API_URL_TOKEN);
+    /**
+     * The token is renewed with the partner context currently registered under the fingerprint of the latest
+     * credentials used. If this context has been discarded, the token is left to expire.
+     */
+    @Override
+    protected Supplier<Authorization> tokenRenewal( String tokenKey ){
+        TokenCredentials credentials = this.tokenCredentials.get( tokenKey );
+        PartnerContext context = credentials == null ? null : this.findContext( credentials.fingerprint );
+        if( context == null ){
+            return null;
+        }
+        return () -> this.requestAuthorization( context.getTokenEndpointUrl(),
+                this.authorizationHeaders( context.getTokenEndpointUrl(), context, credentials.clientName, credentials.onboardingId ) );
+    }
 
-        // Pass these elements to the parent method initializer
-        super.init(authorizationEndpoint);
+    @Override
+    protected String tokenEndpointUrl( RequestConfiguration requestConfiguration ){
+        return this.getContext( requestConfiguration.getPartnerConfiguration() ).getTokenEndpointUrl();
     }
 
     protected abstract String appName();
@@ -81,78 +247,93 @@ abstract class EquensHttpClient extends OAuthHttpClient {
     protected Map<String, String> authorizationHeaders(String uri, RequestConfiguration requestConfiguration ) {
         // Check required data
         ContractConfiguration contractConfiguration = requestConfiguration.getContractConfiguration();
-        if( contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ) == null
-                || contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ).getValue() == null ){
-            throw new InvalidDataException("Missing client name in contract configuration");
-        }
-        if( contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ) == null
-                || contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ).getValue() == null ){
-            throw new InvalidDataException("Missing onboarding id in contract configuration");
-        }
+        String clientName = this.getClientName( contractConfiguration );
+        String onboardingId = this.getOnboardingId( contractConfiguration );
+
+        return this.authorizationHeaders( uri, this.getContext( requestConfiguration.getPartnerConfiguration() ), clientName, onboardingId );
+    }
 
+    /**
+     * Build the request headers required to obtain an access token.
+     *
+     * @param uri The request URI
+     * @param context The partner context, whose credentials sign the request
+     * @param clientName The client name
+     * @param onboardingId The onboarding id
+     * @return the authorization request headers
+     */
+    private Map<String, String> authorizationHeaders( String uri, PartnerContext context, String clientName, String onboardingId ){
         // Build headers list
         Map<String, String> headers = new LinkedHashMap<>();
         headers.put(HEADER_AUTH_APP, this.appName());
-        headers.put(HEADER_AUTH_CLIENT, contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ).getValue());
-        headers.put(HEADER_AUTH_DATE, new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy", Locale.US).format(new Date()));
-        headers.put(HEADER_AUTH_ID, contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ).getValue());
+        headers.put(HEADER_AUTH_CLIENT, clientName);
+        headers.put(HEADER_AUTH_DATE, AUTH_DATE_FORMATTER.format(Instant.now()));
+        headers.put(HEADER_AUTH_ID, onboardingId);
 
-        // Generate the request signature
-        Signature signature = this.generateSignature( uri, headers );
-        String finalSignature = signature.toString().replace(RSA_SHA256.getPortableName(), RSA_SHA256.getJmvName());
+        // Generate the request signature, with the credentials of the partner configuration
+        Signature signature = this.generateSignature( context, uri, headers );
 
         // Insert the signature into the header Authorization
-        headers.put(HttpHeaders.AUTHORIZATION, finalSignature);
+        headers.put(HttpHeaders.AUTHORIZATION, context.authorizationHeader( signature ));
 
         return headers;
     }
 
     /**
-     * Generate a signature, using the private key and client certificate returned by the {@link RSAHolder} instance.
+     * The access tokens depend on the app, the client name and the onboarding id used to sign the token request.
+     */
+    @Override
+    protected String credentialsId( RequestConfiguration requestConfiguration ){
+        ContractConfiguration contractConfiguration = requestConfiguration.getContractConfiguration();
+        return this.appName() + " " + this.getClientName( contractConfiguration ) + " " + this.getOnboardingId( contractConfiguration );
+    }
+
+    /**
+     * Retrieve the client name from the contract configuration.
+     * Throws an exception if it's not found.
      *
-     * @param uri the request URI
-     * @param headers the request headers
-     * @return The signature
+     * @param contractConfiguration The contract configuration
+     * @return the client name
      */
-    Signature generateSignature( String uri, Map<String, String> headers ){
-        // Retrieve private key
-        Key pk;
-        try {
-            pk = this.rsaHolder.getPrivateKey();
-        } catch (GeneralSecurityException e) {
-            throw new PluginException("plugin error: unable to get client private key", e);
+    private String getClientName( ContractConfiguration contractConfiguration ){
+        if( contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ) == null
+                || contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ).getValue() == null ){
+            throw new InvalidDataException("Missing client name in contract configuration");
         }
+        return contractConfiguration.getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ).getValue();
+    }
 
-        // Generate keyId for the signature, which is the SHA1 hash of the client certificate without colons
-        String sha1;
-        try {
-            sha1 = sha1( this.rsaHolder.getClientCertificate().getEncoded() );
-        }
-        catch (KeyStoreException e) {
-            throw new PluginException("plugin error: unable to get client certificate", e);
-        }
-        catch (CertificateEncodingException e) {
-            throw new PluginException("plugin error: unable to encode client certificate", e);
-        }
-        if( sha1 == null ){
-            throw new PluginException("plugin error: unable to apply sha1 on client certificate");
+    /**
+     * Retrieve the onboarding id from the contract configuration.
+     * Throws an exception if it's not found.
+     *
+     * @param contractConfiguration The contract configuration
+     * @return the onboarding id
+     */
+    private String getOnboardingId( ContractConfiguration contractConfiguration ){
+        if( contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ) == null
+                || contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ).getValue() == null ){
+            throw new InvalidDataException("Missing onboarding id in contract configuration");
         }
-        String keyId = sha1.replace(":", "");
-
-        // @see https://github.com/tomitribe/http-signatures-java
-        // Create a signer
-        Signature signature = new Signature(keyId, RSA_SHA256, null, "app", "client", "id", "date");
-        Signer signer = new Signer(pk, signature);
+        return contractConfiguration.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ).getValue();
+    }
 
+    /**
+     * Generate a signature, using the signer of the given partner context (built from its private key and client certificate).
+     *
+     * @param context the partner context
+     * @param uri the request URI
+     * @param headers the request headers
+     * @return The signature
+     */
+    Signature generateSignature( PartnerContext context, String uri, Map<String, String> headers ){
         // Sign the HTTP message
         try {
-            signature = signer.sign("POST", uri, headers);
+            return context.getSigner().sign("POST", uri, headers);
         }
         catch (IOException e) {
             throw new PluginException("unexpected plugin error: while signing the request");
         }
-
-        return signature;
     }
 
     /**
@@ -288,42 +469,75 @@ abstract class EquensHttpClient extends OAuthHttpClient {
      * @return A list of headers
      */
     protected List<Header> initHeaders(RequestConfiguration requestConfiguration ){
-        List<Header> headers = new ArrayList<>();
+        List<Header> headers = new ArrayList<>( HEADERS_CAPACITY );
         Authorization auth = this.authorize( requestConfiguration );
-        headers.add( new BasicHeader( HttpHeaders.AUTHORIZATION, auth.getHeaderValue() ) );
-        headers.add( new BasicHeader( HEADER_REQUEST_ID, UUID.randomUUID().toString() ) );
-        headers.add( new BasicHeader( MESSAGE_CREATE_DATE_TIME,new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())) );
+        headers.add( auth.getHeader() );
+        headers.add( new BasicHeader( HEADER_REQUEST_ID, requestId() ) );
+        headers.add( new BasicHeader( MESSAGE_CREATE_DATE_TIME, MESSAGE_DATE_FORMATTER.format( Instant.now() ) ) );
         return headers;
     }
 
-    private static String sha1( byte[] block ){
-        try {
-            return toHexString(MessageDigest.getInstance("SHA1").digest( block ));
-        }
-        catch (NoSuchAlgorithmException e) {
-            // Should not happen as "SHA1" is a verified valid algorithm
-            return null;
-        }
+    /**
+     * Generate a unique request identifier, in the format of a random (version 4) UUID.
+     * Unlike {@link UUID#randomUUID()}, it does not rely on the shared {@link java.security.SecureRandom} instance,
+     * which can block and be contended: the identifier does not need to be unpredictable, only unique.
+     *
+     * @return the request identifier
+     */
+    static String requestId(){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = ( random.nextLong() & 0xffffffffffff0fffL ) | 0x0000000000004000L; // version 4
+        long leastSigBits = ( random.nextLong() & 0x3fffffffffffffffL ) | 0x8000000000000000L; // IETF variant
+        return new UUID( mostSigBits, leastSigBits ).toString();
     }
 
-    private static String toHexString(byte[] block) {
-        StringBuilder sb = new StringBuilder();
-        int len = block.length;
-        for (int i = 0; i < len; i++) {
-            byte2hex(block[i], sb);
-            if (i < len - 1) {
-                sb.append(":");
+    /**
+     * Values of the partner properties a context depends on. The contexts are looked up with these values rather
+     * than with a digest, which would have to be computed for each call.
+     */
+    private static class ContextKey {
+        private final String tokenEndpointUrl;
+        private final String certificate;
+        private final String privateKey;
+
+        ContextKey( String tokenEndpointUrl, String certificate, String privateKey ){
+            this.tokenEndpointUrl = tokenEndpointUrl;
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+        }
+
+        @Override
+        public boolean equals( Object o ){
+            if( this == o ){
+                return true;
             }
+            if( !( o instanceof ContextKey ) ){
+                return false;
+            }
+            ContextKey other = (ContextKey) o;
+            return tokenEndpointUrl.equals( other.tokenEndpointUrl ) && certificate.equals( other.certificate )
+                    && privateKey.equals( other.privateKey );
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash( tokenEndpointUrl, certificate, privateKey );
         }
-        return sb.toString();
     }
 
-    private static void byte2hex(byte b, StringBuilder sb) {
-        char[] hexChars = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
-        int high = ((b & 0xf0) >> 4);
-        int low = (b & 0x0f);
-        sb.append(hexChars[high]);
-        sb.append(hexChars[low]);
+    /**
+     * Identifiers of the credentials used to obtain an access token: no secret is kept.
+     */
+    private static class TokenCredentials {
+        private final String fingerprint;
+        private final String clientName;
+        private final String onboardingId;
+
+        TokenCredentials( String fingerprint, String clientName, String onboardingId ){
+            this.fingerprint = fingerprint;
+            this.clientName = clientName;
+            this.onboardingId = onboardingId;
+        }
     }
 
 }
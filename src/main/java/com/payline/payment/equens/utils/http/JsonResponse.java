@@ -0,0 +1,125 @@
+package com.payline.payment.equens.utils.http;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.service.JsonService;
+import com.payline.pmapi.bean.common.FailureCause;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP response whose content, in case of success, is decoded from JSON while it is read from the connection:
+ * it is never buffered as a String.
+ *
+ * In case of success, {@link #getContent()} only returns an excerpt of the content (its first bytes), to report errors.
+ * In case of error, the content is small and must be parsed by the caller, so it is kept entirely.
+ * In both cases, the size of the content is limited.
+ *
+ * @param <T> the type of the decoded content
+ */
+public class JsonResponse<T> extends StringResponse {
+
+    private T body;
+    private JsonParseException parseError;
+
+    /**
+     * @return the decoded content, or null if the response is not a success or its content could not be decoded
+     */
+    public T getBody() {
+        return body;
+    }
+
+    /**
+     * @return the exception raised while decoding the content, or null if it was decoded successfully
+     */
+    public JsonParseException getParseError() {
+        return parseError;
+    }
+
+    /**
+     * Extract the elements of a {@link JsonResponse} from a {@link HttpResponse}, decoding the content if the response
+     * is a success.
+     *
+     * @param httpResponse the HTTP response
+     * @param type the type of the decoded content
+     * @param jsonService the service used to decode the content
+     * @param maxSize the maximum size of the content (bytes)
+     * @param excerptSize the size of the excerpt kept from a successful response content (bytes)
+     * @return The corresponding JsonResponse, or null if the input contains incomplete data.
+     * @throws IOException if the content cannot be read from the connection
+     * @throws PluginException if the content exceeds the maximum size
+     */
+    static <T> JsonResponse<T> fromHttpResponse( HttpResponse httpResponse, Class<T> type, JsonService jsonService,
+                                                 long maxSize, int excerptSize ) throws IOException {
+        if( httpResponse == null || httpResponse.getStatusLine() == null ){
+            return null;
+        }
+
+        JsonResponse<T> instance = new JsonResponse<>();
+        instance.setStatusAndHeaders( httpResponse );
+
+        HttpEntity entity = httpResponse.getEntity();
+        if( entity == null ){
+            return instance;
+        }
+        Charset charset = charset( entity );
+        boolean success = instance.isSuccess();
+        BoundedInputStream in = new BoundedInputStream( entity.getContent(), maxSize, success ? excerptSize : (int) Math.min( maxSize, Integer.MAX_VALUE ) );
+
+        try {
+            if( success ){
+                Reader reader = new InputStreamReader( in, charset );
+                instance.body = jsonService.fromJson( reader, type );
+                // the document has been read until its end: closing the reader releases the connection
+                reader.close();
+            } else {
+                in.drain();
+            }
+        }
+        catch( JsonParseException e ){
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException && !(cause instanceof MalformedJsonException) && !(cause instanceof EOFException) ){
+                // the content could not be read (ex: connection reset)
+                if( in.isExceeded() ){
+                    throw tooLarge( maxSize, (IOException) cause );
+                }
+                throw (IOException) cause;
+            }
+            // the content is not a JSON document: the stream is not closed, so the connection is discarded
+            instance.parseError = e;
+        }
+        catch( IOException e ){
+            if( in.isExceeded() ){
+                throw tooLarge( maxSize, e );
+            }
+            throw e;
+        }
+
+        instance.setContent( in.excerpt( charset ) );
+        return instance;
+    }
+
+    /**
+     * @param entity a response entity
+     * @return the charset of the entity, UTF-8 if not specified (default charset of JSON)
+     */
+    static Charset charset( HttpEntity entity ){
+        ContentType contentType = ContentType.get( entity );
+        Charset charset = contentType == null ? null : contentType.getCharset();
+        return charset == null ? StandardCharsets.UTF_8 : charset;
+    }
+
+    private static PluginException tooLarge( long maxSize, IOException cause ){
+        return new PluginException( "Partner API response exceeds " + maxSize + " bytes", FailureCause.PARTNER_UNKNOWN_ERROR, cause );
+    }
+
+}
@@ -14,15 +14,22 @@ import com.payline.pmapi.logger.LogManager;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.logging.log4j.Logger;
 
@@ -35,7 +42,11 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * Client dedicated to OAuth 2.0 authorization process : the recovering of a valid access token.
@@ -47,63 +58,158 @@ abstract class OAuthHttpClient {
 
     private static final Logger LOGGER = LogManager.getLogger(OAuthHttpClient.class);
 
+    /**
+     * Name of the token endpoint, for its circuit breaker.
+     */
+    static final String ENDPOINT_TOKEN = "token";
+
+    /**
+     * Maximum value of the access tokens expiration margins (seconds).
+     */
+    static final int TOKEN_MARGIN_MAX = 3600;
+
     protected ConfigProperties config = ConfigProperties.getInstance();
     protected JsonService jsonService = JsonService.getInstance();
 
     /**
-     * Support for the current authorization information.
+     * Access tokens obtained so far, by token endpoint and client credentials.
      */
-    private Authorization authorization;
+    private volatile TokenCache tokenCache = new TokenCache();
 
     /**
      * Client used to contact APIs through HTTP.
      */
-    protected CloseableHttpClient client;
+    protected volatile CloseableHttpClient client;
 
     /**
-     * Has this class been initialized with partner configuration ?
+     * Has the HTTP client been initialized ? It's set last, once all the state below has been built.
      */
     protected AtomicBoolean initialized = new AtomicBoolean();
 
     /**
-     * The number of time the client must retry to send the request if it doesn't obtain a response.
+     * Lock of the initialization and the release of the instance.
      */
-    private int retries;
+    private final Object initLock = new Object();
 
     /**
-     * Full URL (API domain + path) of the endpoint that delivers OAuth access token.
-     * Since the domain and path change from one implementation to the other,
-     * its value must be passed through the init method.
+     * Decides if a request must be sent again when it doesn't obtain a proper response.
+     * No retry until the instance is initialized.
      */
-    private String tokenEndpointUrl;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy( 1, 0, 0, 0, 0, null );
 
     /**
-     * Initialize the instance.
-     *
-     * @param tokenEndpointUrl the full URL of the endpoint that delivers access tokens
+     * Thresholds of the circuit breakers. The circuits never open until the instance is initialized.
+     */
+    private volatile CircuitBreaker.Config circuitBreakerConfig = CircuitBreaker.Config.DISABLED;
+
+    /**
+     * Circuit breakers, by endpoint name.
      */
-    protected void init( String tokenEndpointUrl){
-        if( this.initialized.compareAndSet(false, true) ){
-            // Set the token endpoint URL
-            this.tokenEndpointUrl = tokenEndpointUrl;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
 
+    /**
+     * Endpoint call in progress on the current thread, if any: its attempts are reported to the circuit breaker.
+     */
+    private final ThreadLocal<EndpointCall> endpointCall = new ThreadLocal<>();
+
+    /**
+     * Maximum size of a response content decoded from JSON (bytes). Unlimited until the instance is initialized.
+     */
+    private volatile long responseMaxSize = Long.MAX_VALUE;
+
+    /**
+     * Size of the excerpt kept from a response content decoded from JSON, to report errors (bytes).
+     */
+    private volatile int responseExcerptSize = 2048;
+
+    /**
+     * Initialize the instance.
+     * The HTTP client and the access tokens storage only depend on the plugin configuration,
+     * so they are built once and shared by all the partner configurations.
+     * The properties are all read and checked before anything is built: if they're invalid, the instance stays
+     * uninitialized and the next call tries again.
+     */
+    protected void init(){
+        if( this.initialized.get() ){
+            return;
+        }
+        synchronized( this.initLock ){
+            if( this.initialized.get() ){
+                return;
+            }
             // Retrieve config properties
             int connectionRequestTimeout;
             int connectTimeout;
             int socketTimeout;
+            int tokenExpirySkew;
+            int tokenRefreshAhead;
+            int poolMaxTotal;
+            int poolMaxPerRoute;
+            int poolValidateAfterInactivity;
+            int poolIdleTimeout;
+            int keepAliveDefault;
+            int keepAliveMax;
+            int retries;
+            int retryBaseDelay;
+            int retryMaxDelay;
+            int retryBudget;
+            int retryBudgetWindow;
+            int maxSize;
+            int excerptSize;
+            CircuitBreaker.Config breakerConfig;
             try {
                 // request config timeouts (in seconds)
                 connectionRequestTimeout = Integer.parseInt(config.get("http.connectionRequestTimeout"));
                 connectTimeout = Integer.parseInt(config.get("http.connectTimeout"));
                 socketTimeout = Integer.parseInt(config.get("http.socketTimeout"));
 
-                // number of retry attempts
-                this.retries = Integer.parseInt(config.get("http.retries"));
+                // number of retry attempts, delays between attempts (in milliseconds) and retry budget (in seconds)
+                retries = Integer.parseInt(config.get("http.retries"));
+                retryBaseDelay = Integer.parseInt(config.get("http.retry.baseDelay"));
+                retryMaxDelay = Integer.parseInt(config.get("http.retry.maxDelay"));
+                retryBudget = Integer.parseInt(config.get("http.retry.budget"));
+                retryBudgetWindow = Integer.parseInt(config.get("http.retry.budgetWindow"));
+
+                // connection pool sizing (number of connections) and connections lifecycle (in milliseconds or seconds)
+                poolMaxTotal = Integer.parseInt(config.get("http.pool.maxTotal"));
+                poolMaxPerRoute = Integer.parseInt(config.get("http.pool.maxPerRoute"));
+                poolValidateAfterInactivity = Integer.parseInt(config.get("http.pool.validateAfterInactivity"));
+                poolIdleTimeout = Integer.parseInt(config.get("http.pool.idleTimeout"));
+                keepAliveDefault = Integer.parseInt(config.get("http.keepAlive.default"));
+                keepAliveMax = Integer.parseInt(config.get("http.keepAlive.max"));
+
+                // response content limits (in bytes)
+                maxSize = Integer.parseInt(config.get("http.response.maxSize"));
+                excerptSize = Integer.parseInt(config.get("http.response.excerptSize"));
+
+                // circuit breakers thresholds (number of calls, percents, milliseconds and seconds)
+                breakerConfig = new CircuitBreaker.Config(
+                        Integer.parseInt(config.get("circuitBreaker.windowSize")),
+                        Integer.parseInt(config.get("circuitBreaker.minimumCalls")),
+                        Integer.parseInt(config.get("circuitBreaker.failureRateThreshold")),
+                        Integer.parseInt(config.get("circuitBreaker.slowCallRateThreshold")),
+                        Integer.parseInt(config.get("circuitBreaker.slowCallDuration")),
+                        Integer.parseInt(config.get("circuitBreaker.openDuration")) * 1000L,
+                        Integer.parseInt(config.get("circuitBreaker.halfOpenCalls"))
+                );
+
+                // access tokens expiration margins (in seconds)
+                tokenExpirySkew = Integer.parseInt(config.get("token.expirySkew"));
+                tokenRefreshAhead = Integer.parseInt(config.get("token.refreshAhead"));
             }
             catch( NumberFormatException e ){
-                throw new PluginException("plugin error: http.* properties must be integers", e);
+                throw new PluginException("plugin error: http.*, circuitBreaker.* and token.* properties must be integers", e);
+            }
+            if( tokenExpirySkew < 0 || tokenExpirySkew > TOKEN_MARGIN_MAX
+                    || tokenRefreshAhead < 0 || tokenRefreshAhead > TOKEN_MARGIN_MAX
+                    || ( tokenRefreshAhead > 0 && tokenRefreshAhead <= tokenExpirySkew ) ){
+                throw new PluginException("plugin error: token.expirySkew and token.refreshAhead must be between 0 and "
+                        + TOKEN_MARGIN_MAX + ", and token.refreshAhead must be 0 or greater than token.expirySkew");
             }
 
+            // Retry policy
+            RetryPolicy policy = new RetryPolicy( retries, retryBaseDelay, retryMaxDelay, retryBudget, retryBudgetWindow * 1000L, this.idempotencyKeyHeader() );
+
             // Create RequestConfig
             RequestConfig requestConfig = RequestConfig.custom()
                     .setConnectionRequestTimeout(connectionRequestTimeout * 1000)
@@ -111,17 +217,90 @@ abstract class OAuthHttpClient {
                     .setSocketTimeout(socketTimeout * 1000)
                     .build();
 
+            // Create the connection pool
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                    RegistryBuilder.<ConnectionSocketFactory>create()
+                            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                            .register("https", new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                            .build()
+            );
+            connectionManager.setMaxTotal( poolMaxTotal );
+            connectionManager.setDefaultMaxPerRoute( poolMaxPerRoute );
+            connectionManager.setValidateAfterInactivity( poolValidateAfterInactivity );
+
             // Instantiate Apache HTTP client
-            this.client = HttpClientBuilder.create()
+            // (the idle and expired connections are closed by a background thread, stopped when the client is closed)
+            CloseableHttpClient httpClient = HttpClientBuilder.create()
                     .useSystemProperties()
                     .setDefaultRequestConfig( requestConfig )
-                    .setSSLSocketFactory(new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                    .setConnectionManager( connectionManager )
+                    .setKeepAliveStrategy( keepAliveStrategy( keepAliveDefault * 1000L, keepAliveMax * 1000L ) )
+                    .evictExpiredConnections()
+                    .evictIdleConnections( poolIdleTimeout, TimeUnit.SECONDS )
                     .build();
+
+            // Publish the new state: the initialized flag is set last, so that a caller which sees it set sees the state
+            this.retryPolicy = policy;
+            this.responseMaxSize = maxSize;
+            this.responseExcerptSize = excerptSize;
+            this.circuitBreakerConfig = breakerConfig;
+            this.circuitBreakers.clear();
+            // Access tokens storage, with background renewal
+            this.tokenCache = new TokenCache( tokenExpirySkew * 1000L, tokenRefreshAhead * 1000L, this::tokenRenewal );
+            this.client = httpClient;
+            this.initialized.set( true );
+        }
+    }
+
+    /**
+     * Build the strategy deciding how long a connection can stay in the pool after a response has been received.
+     * The duration given by the server in the Keep-Alive header is honoured, up to a maximum.
+     *
+     * @param defaultDuration the duration used when the server does not give any (milliseconds)
+     * @param maxDuration the maximum duration (milliseconds)
+     * @return the keep-alive strategy
+     */
+    static ConnectionKeepAliveStrategy keepAliveStrategy( long defaultDuration, long maxDuration ){
+        return ( response, context ) -> {
+            long serverDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration( response, context );
+            return serverDuration > 0 ? Math.min( serverDuration, maxDuration ) : defaultDuration;
+        };
+    }
+
+    /**
+     * Get the name of the header which makes a POST request idempotent: if a request carrying this header is received
+     * several times, the server processes it only once. Such requests can be retried safely.
+     * This method can be overridden by children classes whose API supports such a header.
+     *
+     * @return the header name, or null if the API does not support it
+     */
+    protected String idempotencyKeyHeader(){
+        return null;
+    }
+
+    /**
+     * Release the resources held by the instance: the pooled connections and the background threads.
+     * The instance can be initialized again afterwards.
+     */
+    public void close(){
+        synchronized( this.initLock ){
+            if( this.initialized.compareAndSet(true, false) ){
+                this.tokenCache.close();
+                try {
+                    this.client.close();
+                }
+                catch( IOException e ){
+                    LOGGER.warn("An error occurred while closing the HTTP client", e);
+                }
+            }
         }
     }
 
     /**
      * Return an access token in an {@link Authorization} object (contains the token type too).
+     * Tokens are stored by token endpoint and client credentials, so each merchant gets its own.
+     * If several threads need a new token for the same credentials at the same time, only one request is sent
+     * to the token endpoint. Tokens in use are renewed in background before they expire.
      *
      * @return A valid authorization
      */
@@ -129,14 +308,60 @@ abstract class OAuthHttpClient {
         if( !this.initialized.get() ){
             throw new PluginException("Illegal state: client must be initialized");
         }
-        if( this.isAuthorized() ){
+        String tokenKey = this.tokenKey( requestConfiguration );
+        Authorization authorization = this.tokenCache.get( tokenKey );
+        if( authorization != null ){
             LOGGER.info("Client already contains a valid authorization");
-            return this.authorization;
+            return authorization;
         }
 
+        return this.tokenCache.getOrRequest( tokenKey, () -> this.requestAuthorization( requestConfiguration ) );
+    }
+
+    /**
+     * Resolve the request renewing in background the access token stored under the given key.
+     * The credentials are not kept with the tokens: they are resolved again when the renewal is due, so that a token
+     * is never renewed with a partner configuration which has been replaced since.
+     * This method can be overridden by children classes able to resolve the current credentials of a token key.
+     *
+     * @param tokenKey the token key
+     * @return the renewal request, or null if the token cannot be renewed (it is then left to expire)
+     */
+    protected Supplier<Authorization> tokenRenewal( String tokenKey ){
+        return null;
+    }
+
+    /**
+     * Remove the access token stored under the given key, if any.
+     *
+     * @param tokenKey the token key
+     */
+    void invalidateToken( String tokenKey ){
+        this.tokenCache.invalidate( tokenKey );
+    }
+
+    /**
+     * Request a new access token to the token endpoint.
+     *
+     * @param requestConfiguration The request configuration
+     * @return A new authorization
+     */
+    Authorization requestAuthorization( RequestConfiguration requestConfiguration ){
+        String tokenEndpointUrl = this.tokenEndpointUrl( requestConfiguration );
+        return this.requestAuthorization( tokenEndpointUrl, this.authorizationHeaders( tokenEndpointUrl, requestConfiguration ) );
+    }
+
+    /**
+     * Request a new access token to the token endpoint.
+     *
+     * @param tokenEndpointUrl The token endpoint URL
+     * @param authorizationHeaders The request headers required to obtain an access token
+     * @return A new authorization
+     */
+    Authorization requestAuthorization( String tokenEndpointUrl, Map<String, String> authorizationHeaders ){
         // Headers: convert the map of authorization headers to a list of Header
         List<Header> headers = new ArrayList<>();
-        for (Map.Entry<String, String> h : this.authorizationHeaders( this.tokenEndpointUrl, requestConfiguration ).entrySet()) {
+        for (Map.Entry<String, String> h : authorizationHeaders.entrySet()) {
             headers.add( new BasicHeader(h.getKey(), h.getValue()) );
         }
         // Add Content-Type header
@@ -146,7 +371,8 @@ abstract class OAuthHttpClient {
         StringEntity body = new StringEntity("grant_type=client_credentials", StandardCharsets.UTF_8);
 
         // Execute request
-        StringResponse response = this.post( this.tokenEndpointUrl, headers, body );
+        // (a client_credentials token request has no side effects, so it can be retried whatever the failure)
+        StringResponse response = this.callEndpoint( ENDPOINT_TOKEN, () -> this.post( tokenEndpointUrl, headers, body, true ) );
 
         // Handle potential error
         if( !response.isSuccess() ){
@@ -174,8 +400,7 @@ abstract class OAuthHttpClient {
             Date expiresAt = new Date( System.currentTimeMillis() + expiresIn );
             authBuilder.withExpiresAt( expiresAt );
 
-            this.authorization = authBuilder.build();
-            return this.authorization;
+            return authBuilder.build();
         }
         catch(JsonSyntaxException | IllegalStateException e){
             throw new PluginException("Failed to parse authorization response", FailureCause.COMMUNICATION_ERROR, e);
@@ -193,14 +418,43 @@ abstract class OAuthHttpClient {
     protected abstract Map<String, String> authorizationHeaders(String uri, RequestConfiguration requestConfiguration );
 
     /**
-     * Check if there is a current valid authorization.
+     * Get the full URL (API domain + path) of the endpoint that delivers OAuth access tokens.
+     * Since the domain and path change from one implementation to the other, and from one partner configuration
+     * to the other, this method should be overridden by children classes.
+     *
+     * @param requestConfiguration The request configuration
+     * @return the token endpoint URL
+     */
+    protected abstract String tokenEndpointUrl( RequestConfiguration requestConfiguration );
+
+    /**
+     * Identify the client credentials used to obtain an access token, which can vary from one merchant to another.
+     * Two requests whose credentials have the same identifier share the same access token.
+     * This method should be overridden by children classes, specific to each Instant Payment method.
+     *
+     * @param requestConfiguration The request configuration
+     * @return the identifier of the client credentials
+     */
+    protected abstract String credentialsId( RequestConfiguration requestConfiguration );
+
+    /**
+     * Build the key under which the access token corresponding to the given request configuration is stored.
+     *
+     * @param requestConfiguration The request configuration
+     * @return the token key
+     */
+    String tokenKey( RequestConfiguration requestConfiguration ){
+        return this.tokenEndpointUrl( requestConfiguration ) + " " + this.credentialsId( requestConfiguration );
+    }
+
+    /**
+     * Check if there is a current valid authorization for the credentials of the given request configuration.
+     * A token about to expire (see the property token.expirySkew) is not considered valid anymore.
+     * @param requestConfiguration The request configuration
      * @return `true` if the current authorization is valid, `false` otherwise.
      */
-    boolean isAuthorized(){
-        return this.authorization != null
-                && this.authorization.getExpiresAt().compareTo( new Date() ) > 0;
-        /* Warning: the token can be valid at the time this method is called but not anymore 1 second later...
-        Maybe add some time (5 minutes ?) to the current time, to be sure. */
+    boolean isAuthorized( RequestConfiguration requestConfiguration ){
+        return this.tokenCache.get( this.tokenKey( requestConfiguration ) ) != null;
     }
 
     /**
@@ -229,33 +483,147 @@ abstract class OAuthHttpClient {
         }
     }
 
+    /**
+     * Call an endpoint of the partner API through its circuit breaker. While the circuit is open, the call is not
+     * made and an exception is thrown immediately.
+     * Each attempt of the call is reported to the circuit breaker (see {@link #execute(HttpRequestBase, ResponseReader)}),
+     * so the pauses between the retries don't count in the call duration and every failed attempt counts as a failure.
+     * An attempt is considered failed if no response is obtained or if the response has a 5xx status code.
+     *
+     * @param endpoint The endpoint name
+     * @param call The call to the endpoint (including the retries)
+     * @param <R> The response type
+     * @return The response from the call
+     * @throws PluginException with {@link FailureCause#COMMUNICATION_ERROR} if the circuit is open
+     */
+    protected <R extends StringResponse> R callEndpoint( String endpoint, Supplier<R> call ){
+        CircuitBreaker circuitBreaker = this.circuitBreakers.computeIfAbsent( endpoint, name -> new CircuitBreaker( name, this.circuitBreakerConfig ) );
+        if( !circuitBreaker.tryAcquire() ){
+            throw new PluginException( "Partner API temporarily unavailable (" + endpoint + ")", FailureCause.COMMUNICATION_ERROR );
+        }
+
+        EndpointCall current = new EndpointCall( circuitBreaker );
+        EndpointCall outer = this.endpointCall.get();
+        this.endpointCall.set( current );
+        long start = System.nanoTime();
+        R response;
+        try {
+            response = call.get();
+        }
+        catch( PluginException e ){
+            if( current.attempts == 0 ){
+                if( FailureCause.COMMUNICATION_ERROR.equals( e.getFailureCause() ) ){
+                    circuitBreaker.onResult( true, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+                } else {
+                    circuitBreaker.release();
+                }
+            }
+            throw e;
+        }
+        catch( RuntimeException e ){
+            if( current.attempts == 0 ){
+                circuitBreaker.release();
+            }
+            throw e;
+        }
+        finally {
+            if( outer == null ){
+                this.endpointCall.remove();
+            } else {
+                this.endpointCall.set( outer );
+            }
+        }
+        // the call did not send any request by itself: its result is reported as a whole
+        if( current.attempts == 0 ){
+            circuitBreaker.onResult( response == null || response.getStatusCode() >= 500,
+                    TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        }
+        return response;
+    }
+
+    /**
+     * Report the result of an attempt to the circuit breaker of the endpoint call in progress, if any.
+     *
+     * @param response The response obtained, or null if none
+     * @param start The time at which the attempt started ({@link System#nanoTime()})
+     * @return `false` if the circuit opened, so the request must not be sent again
+     */
+    private boolean reportAttempt( StringResponse response, long start ){
+        EndpointCall current = this.endpointCall.get();
+        if( current == null ){
+            return true;
+        }
+        current.attempts++;
+        current.circuitBreaker.onResult( response == null || response.getStatusCode() >= 500,
+                TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        return current.circuitBreaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * An endpoint call in progress, with the number of attempts already reported to its circuit breaker.
+     */
+    private static class EndpointCall {
+        private final CircuitBreaker circuitBreaker;
+        private int attempts;
+
+        private EndpointCall( CircuitBreaker circuitBreaker ){
+            this.circuitBreaker = circuitBreaker;
+        }
+    }
+
     /**
      * Send the request, with a retry system in case the client does not obtain a proper response from the server.
+     * See {@link RetryPolicy} for the conditions in which a request is sent again.
      *
      * @param httpRequest The request to send.
      * @return The response converted as a {@link StringResponse}.
      * @throws PluginException If an error repeatedly occurs and no proper response is obtained.
      */
     protected StringResponse execute( HttpRequestBase httpRequest ){
-        StringResponse strResponse = null;
+        return this.execute( httpRequest, StringResponse::fromHttpResponse );
+    }
+
+    /**
+     * Send the request, with a retry system in case the client does not obtain a proper response from the server.
+     * The response is converted by the given reader while it is still attached to the connection,
+     * so its content can be read as a stream.
+     * Within {@link #callEndpoint(String, Supplier)}, each attempt is reported to the circuit breaker of the endpoint,
+     * and the request is not sent again once the circuit opened.
+     *
+     * @param httpRequest The request to send.
+     * @param reader Converts the HTTP response. An {@link IOException} thrown while reading counts as a failed attempt.
+     * @param <R> The response type
+     * @return The converted response.
+     * @throws PluginException If an error repeatedly occurs and no proper response is obtained.
+     */
+    protected <R extends StringResponse> R execute( HttpRequestBase httpRequest, ResponseReader<R> reader ){
+        R strResponse = null;
         int attempts = 1;
+        boolean retry = true;
 
-        while( strResponse == null && attempts <= this.retries ){
+        while( retry ){
             if( LOGGER.isDebugEnabled() ){
                 LOGGER.debug( "Start call to partner API (attempt {}) :{}", attempts, System.lineSeparator() + PluginUtils.requestToString( httpRequest ) );
             } else {
                 LOGGER.info( "Start call to partner API [{} {}] (attempt {})", httpRequest.getMethod(), httpRequest.getURI(), attempts );
             }
+            IOException failure = null;
+            long start = System.nanoTime();
             try( CloseableHttpResponse httpResponse = this.client.execute( httpRequest ) ){
-                strResponse = StringResponse.fromHttpResponse( httpResponse );
+                strResponse = reader.read( httpResponse );
             }
             catch (IOException e) {
                 LOGGER.error("An error occurred during the HTTP call :", e);
                 strResponse = null;
+                failure = e;
             }
-            finally {
-                attempts++;
-            }
+
+            boolean closed = this.reportAttempt( strResponse, start );
+
+            retry = closed
+                    && this.retryPolicy.shouldRetry( httpRequest, attempts, strResponse, failure )
+                    && this.retryPolicy.pause( attempts );
+            attempts++;
         }
 
         if( strResponse == null ){
@@ -279,25 +647,31 @@ abstract class OAuthHttpClient {
      * @return The response from the call
      */
     protected StringResponse get( String url, List<Header> headers ){
-        // Instantiate URI from given url
-        URI uri;
-        try {
-            uri = new URI( url );
-        }
-        catch (URISyntaxException e) {
-            throw new InvalidDataException("Target URL is invalid : " + url, e);
-        }
+        return this.execute( this.getRequest( url, headers ) );
+    }
 
+    /**
+     * Performs an HTTP request on the given url using GET method, and decode the response content from JSON
+     * as it is received.
+     *
+     * @param url The target URL
+     * @param headers The request headers
+     * @param type The type of the response content
+     * @param <T> The type of the response content
+     * @return The response from the call
+     */
+    protected <T> JsonResponse<T> get( String url, List<Header> headers, Class<T> type ){
+        return this.execute( this.getRequest( url, headers ), this.jsonReader( type ) );
+    }
+
+    private HttpGet getRequest( String url, List<Header> headers ){
         // Create request
-        HttpGet request = new HttpGet( uri );
+        HttpGet request = new HttpGet( toUri( url ) );
 
         // Add headers
-        Header[] headersArray = new Header[headers.size()];
-        headers.toArray( headersArray );
-        request.setHeaders( headersArray );
+        request.setHeaders( headers.toArray( new Header[0] ) );
 
-        // Execute request
-        return this.execute( request );
+        return request;
     }
 
     /**
@@ -309,28 +683,79 @@ abstract class OAuthHttpClient {
      * @return The response from the call
      */
     protected StringResponse post(String url, List<Header> headers, HttpEntity body ){
-        // Instantiate URI from given url
-        URI uri;
-        try {
-            uri = new URI( url );
-        }
-        catch (URISyntaxException e) {
-            throw new InvalidDataException("Target URL is invalid : " + url, e);
-        }
+        return this.post( url, headers, body, false );
+    }
 
+    /**
+     * Performs an HTTP request on the given url using POST method.
+     *
+     * @param url The target url
+     * @param headers The request headers
+     * @param body The request body
+     * @param idempotent `true` if the request has no side effects on the server, so that it can be retried
+     *                   whatever the failure (see {@link RetryPolicy})
+     * @return The response from the call
+     */
+    protected StringResponse post( String url, List<Header> headers, HttpEntity body, boolean idempotent ){
+        return this.execute( this.postRequest( url, headers, body, idempotent ) );
+    }
+
+    /**
+     * Performs an HTTP request on the given url using POST method, and decode the response content from JSON
+     * as it is received.
+     *
+     * @param url The target url
+     * @param headers The request headers
+     * @param body The request body
+     * @param type The type of the response content
+     * @param <T> The type of the response content
+     * @return The response from the call
+     */
+    protected <T> JsonResponse<T> post( String url, List<Header> headers, HttpEntity body, Class<T> type ){
+        return this.execute( this.postRequest( url, headers, body, false ), this.jsonReader( type ) );
+    }
+
+    private HttpPost postRequest( String url, List<Header> headers, HttpEntity body, boolean idempotent ){
         // Create request
-        HttpPost request = new HttpPost( uri );
+        HttpPost request = idempotent ? new RetryPolicy.IdempotentPost( toUri( url ) ) : new HttpPost( toUri( url ) );
 
         // Add headers
-        Header[] headersArray = new Header[headers.size()];
-        headers.toArray( headersArray );
-        request.setHeaders( headersArray );
+        request.setHeaders( headers.toArray( new Header[0] ) );
 
         // Add body
         request.setEntity( body );
 
-        // Execute request
-        return this.execute( request );
+        return request;
+    }
+
+    private static URI toUri( String url ){
+        try {
+            return new URI( url );
+        }
+        catch (URISyntaxException e) {
+            throw new InvalidDataException("Target URL is invalid : " + url, e);
+        }
+    }
+
+    /**
+     * Build the reader which decodes the content of a response from JSON, within the configured size limits.
+     *
+     * @param type The type of the response content
+     * @param <T> The type of the response content
+     * @return the response reader
+     */
+    private <T> ResponseReader<JsonResponse<T>> jsonReader( Class<T> type ){
+        return httpResponse -> JsonResponse.fromHttpResponse( httpResponse, type, this.jsonService, this.responseMaxSize, this.responseExcerptSize );
+    }
+
+    /**
+     * Converts an HTTP response, while it is still attached to the connection.
+     *
+     * @param <R> The response type
+     */
+    @FunctionalInterface
+    interface ResponseReader<R extends StringResponse> {
+        R read( HttpResponse httpResponse ) throws IOException;
     }
 
 }
@@ -0,0 +1,149 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.utils.security.RSAHolder;
+import org.tomitribe.auth.signatures.Signature;
+import org.tomitribe.auth.signatures.Signer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import static org.tomitribe.auth.signatures.Algorithm.RSA_SHA256;
+
+/**
+ * Partner-dependent data used by {@link EquensHttpClient} to call the API: the token endpoint URL and the client
+ * credentials used to sign the token requests.
+ * One instance is built for each distinct partner configuration, and identified by a fingerprint of the properties
+ * it depends on. Everything that only depends on the credentials (key id, signer) is computed once, when the
+ * instance is built.
+ */
+class PartnerContext {
+
+    /**
+     * The headers included in the signature of the token requests, in this order.
+     */
+    static final String[] SIGNED_HEADERS = {"app", "client", "id", "date"};
+
+    private final String fingerprint;
+    private final String tokenEndpointUrl;
+    private final RSAHolder rsaHolder;
+
+    /**
+     * Id of the signing key, which is the SHA1 hash of the client certificate (hexadecimal, upper case).
+     */
+    private final String keyId;
+
+    /**
+     * Signer using the client private key. It's thread-safe, as it uses a new JVM signature instance for each message.
+     */
+    private final Signer signer;
+
+    /**
+     * The beginning of the Authorization header, which only depends on the key id: everything but the signature value.
+     */
+    private final String authorizationPrefix;
+
+    /**
+     * Last time this context was used (milliseconds).
+     */
+    private volatile long lastAccess;
+
+    /**
+     * @param fingerprint the fingerprint of the partner configuration
+     * @param tokenEndpointUrl the full URL of the endpoint that delivers access tokens
+     * @param rsaHolder the holder containing the client credentials
+     * @throws GeneralSecurityException if the client certificate or private key cannot be retrieved from the holder
+     */
+    PartnerContext( String fingerprint, String tokenEndpointUrl, RSAHolder rsaHolder ) throws GeneralSecurityException {
+        this.fingerprint = fingerprint;
+        this.tokenEndpointUrl = tokenEndpointUrl;
+        this.rsaHolder = rsaHolder;
+        this.lastAccess = System.currentTimeMillis();
+
+        // @see https://github.com/tomitribe/http-signatures-java
+        this.keyId = toHexString( MessageDigest.getInstance("SHA1").digest( rsaHolder.getClientCertificate().getEncoded() ) );
+        this.signer = new Signer( rsaHolder.getPrivateKey(), new Signature( this.keyId, RSA_SHA256, null, SIGNED_HEADERS ) );
+        // Equens expects the JVM name of the algorithm, instead of the portable one
+        this.authorizationPrefix = "Signature keyId=\"" + this.keyId + "\""
+                + ",algorithm=\"" + RSA_SHA256.getJmvName() + "\""
+                + ",headers=\"" + String.join( " ", SIGNED_HEADERS ) + "\""
+                + ",signature=\"";
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    String getTokenEndpointUrl() {
+        return tokenEndpointUrl;
+    }
+
+    RSAHolder getRsaHolder() {
+        return rsaHolder;
+    }
+
+    String getKeyId() {
+        return keyId;
+    }
+
+    Signer getSigner() {
+        return signer;
+    }
+
+    /**
+     * Build the value of the Authorization header from the given signature.
+     *
+     * @param signature a signature generated by the signer of this context
+     * @return the Authorization header value
+     */
+    String authorizationHeader( Signature signature ){
+        return this.authorizationPrefix + signature.getSignature() + "\"";
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Mark the context as used now.
+     */
+    void touch(){
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Compute the SHA-256 digest of the given partner properties.
+     *
+     * @param values the values of the partner properties the context depends on
+     * @return the digest, as a Base64 string
+     */
+    static String fingerprint( String... values ){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch( NoSuchAlgorithmException e ){
+            // Should not happen as "SHA-256" is a verified valid algorithm
+            throw new IllegalStateException( e );
+        }
+        for( String value : values ){
+            digest.update( value.getBytes( StandardCharsets.UTF_8 ) );
+            // separator, so that moving characters from one value to the next changes the digest
+            digest.update( (byte) 0 );
+        }
+        return Base64.getEncoder().encodeToString( digest.digest() );
+    }
+
+    private static String toHexString( byte[] block ){
+        char[] hexChars = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+        char[] hex = new char[block.length * 2];
+        for( int i = 0; i < block.length; i++ ){
+            hex[2 * i] = hexChars[(block[i] & 0xf0) >> 4];
+            hex[2 * i + 1] = hexChars[block[i] & 0x0f];
+        }
+        return new String( hex );
+    }
+
+}
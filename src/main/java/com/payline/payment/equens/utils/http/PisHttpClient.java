@@ -1,22 +1,28 @@
 package com.payline.payment.equens.utils.http;
 
-import com.google.gson.JsonSyntaxException;
 import com.payline.payment.equens.bean.business.payment.PaymentInitiationRequest;
 import com.payline.payment.equens.bean.business.payment.PaymentInitiationResponse;
 import com.payline.payment.equens.bean.business.payment.PaymentStatusResponse;
 import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.InvalidDataException;
+import com.payline.payment.equens.exception.PluginException;
 import com.payline.payment.equens.utils.Constants;
+import com.payline.payment.equens.utils.metrics.Metrics;
 import com.payline.pmapi.logger.LogManager;
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.logging.log4j.Logger;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * HTTP client in charge of requesting the PIS (Payment Initiation Service) API.
@@ -25,6 +31,21 @@ public class PisHttpClient extends EquensHttpClient {
     private static final Logger LOGGER = LogManager.getLogger(PisHttpClient.class);
     public static final String INITIATING_PARTY_RETURN_URL = "InitiatingPartyReturnUrl";
 
+    // Names of the endpoints, for their circuit breakers
+    static final String ENDPOINT_ASPSPS = "aspsps";
+    static final String ENDPOINT_PAYMENTS = "payments";
+    static final String ENDPOINT_PAYMENT_STATUS = "paymentStatus";
+
+    static final String METRIC_ASPSPS_COALESCED = "aspsps.coalesced";
+    static final String METRIC_ASPSPS_NOT_MODIFIED = "aspsps.notModified";
+
+    private Metrics metrics = Metrics.getInstance();
+
+    /**
+     * The calls to the ASPSPs endpoint in flight, by URL and validators.
+     */
+    private final Map<String, CompletableFuture<GetAspspsResponse>> aspspsInFlight = new ConcurrentHashMap<>();
+
     // --- Singleton Holder pattern + initialization BEGIN
     PisHttpClient() {
     }
@@ -45,30 +66,111 @@ public class PisHttpClient extends EquensHttpClient {
 
     /**
      * Get the list of the ASPSPs available through Equens Worldline API.
+     * The concurrent calls for the same URL and credentials (token key) are coalesced: only the first one requests
+     * the API, the others wait for its result (or its exception). The response may then be shared: it must not be
+     * modified.
      *
      * @param requestConfiguration the request configuration
      * @return The list of ASPSPs
      */
     public GetAspspsResponse getAspsps(RequestConfiguration requestConfiguration) {
+        return this.getAspsps(requestConfiguration, null, null);
+    }
+
+    /**
+     * Get the list of the ASPSPs available through Equens Worldline API, if it changed since the response which had
+     * the given validators (usually kept in the directory snapshot, see
+     * {@link com.payline.payment.equens.service.DirectorySnapshotStore}).
+     * The concurrent calls for the same URL, credentials and validators are coalesced, as in {@link #getAspsps(RequestConfiguration)}.
+     *
+     * @param requestConfiguration the request configuration
+     * @param etag the ETag of the last response, or null
+     * @param lastModified the Last-Modified date of the last response, or null
+     * @return The list of ASPSPs, or null if it did not change since the last response
+     */
+    public GetAspspsResponse getAspsps(RequestConfiguration requestConfiguration, String etag, String lastModified) {
         // Service full URL
         String url = requestConfiguration.getPartnerConfiguration().getProperty(Constants.PartnerConfigurationKeys.API_URL_PIS_ASPSPS);
         if (url == null) {
             throw new InvalidDataException("Missing API aspsps url in PartnerConfiguration");
         }
+
+        // the calls with other credentials must not share the response, nor the authorization failures
+        final String callKey = url + "\n" + this.tokenKey(requestConfiguration) + "\n" + etag + "\n" + lastModified;
+        final CompletableFuture<GetAspspsResponse> call = new CompletableFuture<>();
+        final CompletableFuture<GetAspspsResponse> inFlight = aspspsInFlight.putIfAbsent(callKey, call);
+        if (inFlight != null) {
+            metrics.increment(METRIC_ASPSPS_COALESCED);
+            return await(inFlight);
+        }
+        try {
+            final GetAspspsResponse aspsps = this.requestAspsps(url, requestConfiguration, etag, lastModified);
+            call.complete(aspsps);
+            return aspsps;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            aspspsInFlight.remove(callKey, call);
+        }
+    }
+
+    /**
+     * Wait for the result of a call in flight.
+     *
+     * @param inFlight the call
+     * @return its result
+     */
+    private static GetAspspsResponse await(CompletableFuture<GetAspspsResponse> inFlight) {
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PluginException("Plugin error: unable to get the ASPSPs", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PluginException("Plugin error: interrupted while waiting for the ASPSPs", e);
+        }
+    }
+
+    /**
+     * Request the ASPSPs. If validators (ETag, Last-Modified) are given, the request is conditional.
+     * The response content is compressed if the partner API supports it: the HTTP client negotiates it.
+     *
+     * @return the ASPSPs with the validators of the response, or null if they did not change
+     */
+    private GetAspspsResponse requestAspsps(String url, RequestConfiguration requestConfiguration, String etag, String lastModified) {
         // Send
-        StringResponse response = this.get(url, this.initHeaders(requestConfiguration));
+        List<Header> headers = this.initHeaders(requestConfiguration);
+        if (etag != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, etag));
+        }
+        if (lastModified != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified));
+        }
+        JsonResponse<GetAspspsResponse> response = this.callEndpoint(ENDPOINT_ASPSPS, () -> this.get(url, headers, GetAspspsResponse.class));
+
+        if (response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && (etag != null || lastModified != null)) {
+            metrics.increment(METRIC_ASPSPS_NOT_MODIFIED);
+            return null;
+        }
 
         // Handle potential errors
         if (!response.isSuccess() || response.getContent() == null) {
             throw this.handleError(response);
         }
-        try {
-
-            return jsonService.fromJson(response.getContent(), GetAspspsResponse.class);
-        } catch (JsonSyntaxException e) {
-            LOGGER.error("getAspsps Response is not a JSON: {}", response.getContent(), e);
+        if (response.getParseError() != null || response.getBody() == null) {
+            LOGGER.error("getAspsps Response is not a JSON: {}", response.getContent(), response.getParseError());
             throw new InvalidDataException(response.getContent());
         }
+
+        // Keep the validators, for the next conditional request
+        final GetAspspsResponse aspsps = response.getBody();
+        aspsps.setEtag(response.getHeader(HttpHeaders.ETAG));
+        aspsps.setLastModified(response.getHeader(HttpHeaders.LAST_MODIFIED));
+        return aspsps;
     }
 
     /**
@@ -94,19 +196,17 @@ public class PisHttpClient extends EquensHttpClient {
         headers.add(new BasicHeader(INITIATING_PARTY_RETURN_URL , requestConfiguration.getEnvironment().getRedirectionReturnURL()));
         headers.addAll(headersToAdd);
         // Send request
-        StringResponse response = this.post(url, headers, body);
+        JsonResponse<PaymentInitiationResponse> response = this.callEndpoint(ENDPOINT_PAYMENTS, () -> this.post(url, headers, body, PaymentInitiationResponse.class));
 
         // Handle potential errors
         if (!response.isSuccess() || response.getContent() == null) {
             throw this.handleError(response);
         }
-
-        try {
-            return jsonService.fromJson(response.getContent(), PaymentInitiationResponse.class);
-        } catch (JsonSyntaxException e) {
-            LOGGER.error("initPayment Response is not a JSON: {}", response.getContent(), e);
+        if (response.getParseError() != null) {
+            LOGGER.error("initPayment Response is not a JSON: {}", response.getContent(), response.getParseError());
             throw new InvalidDataException(response.getContent());
         }
+        return response.getBody();
     }
 
     /**
@@ -127,21 +227,21 @@ public class PisHttpClient extends EquensHttpClient {
         if (autoConfirm) {
             url = addStringUrlParameter(url, "confirm=true");
         }
+        String statusUrl = url;
 
         // Send request
-        StringResponse response = this.get(url, this.initHeaders(requestConfiguration));
+        List<Header> headers = this.initHeaders(requestConfiguration);
+        JsonResponse<PaymentStatusResponse> response = this.callEndpoint(ENDPOINT_PAYMENT_STATUS, () -> this.get(statusUrl, headers, PaymentStatusResponse.class));
 
         // Handle potential errors
         if (!response.isSuccess() || response.getContent() == null) {
             throw this.handleError(response);
         }
-
-        try {
-            return jsonService.fromJson(response.getContent(), PaymentStatusResponse.class);
-        } catch (JsonSyntaxException e) {
-            LOGGER.error("paymentStatus Response is not a JSON: {}", response.getContent(), e);
+        if (response.getParseError() != null) {
+            LOGGER.error("paymentStatus Response is not a JSON: {}", response.getContent(), response.getParseError());
             throw new InvalidDataException(response.getContent());
         }
+        return response.getBody();
     }
 
     /**
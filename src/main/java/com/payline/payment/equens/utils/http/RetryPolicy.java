@@ -0,0 +1,231 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.utils.metrics.Metrics;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decide if, and when, a request which did not obtain a proper response must be sent again.
+ *
+ * A request is retried if it failed with an {@link IOException} or got a 502 or 503 response, provided that:
+ * - the maximum number of attempts is not reached
+ * - sending it again cannot have side effects: either the connection could not even be established,
+ *   or the request is idempotent (not a POST, a POST marked as such by the caller, or a POST carrying an idempotency
+ *   key header)
+ * - the retry budget is not exhausted: the number of retries over a time window is limited,
+ *   so that the retries do not amplify a partner outage.
+ *
+ * Between two attempts, the client waits for an exponentially growing delay, with jitter (random part)
+ * so that the clients which failed at the same time do not retry at the same time.
+ *
+ * Every decision taken after a failed attempt is counted in the {@link Metrics}, with the prefix "http.retry.".
+ */
+class RetryPolicy {
+
+    private static final Logger LOGGER = LogManager.getLogger(RetryPolicy.class);
+
+    static final String METRIC_RETRIED = "http.retry.retried";
+    static final String METRIC_EXHAUSTED = "http.retry.exhausted";
+    static final String METRIC_BUDGET_EXHAUSTED = "http.retry.budgetExhausted";
+    static final String METRIC_NOT_IDEMPOTENT = "http.retry.notIdempotent";
+    static final String METRIC_INTERRUPTED = "http.retry.interrupted";
+
+    private Metrics metrics = Metrics.getInstance();
+
+    /**
+     * Maximum number of attempts for a request, the first one included.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Maximum delay before the first retry (milliseconds). It doubles for each following retry.
+     */
+    private final long baseDelay;
+
+    /**
+     * Maximum delay before a retry, whatever the number of attempts (milliseconds).
+     */
+    private final long maxDelay;
+
+    /**
+     * Maximum number of retries during a budget window.
+     */
+    private final int budget;
+
+    /**
+     * Duration of a budget window (milliseconds).
+     */
+    private final long budgetWindow;
+
+    /**
+     * Name of the header which makes a POST request idempotent (the server uses it to detect duplicates).
+     * If null, POST requests are only retried when the connection could not be established.
+     */
+    private final String idempotencyKeyHeader;
+
+    private long windowStart;
+    private int spent;
+
+    /**
+     * @param maxAttempts maximum number of attempts for a request, the first one included
+     * @param baseDelay maximum delay before the first retry (milliseconds)
+     * @param maxDelay maximum delay before a retry (milliseconds)
+     * @param budget maximum number of retries during a budget window
+     * @param budgetWindow duration of a budget window (milliseconds)
+     * @param idempotencyKeyHeader name of the header which makes a POST request idempotent, or null
+     */
+    RetryPolicy( int maxAttempts, long baseDelay, long maxDelay, int budget, long budgetWindow, String idempotencyKeyHeader ){
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budget = budget;
+        this.budgetWindow = budgetWindow;
+        this.idempotencyKeyHeader = idempotencyKeyHeader;
+    }
+
+    /**
+     * Decide if the request must be sent again, after an attempt.
+     *
+     * @param request the request sent
+     * @param attempt the number of the attempt (starting at 1)
+     * @param response the response obtained, null if there is none
+     * @param exception the exception thrown during the attempt, null if there is none
+     * @return `true` if the request must be sent again
+     */
+    boolean shouldRetry( HttpRequestBase request, int attempt, StringResponse response, IOException exception ){
+        if( response != null && !isRetryableStatus( response.getStatusCode() ) ){
+            return false;
+        }
+
+        String decision;
+        if( attempt >= this.maxAttempts ){
+            decision = METRIC_EXHAUSTED;
+        }
+        else if( !isConnectFailure( exception ) && !this.isIdempotent( request ) ){
+            decision = METRIC_NOT_IDEMPOTENT;
+        }
+        else if( !this.acquireBudget() ){
+            decision = METRIC_BUDGET_EXHAUSTED;
+        }
+        else {
+            decision = METRIC_RETRIED;
+        }
+        this.metrics.increment( decision );
+
+        if( !METRIC_RETRIED.equals( decision ) ){
+            LOGGER.warn( "Request [{} {}] will not be retried after attempt {} ({})", request.getMethod(), request.getURI(), attempt, decision );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait before sending the request again.
+     *
+     * @param attempt the number of the attempt which just failed (starting at 1)
+     * @return `false` if the thread has been interrupted while waiting, in which case the request must not be retried
+     */
+    boolean pause( int attempt ){
+        long delay = this.delay( attempt );
+        if( delay <= 0 ){
+            return true;
+        }
+        try {
+            Thread.sleep( delay );
+            return true;
+        }
+        catch( InterruptedException e ){
+            Thread.currentThread().interrupt();
+            this.metrics.increment( METRIC_INTERRUPTED );
+            return false;
+        }
+    }
+
+    /**
+     * Compute the delay to wait before the next attempt: a random value between 0 and an exponentially growing
+     * maximum ("full jitter").
+     *
+     * @param attempt the number of the attempt which just failed (starting at 1)
+     * @return the delay (milliseconds)
+     */
+    long delay( int attempt ){
+        if( this.baseDelay <= 0 ){
+            return 0;
+        }
+        // baseDelay * 2^(attempt - 1), without overflow
+        long ceiling = attempt >= 32 ? this.maxDelay : Math.min( this.maxDelay, this.baseDelay << ( attempt - 1 ) );
+        return ThreadLocalRandom.current().nextLong( ceiling + 1 );
+    }
+
+    /**
+     * Can the request be sent again without risk of side effects ?
+     *
+     * @param request the request
+     * @return `true` if the request is idempotent
+     */
+    boolean isIdempotent( HttpRequestBase request ){
+        return !"POST".equals( request.getMethod() )
+                || request instanceof IdempotentPost
+                || ( this.idempotencyKeyHeader != null && request.containsHeader( this.idempotencyKeyHeader ) );
+    }
+
+    /**
+     * @param statusCode a HTTP status code
+     * @return `true` if a response with this status code indicates a transient partner failure
+     */
+    static boolean isRetryableStatus( int statusCode ){
+        return statusCode == HttpStatus.SC_BAD_GATEWAY || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * @param exception an exception thrown while sending a request
+     * @return `true` if the exception indicates that the connection could not be established,
+     * so that the request has not been received by the server
+     */
+    static boolean isConnectFailure( IOException exception ){
+        return exception instanceof ConnectException
+                || exception instanceof ConnectTimeoutException
+                || exception instanceof UnknownHostException
+                || exception instanceof NoRouteToHostException;
+    }
+
+    /**
+     * Consume one retry from the budget of the current window.
+     *
+     * @return `false` if the budget of the current window is exhausted
+     */
+    private synchronized boolean acquireBudget(){
+        long now = System.currentTimeMillis();
+        if( now - this.windowStart >= this.budgetWindow ){
+            this.windowStart = now;
+            this.spent = 0;
+        }
+        if( this.spent >= this.budget ){
+            return false;
+        }
+        this.spent++;
+        return true;
+    }
+
+    /**
+     * A POST request which has no side effects on the server, such as an OAuth client_credentials token request:
+     * it can be retried whatever the failure, even without idempotency key.
+     */
+    static class IdempotentPost extends HttpPost {
+        IdempotentPost( URI uri ){
+            super( uri );
+        }
+    }
+
+}
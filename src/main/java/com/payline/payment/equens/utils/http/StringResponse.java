@@ -57,24 +57,36 @@ public class StringResponse {
 
         if( httpResponse != null && httpResponse.getStatusLine() != null ){
             instance = new StringResponse();
-            instance.statusCode = httpResponse.getStatusLine().getStatusCode();
-            instance.statusMessage = httpResponse.getStatusLine().getReasonPhrase();
+            instance.setStatusAndHeaders( httpResponse );
 
             try {
                 instance.content = EntityUtils.toString(httpResponse.getEntity());
             } catch (IOException e) {
                 instance.content = null;
             }
-
-            Header[] rawHeaders = httpResponse.getAllHeaders();
-            for( int i=0; i<rawHeaders.length; i++ ){
-                instance.headers.put( rawHeaders[i].getName().toLowerCase(), rawHeaders[i].getValue() );
-            }
         }
 
         return instance;
     }
 
+    /**
+     * Copy the status line and the headers of the given {@link HttpResponse}.
+     * @param httpResponse the HTTP response, with a status line
+     */
+    void setStatusAndHeaders(HttpResponse httpResponse) {
+        this.statusCode = httpResponse.getStatusLine().getStatusCode();
+        this.statusMessage = httpResponse.getStatusLine().getReasonPhrase();
+
+        Header[] rawHeaders = httpResponse.getAllHeaders();
+        for( int i=0; i<rawHeaders.length; i++ ){
+            this.headers.put( rawHeaders[i].getName().toLowerCase(), rawHeaders[i].getValue() );
+        }
+    }
+
+    void setContent(String content) {
+        this.content = content;
+    }
+
     @Override
     public String toString() {
         String ln = System.lineSeparator();
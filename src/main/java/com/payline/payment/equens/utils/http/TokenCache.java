@@ -0,0 +1,288 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.pmapi.bean.common.FailureCause;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe storage of the access tokens delivered by an OAuth token endpoint, one per set of client credentials.
+ *
+ * When a token is missing or expired, only one request is sent to the token endpoint:
+ * the other threads needing the same token wait for the result of this request instead of sending their own.
+ *
+ * A token is considered expired a configurable margin (the expiry skew) before its actual expiration date, so it
+ * cannot expire while a request using it is in flight. Tokens which are still in use are also renewed in background
+ * some time (the refresh-ahead margin) before they expire, so the callers do not have to wait for a new token.
+ * The stored tokens do not keep the means to request them: the renewal request is resolved again from the token key
+ * when it is due, so it always uses the current credentials.
+ */
+class TokenCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(TokenCache.class);
+
+    /**
+     * Stored authorizations, by token key.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Token requests currently in progress, by token key.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Authorization>> pendingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Margin before the expiration date after which a token is not used anymore (milliseconds).
+     */
+    private final long expirySkew;
+
+    /**
+     * Margin before the expiration date at which a token is renewed in background (milliseconds).
+     * No renewal is done in background if this value is not positive.
+     */
+    private final long refreshAhead;
+
+    /**
+     * Resolves the request renewing the token of a key, at the time of the renewal.
+     * Returns null if the token cannot be renewed anymore (it is then left to expire).
+     */
+    private final Function<String, Supplier<Authorization>> tokenRenewal;
+
+    /**
+     * Executor running the background renewals, created on first use.
+     */
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Build a cache without expiry skew nor background renewal.
+     */
+    TokenCache(){
+        this( 0, 0, key -> null );
+    }
+
+    /**
+     * @param expirySkew margin before the expiration date after which a token is not used anymore (milliseconds)
+     * @param refreshAhead margin before the expiration date at which a token is renewed in background (milliseconds)
+     * @param tokenRenewal resolves the request renewing the token of a key, or null if it cannot be renewed anymore
+     */
+    TokenCache( long expirySkew, long refreshAhead, Function<String, Supplier<Authorization>> tokenRenewal ){
+        this.expirySkew = expirySkew;
+        this.refreshAhead = refreshAhead;
+        this.tokenRenewal = tokenRenewal;
+    }
+
+    /**
+     * Get the valid authorization stored for the given key.
+     *
+     * @param key the token key
+     * @return the authorization, or null if there is none or if it has expired
+     */
+    Authorization get( String key ){
+        Entry entry = this.entries.get( key );
+        if( entry == null || !this.isValid( entry.authorization ) ){
+            return null;
+        }
+        entry.used = true;
+        return entry.authorization;
+    }
+
+    /**
+     * Get the valid authorization stored for the given key or, if there is none, obtain a new one using the given
+     * supplier. If another thread is already obtaining a token for the same key, wait for its result.
+     *
+     * @param key the token key
+     * @param tokenRequest the supplier which requests a new token to the token endpoint
+     * @return a valid authorization
+     */
+    Authorization getOrRequest( String key, Supplier<Authorization> tokenRequest ){
+        Authorization authorization = this.get( key );
+        if( authorization != null ){
+            return authorization;
+        }
+        return this.request( key, tokenRequest, false );
+    }
+
+    /**
+     * Remove the authorization stored for the given key, if any.
+     *
+     * @param key the token key
+     */
+    void invalidate( String key ){
+        this.entries.remove( key );
+    }
+
+    /**
+     * Check if the given authorization can still be used, taking the expiry skew into account.
+     *
+     * @param authorization the authorization to check
+     * @return `true` if the authorization is not null and not about to expire, `false` otherwise.
+     */
+    boolean isValid( Authorization authorization ){
+        return authorization != null
+                && authorization.getExpiresAt().getTime() - this.expirySkew > System.currentTimeMillis();
+    }
+
+    /**
+     * Stop the background renewals.
+     */
+    synchronized void close(){
+        if( this.refresher != null ){
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
+    }
+
+    /**
+     * Obtain a new token, unless another thread is already doing it for the same key.
+     *
+     * @param key the token key
+     * @param tokenRequest the supplier which requests a new token to the token endpoint
+     * @param renew `true` to request a new token even if the stored one is still valid
+     * @return a valid authorization
+     */
+    private Authorization request( String key, Supplier<Authorization> tokenRequest, boolean renew ){
+        CompletableFuture<Authorization> request = new CompletableFuture<>();
+        CompletableFuture<Authorization> pendingRequest = this.pendingRequests.putIfAbsent( key, request );
+        if( pendingRequest != null ){
+            return this.await( pendingRequest );
+        }
+
+        try {
+            // a token may have been stored between the first lookup and the registration of this request
+            Authorization authorization = renew ? null : this.get( key );
+            if( authorization == null ){
+                authorization = tokenRequest.get();
+                this.checkLifetime( authorization );
+                Entry entry = new Entry( authorization );
+                this.entries.put( key, entry );
+                this.scheduleRenewal( key, entry );
+            }
+            request.complete( authorization );
+            return authorization;
+        }
+        catch( RuntimeException e ){
+            request.completeExceptionally( e );
+            throw e;
+        }
+        finally {
+            this.pendingRequests.remove( key, request );
+        }
+    }
+
+    /**
+     * Warn if the given authorization, just received, expires before the expiry skew: it is considered expired
+     * as soon as it is stored, so every call requests a new token.
+     *
+     * @param authorization the authorization received
+     */
+    private void checkLifetime( Authorization authorization ){
+        long lifetime = authorization.getExpiresAt().getTime() - System.currentTimeMillis();
+        if( lifetime <= this.expirySkew ){
+            LOGGER.warn("Access token received with a lifetime ({} ms) shorter than the expiry skew ({} ms): it cannot be reused",
+                    lifetime, this.expirySkew);
+        }
+    }
+
+    /**
+     * Schedule the background renewal of the given entry, a little before its expiration.
+     *
+     * @param key the token key
+     * @param entry the entry just stored
+     */
+    private void scheduleRenewal( String key, Entry entry ){
+        if( this.refreshAhead <= 0 ){
+            return;
+        }
+        // Renew refreshAhead before the expiration, but never before half the token lifetime to avoid renewing
+        // short-lived tokens in a loop
+        long lifetime = entry.authorization.getExpiresAt().getTime() - System.currentTimeMillis();
+        long delay = Math.max( lifetime - this.refreshAhead, lifetime / 2 );
+        if( delay <= 0 ){
+            return;
+        }
+        try {
+            this.getRefresher().schedule( () -> this.renew( key, entry ), delay, TimeUnit.MILLISECONDS );
+        }
+        catch( RejectedExecutionException e ){
+            LOGGER.warn("Unable to schedule the renewal of an access token", e);
+        }
+    }
+
+    /**
+     * Renew the given entry if it is still the current one and if it has been used since it was stored.
+     * Tokens which are not used anymore, or whose renewal request cannot be resolved anymore, are left to expire.
+     *
+     * @param key the token key
+     * @param entry the entry to renew
+     */
+    private void renew( String key, Entry entry ){
+        if( this.entries.get( key ) != entry || !entry.used ){
+            return;
+        }
+        try {
+            Supplier<Authorization> tokenRequest = this.tokenRenewal.apply( key );
+            if( tokenRequest == null ){
+                LOGGER.info("Access token not renewed: its credentials are not available anymore");
+                return;
+            }
+            this.request( key, tokenRequest, true );
+        }
+        catch( RuntimeException e ){
+            // the current token remains usable until it expires: the next caller will request a new one if necessary
+            LOGGER.warn("Background renewal of an access token failed", e);
+        }
+    }
+
+    /**
+     * Wait for the result of a token request sent by another thread.
+     *
+     * @param pendingRequest the token request in progress
+     * @return the authorization obtained
+     */
+    private Authorization await( CompletableFuture<Authorization> pendingRequest ){
+        try {
+            return pendingRequest.get();
+        }
+        catch( ExecutionException e ){
+            if( e.getCause() instanceof RuntimeException ){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PluginException("Failed to obtain an access token", FailureCause.COMMUNICATION_ERROR, e);
+        }
+        catch( InterruptedException e ){
+            Thread.currentThread().interrupt();
+            throw new PluginException("Interrupted while waiting for an access token", FailureCause.COMMUNICATION_ERROR, e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getRefresher(){
+        if( this.refresher == null ){
+            this.refresher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                Thread thread = new Thread( runnable, "equens-token-refresher" );
+                thread.setDaemon( true );
+                return thread;
+            });
+        }
+        return this.refresher;
+    }
+
+    /**
+     * A stored authorization.
+     */
+    private static class Entry {
+        private final Authorization authorization;
+        /**
+         * Has the authorization been used since it was stored ?
+         */
+        private volatile boolean used;
+
+        Entry( Authorization authorization ){
+            this.authorization = authorization;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.payline.payment.equens.utils.metrics;
+
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the plugin internal events (retries, cache hits, etc.), by name.
+ * The counters are created on first use and can be incremented concurrently without contention.
+ *
+ * The plugin has no other way to expose them: their values are logged periodically (see the property
+ * "metrics.logInterval"), when they changed since the last report.
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = LogManager.getLogger(Metrics.class);
+
+    static final String LOG_INTERVAL_PROPERTY = "metrics.logInterval";
+
+    private ConfigProperties config = ConfigProperties.getInstance();
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Values of the counters at the last report.
+     */
+    private Map<String, Long> lastReport = Collections.emptyMap();
+
+    /**
+     * Executor logging the counters periodically, started when the first counter is created.
+     */
+    private ScheduledExecutorService reporter;
+
+    private boolean reporterStarted;
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    Metrics() {
+    }
+
+    private static class Holder {
+        private static final Metrics instance = new Metrics();
+    }
+
+    public static Metrics getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Increment the given counter by one.
+     *
+     * @param name the counter name
+     */
+    public void increment( String name ){
+        this.add( name, 1 );
+    }
+
+    /**
+     * Add the given value to the given counter.
+     *
+     * @param name the counter name
+     * @param value the value to add
+     */
+    public void add( String name, long value ){
+        LongAdder counter = this.counters.get( name );
+        if( counter == null ){
+            counter = this.counters.computeIfAbsent( name, k -> new LongAdder() );
+            this.startReporter();
+        }
+        counter.add( value );
+    }
+
+    /**
+     * Get the current value of the given counter.
+     *
+     * @param name the counter name
+     * @return the counter value, or 0 if it has never been incremented
+     */
+    public long get( String name ){
+        LongAdder counter = this.counters.get( name );
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return the current values of all the counters, sorted by name
+     */
+    public Map<String, Long> snapshot(){
+        Map<String, Long> snapshot = new TreeMap<>();
+        this.counters.forEach( (name, counter) -> snapshot.put( name, counter.sum() ) );
+        return snapshot;
+    }
+
+    /**
+     * Log the current values of all the counters, if they changed since the last report.
+     *
+     * @return true if they have been logged
+     */
+    synchronized boolean report(){
+        Map<String, Long> snapshot = this.snapshot();
+        if( snapshot.equals( this.lastReport ) ){
+            return false;
+        }
+        this.lastReport = snapshot;
+        LOGGER.info( "Plugin metrics: {}", snapshot );
+        return true;
+    }
+
+    /**
+     * Schedule the periodic report of the counters, unless it's already done or disabled.
+     */
+    private synchronized void startReporter(){
+        if( this.reporterStarted ){
+            return;
+        }
+        this.reporterStarted = true;
+        long interval;
+        try {
+            interval = Long.parseLong( this.config.get( LOG_INTERVAL_PROPERTY ) );
+        }
+        catch( NumberFormatException e ){
+            LOGGER.warn( "Invalid property {}: the metrics are not logged", LOG_INTERVAL_PROPERTY );
+            return;
+        }
+        if( interval <= 0 ){
+            return;
+        }
+        this.reporter = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "equens-metrics-reporter" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        this.reporter.scheduleWithFixedDelay( this::report, interval, interval, TimeUnit.SECONDS );
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.payline.payment.equens.utils.security;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the {@link RSAHolder} instances built from PEM strings.
+ * Parsing the PEM strings and building the keystore is costly, so it's done only once for each distinct pair
+ * (certificate chain, private key). The holders are stored by a SHA-256 digest of the PEM strings: the PEM strings
+ * themselves are not kept, and a new holder is built as soon as one of them changes (certificate rotation).
+ */
+public class RSAHolderCache {
+
+    /**
+     * Maximum number of holders kept in cache. There is one per partner configuration,
+     * so this number only needs to cover a few environments and some certificate rotations.
+     */
+    static final int MAX_ENTRIES = 16;
+
+    private final Map<String, RSAHolder> holders = new LinkedHashMap<String, RSAHolder>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RSAHolder> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // --- Singleton Holder pattern + initialization BEGIN
+    RSAHolderCache() {
+    }
+
+    private static class Holder {
+        private static final RSAHolderCache instance = new RSAHolderCache();
+    }
+
+    public static RSAHolderCache getInstance() {
+        return Holder.instance;
+    }
+    // --- Singleton Holder pattern + initialization END
+
+    /**
+     * Get the holder corresponding to the given PEM strings, building it if it's not in cache yet.
+     *
+     * @param pemChain The PEM string containing the certificate chain
+     * @param pemPrivateKey The PEM string containing the private key
+     * @return the corresponding holder
+     * @throws IOException if the holder cannot be built
+     * @throws GeneralSecurityException if the PEM strings are invalid
+     */
+    public RSAHolder get( String pemChain, String pemPrivateKey ) throws IOException, GeneralSecurityException {
+        String fingerprint = fingerprint( pemChain, pemPrivateKey );
+
+        RSAHolder rsaHolder;
+        synchronized( this.holders ){
+            rsaHolder = this.holders.get( fingerprint );
+        }
+        if( rsaHolder == null ){
+            // In case of concurrent calls, the holder may be built twice: both instances are equivalent.
+            rsaHolder = new RSAHolder.RSAHolderBuilder()
+                    .parseChain( pemChain )
+                    .parsePrivateKey( pemPrivateKey )
+                    .build();
+            synchronized( this.holders ){
+                this.holders.put( fingerprint, rsaHolder );
+            }
+        }
+        return rsaHolder;
+    }
+
+    /**
+     * @return the number of holders in cache
+     */
+    int size(){
+        synchronized( this.holders ){
+            return this.holders.size();
+        }
+    }
+
+    /**
+     * Compute the SHA-256 digest of the given PEM strings.
+     *
+     * @param pemChain The PEM string containing the certificate chain
+     * @param pemPrivateKey The PEM string containing the private key
+     * @return the digest, as a Base64 string
+     * @throws NoSuchAlgorithmException should not happen as "SHA-256" is a verified valid algorithm
+     */
+    static String fingerprint( String pemChain, String pemPrivateKey ) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update( pemChain.getBytes( StandardCharsets.UTF_8 ) );
+        // separator, so that moving characters from one string to the other changes the digest
+        digest.update( (byte) 0 );
+        digest.update( pemPrivateKey.getBytes( StandardCharsets.UTF_8 ) );
+        return Base64.getEncoder().encodeToString( digest.digest() );
+    }
+
+}
@@ -1,51 +1,73 @@
 const $ = Payline.jQuery;
-const aspspsList = [$BANKS_TO_REPLACE$];
+// Données des banques : libellés distincts des filiales (l) et banques par nom (b), avec l'IBAN obligatoire (i)
+// et leurs filiales (s), identifiées par leur AspspId (a) et l'index de leur libellé (n).
+const aspspsData = $BANKS_TO_REPLACE$;
+
+// Filiales des banques déjà sélectionnées, par nom de banque : options de la liste et filiales par libellé.
+const subAspspsByBank = {};
+
+function hasKey(object, key) {
+    return Object.prototype.hasOwnProperty.call(object, key);
+}
 
 // Selection d'un ASPSP par rapport à son identifiant.
 function getAspspById(aspspId) {
-    let aspsp =  aspspsList.filter(function (elem) {
-        return (elem.id === aspspId);
-    });
-    if (aspsp.length > 0 ) {
-        return aspsp[0];
+    if (hasKey(aspspsData.b, aspspId)) {
+        return aspspsData.b[aspspId];
     }
 }
 
+// Filiales d'une banque, construites une seule fois : un fragment avec toutes les options, et les filiales par libellé.
+function getSubAspsps(aspspId, aspsp) {
+    let subAspsps = subAspspsByBank[aspspId];
+    if (Payline.u.isUndefined(subAspsps)) {
+        subAspsps = {options: document.createDocumentFragment(), byLabel: {}};
+        (aspsp.s || []).forEach(function (sub) {
+            let label = aspspsData.l[sub.n];
+            let option = document.createElement('option');
+            option.value = label;
+            subAspsps.options.appendChild(option);
+            if (!hasKey(subAspsps.byLabel, label)) {
+                subAspsps.byLabel[label] = sub;
+            }
+        });
+        subAspspsByBank[aspspId] = subAspsps;
+    }
+    return subAspsps;
+}
+
 //Selection de la valeur actuelle d'un SubAspsp
 function getSubAspsp() {
     let aspspValue = $("[id$='aspspId']").val();
     let subAspspValue = $("[id$='subAspspId']").val();
-    let result;
-    let aspsp = getAspspById(aspspValue)
-    if (!Payline.u.isUndefined(aspsp) && !Payline.u.isUndefined(aspsp.subList)&& aspsp.subList.length > 0) {
-        result = aspsp.subList.filter(function (elem) {
-            return (elem.label === subAspspValue);
-        });
-    }
-    if (result.length > 0 ) {
-        return result[0];
+    let aspsp = getAspspById(aspspValue);
+    if (!Payline.u.isUndefined(aspsp)) {
+        let byLabel = getSubAspsps(aspspValue, aspsp).byLabel;
+        if (hasKey(byLabel, subAspspValue)) {
+            return byLabel[subAspspValue];
+        }
     }
 }
 
 //Mettre à jour la liste des aspspOption.
 function updateAspspOption(bank) {
-   let $subAspspContainer = $("[id$='subAspspId-container']");
+    let $subAspspContainer = $("[id$='subAspspId-container']");
+    let $subAspspOptions = $("[id$='subAspspId-options']");
     let aspsp = getAspspById(bank);
-    $("[id$='subAspspId-options']").empty();
+    $subAspspOptions.empty();
     $subAspspContainer.hide();
 
-    if (!Payline.u.isUndefined(aspsp) && !Payline.u.isUndefined(aspsp.subList) && aspsp.subList.length > 0) {
+    if (!Payline.u.isUndefined(aspsp) && !Payline.u.isUndefined(aspsp.s) && aspsp.s.length > 0) {
         $subAspspContainer.show();
-        aspsp.subList.forEach(function (item) {
-            $("[id$='subAspspId-options']").append($('<option>').val(item.label));
-        });
+        // le fragment est copié, pour être réutilisé à la prochaine sélection de la banque
+        $subAspspOptions.append(getSubAspsps(bank, aspsp).options.cloneNode(true));
     }
     displayIbanContainer(aspsp);
 }
 
 //Affichage ou non du container Iban selon la banque passé en paramètre
 function displayIbanContainer(bank) {
-    if (!Payline.u.isUndefined(bank) && bank.iban) {
+    if (!Payline.u.isUndefined(bank) && bank.i === 1) {
         $("[id$='iban-container']").show();
     } else {
         $("[id$='iban-container']").hide();
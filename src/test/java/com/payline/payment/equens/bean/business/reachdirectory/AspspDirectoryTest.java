@@ -0,0 +1,113 @@
+package com.payline.payment.equens.bean.business.reachdirectory;
+
+import com.payline.payment.equens.service.JsonService;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AspspDirectoryTest {
+
+    private final AspspDirectory directory = new AspspDirectory(JsonService.getInstance().fromJson("{\"Application\":\"PIS\",\"ASPSP\":[" +
+            "{\"AspspId\":\"1234\",\"Name\":[\"a Bank\"],\"CountryCode\":\"FR\",\"BIC\":\"FOOBARBAZXX\"}," +
+            "{\"AspspId\":\"4321\",\"Name\":[\"another Bank\"],\"CountryCode\":\"FR\",\"BIC\":\"FOOBARBAZZZ\"}," +
+            "{\"AspspId\":\"1601\",\"Name\":[\"BBVA\"],\"CountryCode\":\"ES\",\"BIC\":\"BBVAESMM\"}," +
+            "{\"AspspId\":\"1409\",\"Name\":[\"La Banque Postale\"],\"CountryCode\":\"FR\",\"BIC\":\"PSSTFRPP\"}," +
+            "{\"AspspId\":\"224\",\"Name\":[\"08/15direkt\"]}," +
+            "{\"Name\":[\"Banque Populaire\"],\"CountryCode\":\"FR\",\"BIC\":\"CCBPFRPP\",\"subsidiariesList\":[" +
+            "{\"AspspId\":\"1406\",\"Name\":[\"Banque Populaire Grand Ouest\"],\"CountryCode\":\"FR\",\"BIC\":\"CCBPFRPPNAN\"}" +
+            "]}" +
+            "]}", GetAspspsResponse.class));
+
+    @Test
+    void getById() {
+        assertEquals("BBVA", directory.getById("1601").getName().get(0));
+        assertEquals("08/15direkt", directory.getById("224").getName().get(0));
+        // subsidiaries are indexed too
+        assertEquals("Banque Populaire Grand Ouest", directory.getById("1406").getName().get(0));
+        assertNull(directory.getById("0000"));
+        assertNull(directory.getById(null));
+    }
+
+    @Test
+    void getByBic() {
+        assertEquals("1234", directory.getByBic("FOOBARBAZXX").getAspspId());
+        assertEquals("1409", directory.getByBic("psstfrpp").getAspspId());
+        assertNull(directory.getByBic("PSSTFRPPXXX"));
+        assertNull(directory.getByBic(null));
+    }
+
+    @Test
+    void getByBic8() {
+        // the first ASPSP of the directory wins
+        assertEquals("1234", directory.getByBic8("FOOBARBAQQQ").getAspspId());
+        assertEquals("1409", directory.getByBic8("PSSTFRPPXXX").getAspspId());
+        assertNull(directory.getByBic8("MOOBARBAZXX"));
+        assertNull(directory.getByBic8("SHORT"));
+    }
+
+    @Test
+    void getByCountries() {
+        assertEquals(Arrays.asList("1601"), ids(directory.getByCountries(Collections.singletonList("ES"))));
+        assertEquals(Arrays.asList("1234", "4321", "1409", null), ids(directory.getByCountries(Collections.singletonList("FR"))));
+        // several countries: the directory order is kept
+        assertEquals(Arrays.asList("1234", "4321", "1601", "1409", null), ids(directory.getByCountries(Arrays.asList("FR", "ES"))));
+        // no country: all the ASPSPs with a country code
+        assertEquals(5, directory.getByCountries(Collections.emptyList()).size());
+        assertTrue(directory.getByCountries(Collections.singletonList("IT")).isEmpty());
+    }
+
+    @Test
+    void getView() {
+        // given: a filter counting its calls
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<List<Aspsp>> filter = () -> {
+            calls.incrementAndGet();
+            return directory.getByCountries(Arrays.asList("FR", "ES"));
+        };
+
+        // when: getting the same view several times, with the countries in another order
+        final List<Aspsp> first = directory.getView(Arrays.asList("FR", "ES"), "Normal", filter);
+        final List<Aspsp> second = directory.getView(Arrays.asList("ES", "FR"), "Normal", filter);
+
+        // then: it's computed only once
+        assertSame(first, second);
+        assertEquals(1, calls.get());
+        assertEquals(5, first.size());
+        assertThrows(UnsupportedOperationException.class, first::clear);
+
+        // when: getting the view of another payment product, then: it's computed
+        directory.getView(Arrays.asList("FR", "ES"), "Instant", filter);
+        assertEquals(2, calls.get());
+        assertEquals(2, directory.viewCount());
+    }
+
+    @Test
+    void getView_bounded() {
+        // when: getting more distinct views than a directory can keep
+        for (int i = 0; i < AspspDirectory.MAX_VIEWS + 2; i++) {
+            directory.getView(Collections.singletonList("FR"), "Product" + i, Collections::emptyList);
+        }
+
+        // then: the extra views are not kept
+        assertEquals(AspspDirectory.MAX_VIEWS, directory.viewCount());
+    }
+
+    @Test
+    void empty() {
+        assertTrue(AspspDirectory.EMPTY.getAspsps().isEmpty());
+        assertTrue(new AspspDirectory((GetAspspsResponse) null).getAspsps().isEmpty());
+        assertNull(AspspDirectory.EMPTY.getById("1234"));
+    }
+
+    private static List<String> ids(List<Aspsp> aspsps) {
+        return aspsps.stream().map(Aspsp::getAspspId).collect(Collectors.toList());
+    }
+
+}
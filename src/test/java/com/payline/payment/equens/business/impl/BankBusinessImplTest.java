@@ -1,6 +1,7 @@
 package com.payline.payment.equens.business.impl;
 
 import com.google.gson.Gson;
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
 import com.payline.payment.equens.bean.business.reachdirectory.Detail;
 import com.payline.payment.equens.business.BankBusiness;
 import com.payline.payment.equens.service.impl.ConfigurationServiceImpl;
@@ -8,6 +9,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -83,6 +86,67 @@ class BankBusinessImplTest {
                 ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode()));
     }
 
+    @Test
+    void shouldNotBeCompatibleWithUnknownPaymentMode() {
+        Assertions.assertFalse(underTest.isCompatibleBank(null, "Unknown"));
+    }
+
+    @Test
+    void isCompatibleAspsp() {
+        // given: a bank supporting instant payments only
+        final Aspsp aspsp = new Aspsp();
+        aspsp.setDetails(Collections.singletonList(detailWithPostPaymentInstant()));
+
+        // when: checking the compatibility, then: the result is the same as with the details
+        Assertions.assertTrue(underTest.isCompatibleAspsp(aspsp,
+                ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode()));
+        Assertions.assertFalse(underTest.isCompatibleAspsp(aspsp,
+                ConfigurationServiceImpl.PaymentProduct.NORMAL.getPaymentProductCode()));
+    }
+
+    @Test
+    void isIbanRequired() {
+        // given: a bank whose debtor account is mandatory, and another whose details are not about payments
+        final Aspsp required = new Aspsp();
+        required.setDetails(Arrays.asList(detailWithPostPaymentNormal(), detailWithMandatoryDebtorAccount()));
+        final Aspsp notRequired = new Aspsp();
+        notRequired.setDetails(Collections.singletonList(detailWithNoPostPayment()));
+
+        // when: checking whether the IBAN is required, then: it depends on the details
+        Assertions.assertTrue(underTest.isIbanRequired(required));
+        Assertions.assertFalse(underTest.isIbanRequired(notRequired));
+        Assertions.assertFalse(underTest.isIbanRequired(new Aspsp()));
+    }
+
+    @Test
+    void getCapabilities_decodedOnce() {
+        // given: a bank whose capabilities have been decoded
+        final Aspsp aspsp = new Aspsp();
+        aspsp.setDetails(new ArrayList<>(Collections.singletonList(detailWithMandatoryDebtorAccount())));
+        final int capabilities = underTest.getCapabilities(aspsp);
+
+        // when: the details list changes without being set again
+        aspsp.getDetails().clear();
+
+        // then: the decoded capabilities are kept
+        assertEquals(capabilities, underTest.getCapabilities(aspsp));
+        assertNotEquals(0, capabilities & BankBusinessImpl.IBAN_REQUIRED);
+
+        // when: other details are set, then: they are decoded again
+        aspsp.setDetails(Collections.singletonList(detailWithPostPaymentInstant()));
+        assertEquals(BankBusinessImpl.paymentProduct(ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode()),
+                underTest.getCapabilities(aspsp));
+    }
+
+    private Detail detailWithMandatoryDebtorAccount() {
+        return detailFromJSON("{\n" +
+                "          \"Api\": \"POST /payments\",\n" +
+                "          \"Fieldname\" : \"DebtorAccount\",\n" +
+                "          \"Type\": \"MANDATORY\",\n" +
+                "          \"ProtocolVersion\": \"STET_V_1_4_0_47\"\n" +
+                "        }");
+    }
+
     private Detail detailWithNoPostPayment() {
         return detailFromJSON("{\n" +
                 "          \"Api\": \"POST autreapi\",\n" +
@@ -0,0 +1,124 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.business.impl.BankBusinessImpl;
+import com.payline.payment.equens.utils.metrics.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AspspDirectoryCacheTest {
+
+    private static final String PLUGIN_CONFIGURATION = "{\"Application\":\"PIS\",\"ASPSP\":[" +
+            "{\"AspspId\":\"1234\",\"Name\":[\"a Bank\"],\"CountryCode\":\"FR\",\"BIC\":\"MOOBARBAZXX\"}," +
+            "{\"AspspId\":\"4321\",\"Name\":[\"another Bank\"],\"CountryCode\":\"FR\",\"BIC\":\"FOOBARBA\"," +
+            "\"Details\":[{\"Api\":\"POST /payments\",\"Fieldname\":\"DebtorAccount\",\"Type\":\"MANDATORY\"}]}" +
+            "]}";
+
+    private Metrics metrics = Metrics.getInstance();
+
+    private AspspDirectoryCache directoryCache;
+
+    @BeforeEach
+    void setup() {
+        directoryCache = new AspspDirectoryCache();
+    }
+
+    @Test
+    void get_sameConfiguration() {
+        // given: the metrics before the calls
+        long hits = metrics.get(AspspDirectoryCache.METRIC_HIT);
+        long misses = metrics.get(AspspDirectoryCache.METRIC_MISS);
+
+        // when: getting the directory of the same plugin configuration three times (twice with the same instance)
+        AspspDirectory first = directoryCache.get(PLUGIN_CONFIGURATION);
+        AspspDirectory second = directoryCache.get(PLUGIN_CONFIGURATION);
+        AspspDirectory third = directoryCache.get(new String(PLUGIN_CONFIGURATION));
+
+        // then: the directory is parsed only once
+        assertEquals(2, first.getAspsps().size());
+        assertSame(first, second);
+        assertSame(first, third);
+        assertEquals(1, directoryCache.size());
+        assertEquals(hits + 2, metrics.get(AspspDirectoryCache.METRIC_HIT));
+        assertEquals(misses + 1, metrics.get(AspspDirectoryCache.METRIC_MISS));
+    }
+
+    @Test
+    void get_listener() {
+        // given: a listener of the parsed directories
+        List<AspspDirectory> parsed = new ArrayList<>();
+        directoryCache.addListener((pluginConfiguration, directory) -> parsed.add(directory));
+
+        // when: getting the directory of the same plugin configuration twice
+        AspspDirectory directory = directoryCache.get(PLUGIN_CONFIGURATION);
+        directoryCache.get(new String(PLUGIN_CONFIGURATION));
+
+        // then: the listener is called once, with the parsed directory
+        assertEquals(1, parsed.size());
+        assertSame(directory, parsed.get(0));
+    }
+
+    @Test
+    void get_refreshedConfiguration() {
+        // given: a directory in cache
+        AspspDirectory first = directoryCache.get(PLUGIN_CONFIGURATION);
+
+        // when: the plugin configuration changes
+        AspspDirectory second = directoryCache.get(PLUGIN_CONFIGURATION.replace("a Bank", "a renamed Bank"));
+
+        // then: a new directory is parsed
+        assertNotSame(first, second);
+        assertEquals("a renamed Bank", second.getAspsps().get(0).getName().get(0));
+        assertEquals(2, directoryCache.size());
+    }
+
+    @Test
+    void get_bounded() {
+        // given: the metrics before the calls
+        long evictions = metrics.get(AspspDirectoryCache.METRIC_EVICTION);
+
+        // when: getting the directories of more distinct configurations than the cache can hold
+        for (int i = 0; i < AspspDirectoryCache.MAX_ENTRIES + 2; i++) {
+            directoryCache.get(PLUGIN_CONFIGURATION.replace("PIS", "PIS" + i));
+        }
+
+        // then: the oldest directories are evicted
+        assertEquals(AspspDirectoryCache.MAX_ENTRIES, directoryCache.size());
+        assertEquals(evictions + 2, metrics.get(AspspDirectoryCache.METRIC_EVICTION));
+    }
+
+    @Test
+    void get_null() {
+        // when: getting the directory of a null plugin configuration, then: the directory is empty
+        AspspDirectory directory = directoryCache.get(null);
+        assertTrue(directory.getAspsps().isEmpty());
+        assertEquals(0, directoryCache.size());
+    }
+
+    @Test
+    void get_capabilitiesDecoded() {
+        // when: getting a directory
+        AspspDirectory directory = directoryCache.get(PLUGIN_CONFIGURATION);
+
+        // then: the capabilities of its banks are already decoded
+        for (Aspsp aspsp : directory.getAspsps()) {
+            assertNotEquals(Aspsp.UNKNOWN_CAPABILITIES, aspsp.getCapabilities());
+        }
+        assertTrue(new BankBusinessImpl().isIbanRequired(directory.getById("4321")));
+        assertFalse(new BankBusinessImpl().isIbanRequired(directory.getById("1234")));
+    }
+
+    @Test
+    void get_unmodifiable() {
+        // when: trying to modify a directory, then: an exception is thrown
+        AspspDirectory directory = directoryCache.get(PLUGIN_CONFIGURATION);
+        assertThrows(UnsupportedOperationException.class, () -> directory.getAspsps().clear());
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.utils.metrics.Metrics;
+import com.payline.pmapi.bean.paymentform.bean.field.SelectOption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class BankFormServiceTest {
+
+    @Mock
+    private BankService bankService;
+
+    @InjectMocks
+    private BankFormService underTest;
+
+    @BeforeEach
+    void setup() {
+        underTest = new BankFormService();
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    void getBankScript_byDirectoryAndContract() {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(any(), any(), any());
+        final AspspDirectory directory = new AspspDirectory(Collections.<Aspsp>emptyList());
+        doReturn(directory).when(bankService).getDirectory("v1");
+        doReturn(new AspspDirectory(Collections.<Aspsp>emptyList())).when(bankService).getDirectory("v2");
+
+        // when: getting the script for the same countries in another order, then: it's the same script
+        final BankFormService.BankScript script = underTest.getBankScript("v1", Arrays.asList("FR", "ES"), "Instant");
+        assertSame(script, underTest.getBankScript("v1", Arrays.asList("ES", "FR"), "Instant"));
+
+        // when: the payment product or the directory changes, then: the script is rendered again
+        assertNotSame(script, underTest.getBankScript("v1", Arrays.asList("FR", "ES"), "Normal"));
+        assertNotSame(script, underTest.getBankScript("v2", Arrays.asList("FR", "ES"), "Instant"));
+        verify(bankService, times(3)).fetchBanks(any(), any(), any());
+    }
+
+    @Test
+    void getBankScript_keptWithDirectory() {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(any(), any(), any());
+        final AspspDirectory directory = new AspspDirectory(Collections.<Aspsp>emptyList());
+        doReturn(directory).when(bankService).getDirectory("v1");
+        final long hits = Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_HIT);
+        final long misses = Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_MISS);
+
+        // given: the script of a directory
+        final BankFormService.BankScript script = underTest.getBankScript("v1", Collections.singletonList("FR"), "Instant");
+
+        // when: getting it again, then: it's the view kept by the directory
+        assertSame(script, underTest.getBankScript("v1", Collections.singletonList("FR"), "Instant"));
+        assertSame(script, directory.getView(Collections.singletonList("FR"), "Instant", () -> null));
+        assertEquals(misses + 1, Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_MISS));
+        assertEquals(hits + 1, Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_HIT));
+    }
+
+    @Test
+    void precompute() throws Exception {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(any(), any(), any());
+        doReturn(new AspspDirectory(Collections.<Aspsp>emptyList())).when(bankService).getDirectory("v1");
+        final AspspDirectory newDirectory = new AspspDirectory(Collections.<Aspsp>emptyList());
+        doReturn(newDirectory).when(bankService).getDirectory("v2");
+
+        // given: a script displayed with a directory
+        underTest.getBankScript("v1", Arrays.asList("FR", "ES"), "Instant");
+
+        // when: a new directory is parsed
+        underTest.precompute("v2", newDirectory).get(5, TimeUnit.SECONDS);
+
+        // then: its script is rendered in background, before the first payment form
+        verify(bankService, times(1)).fetchBanks(eq("v2"), any(), eq("Instant"));
+        final long hits = Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_HIT);
+        underTest.getBankScript("v2", Arrays.asList("ES", "FR"), "Instant");
+        assertEquals(hits + 1, Metrics.getInstance().get(BankFormService.METRIC_SCRIPT_HIT));
+        verify(bankService, times(2)).fetchBanks(any(), any(), any());
+    }
+
+    @Test
+    void precompute_nothingDisplayed() {
+        // when: a directory is parsed before any script is displayed, then: there is nothing to render
+        assertNull(underTest.precompute("v1", new AspspDirectory(Collections.<Aspsp>emptyList())));
+    }
+
+    @Nested
+    class bankScript {
+
+        @Test
+        void withEmptyBankList() {
+            String result = underTest.buildBankScript(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+            assertEquals("{\"l\":[],\"b\":{}}", result);
+        }
+
+        @Test
+        void buildBankWithoutSubsidiary() {
+            final String expectedResult = "{\"l\":[],\"b\":{\"Axa Banque\":{},\"La Banque Postale\":{}}}";
+            final Aspsp bank1 = new Aspsp();
+            bank1.setCountryCode("FR");
+            bank1.setName(Collections.singletonList("Axa Banque"));
+            bank1.setAspspId("1");
+
+            final Aspsp bank2 = new Aspsp();
+            bank2.setCountryCode("FR");
+            bank2.setName(Collections.singletonList("La Banque Postale"));
+            bank2.setAspspId("2");
+
+            final List<Aspsp> aspspList = Arrays.asList(bank1, bank2);
+            final List<SelectOption> primaryList = new ArrayList<>();
+            final List<SelectOption> subsidiaryList = new ArrayList<>();
+            final String result = underTest.buildBankScript(aspspList, primaryList, subsidiaryList);
+            assertTrue(subsidiaryList.isEmpty());
+            assertEquals(expectedResult, result);
+
+            final SelectOption bank1Option = primaryList.get(0);
+            final SelectOption bank2Option = primaryList.get(1);
+
+            assertEquals("Axa Banque", bank1Option.getValue());
+            assertEquals("La Banque Postale", bank2Option.getValue());
+            assertEquals("1", bank1Option.getKey());
+            assertEquals("2", bank2Option.getKey());
+        }
+
+        @Test
+        void buildBankWithSubsidiary() {
+            final String expectedResult = "{\"l\":[\"Crédit Agricole PACA\",\"Crédit Agricole Paris\"]," +
+                    "\"b\":{\"Axa Banque\":{},\"Crédit Agricole\":{\"s\":[{\"a\":\"123\",\"n\":0},{\"a\":\"456\",\"n\":1}]}}}";
+            final Aspsp bank1 = new Aspsp();
+            bank1.setCountryCode("FR");
+            bank1.setName(Collections.singletonList("Axa Banque"));
+            bank1.setAspspId("1");
+
+            final Aspsp subAspsp = new Aspsp();
+            subAspsp.setName(Collections.singletonList("Crédit Agricole PACA"));
+            subAspsp.setAspspId("123");
+
+            final Aspsp subAspsp2 = new Aspsp();
+            subAspsp2.setName(Collections.singletonList("Crédit Agricole Paris"));
+            subAspsp2.setAspspId("456");
+
+            final Aspsp bank2 = new Aspsp();
+            bank2.setCountryCode("FR");
+            bank2.setName(Collections.singletonList("Crédit Agricole"));
+            bank2.setAspspId("");
+            bank2.setSubsidiariesList(Arrays.asList(subAspsp, subAspsp2));
+
+            final List<Aspsp> aspspList = Arrays.asList(bank1, bank2);
+            final List<SelectOption> primaryList = new ArrayList<>();
+            final List<SelectOption> subsidiaryList = new ArrayList<>();
+            final String result = underTest.buildBankScript(aspspList, primaryList, subsidiaryList);
+            assertFalse(subsidiaryList.isEmpty());
+            assertEquals(expectedResult, result);
+
+            final SelectOption bank1Option = primaryList.get(0);
+            final SelectOption bank2Option = primaryList.get(1);
+
+            assertEquals("Axa Banque", bank1Option.getValue());
+            assertEquals("Crédit Agricole", bank2Option.getValue());
+            assertEquals("1", bank1Option.getKey());
+            assertEquals("", bank2Option.getKey());
+
+            final SelectOption subsidiary1Option = subsidiaryList.get(0);
+            final SelectOption subsidiary2Option = subsidiaryList.get(1);
+
+            assertEquals("Crédit Agricole PACA", subsidiary1Option.getValue());
+            assertEquals("Crédit Agricole Paris", subsidiary2Option.getValue());
+            assertEquals("123", subsidiary1Option.getKey());
+            assertEquals("456", subsidiary2Option.getKey());
+        }
+
+        @Test
+        void buildBankWithDuplicatedNames() {
+            final String expectedResult = "{\"l\":[\"Agence Centre\"],\"b\":{" +
+                    "\"Banque Populaire\":{\"i\":1,\"s\":[{\"a\":\"123\",\"n\":0}]}," +
+                    "\"Caisse d\\u0027Epargne\":{\"s\":[{\"a\":\"456\",\"n\":0}]}}}";
+            final Aspsp subAspsp1 = new Aspsp();
+            subAspsp1.setName(Collections.singletonList("Agence Centre"));
+            subAspsp1.setAspspId("123");
+
+            final Aspsp bank1 = new Aspsp();
+            bank1.setName(Collections.singletonList("Banque Populaire"));
+            bank1.setAspspId("1");
+            bank1.setSubsidiariesList(Collections.singletonList(subAspsp1));
+            doReturn(true).when(bankService).isIbanRequired(bank1);
+
+            final Aspsp subAspsp2 = new Aspsp();
+            subAspsp2.setName(Collections.singletonList("Agence Centre"));
+            subAspsp2.setAspspId("456");
+
+            final Aspsp bank2 = new Aspsp();
+            bank2.setName(Collections.singletonList("Caisse d'Epargne"));
+            bank2.setAspspId("2");
+            bank2.setSubsidiariesList(Collections.singletonList(subAspsp2));
+
+            final Aspsp bank3 = new Aspsp();
+            bank3.setName(Collections.singletonList("Banque Populaire"));
+            bank3.setAspspId("3");
+
+            // when: two subsidiaries have the same label, and two banks the same name
+            final List<SelectOption> primaryList = new ArrayList<>();
+            final String result = underTest.buildBankScript(Arrays.asList(bank1, bank2, bank3), primaryList, new ArrayList<>());
+
+            // then: the label is written once, the first bank is kept in the data block, and all the banks are options
+            assertEquals(expectedResult, result);
+            assertEquals(3, primaryList.size());
+        }
+
+        @Test
+        void buildBankWithSpecialCharacters() {
+            final Aspsp bank = new Aspsp();
+            bank.setName(Collections.singletonList("L'Agence \\ \"Nord\"\n</script>"));
+            bank.setAspspId("1");
+
+            // when: the name contains quotes, backslashes, new lines or HTML, then: they are escaped
+            final String result = underTest.buildBankScript(Collections.singletonList(bank), new ArrayList<>(), new ArrayList<>());
+            assertEquals("{\"l\":[],\"b\":{\"L\\u0027Agence \\\\ \\\"Nord\\\"\\n\\u003c/script\\u003e\":{}}}", result);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.payline.payment.equens.MockUtils;
 import com.payline.payment.equens.bean.business.banks.BankAffiliation;
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
 import com.payline.payment.equens.bean.business.reachdirectory.Detail;
+import com.payline.payment.equens.bean.business.reachdirectory.DirectoryDiff;
+import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
 import com.payline.payment.equens.business.BankBusiness;
 import com.payline.payment.equens.exception.PluginException;
 import com.payline.payment.equens.service.impl.ConfigurationServiceImpl;
@@ -23,6 +25,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -38,6 +41,8 @@ class BankServiceTest {
 
     private BankService underTest = BankService.getInstance();
 
+    private final JsonService jsonService = JsonService.getInstance();
+
     private final String aspspsJson = "{\"Application\":\"PIS\",\"ASPSP\":[" +
             // FR - Normal|Instant
             "{\"AspspId\":\"1234\",\"Name\":[\"a Bank\"],\"CountryCode\":\"FR\",\"Details\":[{\"Api\":\"POST /payments\",\"Fieldname\":\"PaymentProduct\",\"Type\":\"SUPPORTED\",\"Value\":\"Normal|Instant\",\"ProtocolVersion\":\"STET_V_1_4_0_47\"}],\"BIC\":\"MOOBARBAZXX\"}," +
@@ -114,6 +119,37 @@ class BankServiceTest {
 
         }
 
+        @Test
+        void buildBanksWithAffiliation_accents() {
+            // given: banks whose names start with accented letters
+            final List<Aspsp> aspspList = new ArrayList<>();
+            aspspList.add(buildAspsp("ZZZZFRPPXXX", "Zebra Bank"));
+            aspspList.add(buildAspsp("EEEEFRPPXXX", "Épargne Directe"));
+            aspspList.add(buildAspsp("DDDDFRPPXXX", "Dépôts Unis"));
+            aspspList.add(buildAspsp("FFFFFRPPXXX", "Finance Nord"));
+
+            // when: building the banks list
+            final List<Aspsp> result = underTest.buildBanksWithAffiliation(aspspList);
+
+            // then: the accented letters are sorted as their base letters
+            assertEquals(Arrays.asList("Dépôts Unis", "Épargne Directe", "Finance Nord", "Zebra Bank"),
+                    result.stream().map(e -> e.getName().get(0)).collect(Collectors.toList()));
+        }
+
+        @Test
+        void getAffiliations() {
+            // the mother banks are found by the longest prefix of the BIC
+            assertEquals("Caisse d'Epargne", underTest.getAffiliations().getLongestPrefix("CEPAFRPP751").getKey());
+            assertNull(underTest.getAffiliations().getLongestPrefix("PSSTFRPPBOR"));
+            assertSame(underTest.getAffiliations(), underTest.getAffiliations());
+        }
+
+        @Test
+        void getMotherBanks_loadedOnce() {
+            assertSame(underTest.getMotherBanks(), underTest.getMotherBanks());
+            assertEquals(6, underTest.getMotherBanks().size());
+        }
+
         private Aspsp buildAspsp(final String bic, final String name) {
             final Aspsp aspsp = new Aspsp();
             aspsp.setBic(bic);
@@ -165,6 +201,75 @@ class BankServiceTest {
         assertEquals(4, result.size());
     }
 
+    @Test
+    void getBanks_unmodifiable() {
+        // given: the banks list of a plugin configuration, countries and payment mode
+        final List<Aspsp> first = underTest.fetchBanks(aspspsJson, Arrays.asList("FR", "ES"),
+                ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode());
+
+        // when: getting it again, with the countries in another order
+        final List<Aspsp> second = underTest.fetchBanks(aspspsJson, Arrays.asList("ES", "FR"),
+                ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode());
+
+        // then: the same banks are returned, and the list can't be modified
+        assertEquals(first, second);
+        assertThrows(UnsupportedOperationException.class, second::clear);
+    }
+
+    @Test
+    void getBanks_nullPluginConfiguration() {
+        assertTrue(underTest.fetchBanks(null, Collections.singletonList("FR"),
+                ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode()).isEmpty());
+    }
+
+    @Nested
+    class diff {
+
+        private GetAspspsResponse response;
+        private String previousConfiguration;
+
+        @BeforeEach
+        void setup() {
+            // the previous plugin configuration, built from the same directory
+            response = jsonService.fromJson(aspspsJson, GetAspspsResponse.class);
+            previousConfiguration = jsonService.toJson(response.withAspsps(underTest.buildBanksWithAffiliation(response.getAspsps())));
+            response = jsonService.fromJson(aspspsJson, GetAspspsResponse.class);
+        }
+
+        @Test
+        void unchanged() {
+            final DirectoryDiff diff = underTest.diff(previousConfiguration, response.getAspsps());
+            assertTrue(diff.isEmpty());
+        }
+
+        @Test
+        void changed() {
+            // given: a bank is renamed, another one is removed and a new one is added
+            final List<Aspsp> aspsps = new ArrayList<>(response.getAspsps());
+            aspsps.get(0).setName(Collections.singletonList("Renamed bank"));
+            aspsps.remove(1);
+            final Aspsp added = new Aspsp();
+            added.setAspspId("9999");
+            added.setBic("NEWBFRPP");
+            added.setName(Collections.singletonList("New bank"));
+            aspsps.add(added);
+
+            // when: comparing with the previous plugin configuration
+            final DirectoryDiff diff = underTest.diff(previousConfiguration, aspsps);
+
+            // then: each difference is counted
+            assertFalse(diff.isEmpty());
+            assertEquals(1, diff.getAdded());
+            assertEquals(1, diff.getRemoved());
+            assertEquals(1, diff.getChanged());
+        }
+
+        @Test
+        void invalidPreviousConfiguration() {
+            assertNull(underTest.diff("initial configuration", response.getAspsps()));
+        }
+    }
+
     @Nested
     class fetchValidSubsidiaries {
         @Test
@@ -231,6 +336,18 @@ class BankServiceTest {
         void noBankFound() {
             assertNull(underTest.getAspsp(pluginConfiguration, "0000"));
         }
+
+        @Test
+        void afterFetchBanks() {
+            // given: the banks list has been filtered for a payment mode some subsidiaries are not compatible with
+            underTest.fetchBanks(pluginConfiguration, Collections.singletonList("FR"),
+                    ConfigurationServiceImpl.PaymentProduct.INSTANT.getPaymentProductCode());
+
+            // when: looking for one of these subsidiaries, then: it is still in the directory
+            final Aspsp aspsp = underTest.getAspsp(pluginConfiguration, "1406");
+            assertNotNull(aspsp);
+            assertEquals("Banque Populaire Grand Ouest", aspsp.getName().get(0));
+        }
     }
 
 
@@ -0,0 +1,185 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.utils.Constants;
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doReturn;
+
+class DirectorySnapshotStoreTest {
+
+    private static final String PLUGIN_CONFIGURATION = "{\"Application\":\"PIS\",\"ASPSP\":[" +
+            "{\"AspspId\":\"1234\",\"Name\":[\"Crédit Agricole\"],\"CountryCode\":\"FR\",\"BIC\":\"AGRIFRPP\"}]}";
+
+    private static final DirectorySnapshotStore.Snapshot SNAPSHOT = new DirectorySnapshotStore.Snapshot(PLUGIN_CONFIGURATION,
+            "\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT");
+
+    @InjectMocks
+    private DirectorySnapshotStore store;
+
+    @Mock
+    private ConfigProperties config;
+
+    @TempDir
+    Path directory;
+
+    private PartnerConfiguration partnerConfiguration = MockUtils.aPartnerConfiguration();
+
+    private Path file;
+
+    @BeforeEach
+    void setup() {
+        store = new DirectorySnapshotStore();
+        MockitoAnnotations.initMocks(this);
+        doReturn(directory.resolve("directory.snapshot").toString()).when(config).get("directory.snapshot.path");
+        file = directory.resolve("directory.snapshot." + DirectorySnapshotStore.environmentKey(partnerConfiguration));
+    }
+
+    @Test
+    void save_load() throws IOException {
+        // when: saving a plugin configuration
+        store.save(partnerConfiguration, SNAPSHOT);
+
+        // then: the file contains the header, the validators and the plugin configuration, and no temporary file is left
+        assertEquals(DirectorySnapshotStore.HEADER + "\"v1\"\nWed, 21 Oct 2015 07:28:00 GMT\n" + PLUGIN_CONFIGURATION,
+                new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+
+        // when: loading it after a restart, then: it's the saved plugin configuration, with its validators
+        DirectorySnapshotStore restarted = new DirectorySnapshotStore();
+        restarted.config = config;
+        DirectorySnapshotStore.Snapshot loaded = restarted.load(partnerConfiguration);
+        assertEquals(SNAPSHOT, loaded);
+        assertEquals("\"v1\"", loaded.getEtag());
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", loaded.getLastModified());
+    }
+
+    @Test
+    void save_load_withoutValidators() {
+        // when: saving a plugin configuration built from a response without validators, then loading it after a restart
+        store.save(partnerConfiguration, new DirectorySnapshotStore.Snapshot(PLUGIN_CONFIGURATION, null, null));
+        DirectorySnapshotStore restarted = new DirectorySnapshotStore();
+        restarted.config = config;
+        DirectorySnapshotStore.Snapshot loaded = restarted.load(partnerConfiguration);
+
+        // then: it has no validators
+        assertEquals(PLUGIN_CONFIGURATION, loaded.getPluginConfiguration());
+        assertFalse(loaded.hasValidators());
+    }
+
+    @Test
+    void load_previousFormat() throws IOException {
+        // given: a file written in the previous format, without validators
+        Files.write(file, (DirectorySnapshotStore.HEADER_V1 + PLUGIN_CONFIGURATION).getBytes(StandardCharsets.UTF_8));
+
+        // when: loading it, then: it's the plugin configuration, without validators
+        DirectorySnapshotStore.Snapshot loaded = store.load(partnerConfiguration);
+        assertEquals(PLUGIN_CONFIGURATION, loaded.getPluginConfiguration());
+        assertFalse(loaded.hasValidators());
+    }
+
+    @Test
+    void load_otherEnvironment() {
+        // given: a plugin configuration saved for an environment
+        store.save(partnerConfiguration, SNAPSHOT);
+
+        // when: loading the snapshot of another environment, then: there is none
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(Constants.PartnerConfigurationKeys.API_URL_TOKEN, "https://other.domain.org/token");
+        partnerConfigurationMap.put(Constants.PartnerConfigurationKeys.API_URL_PIS_ASPSPS, "https://other.domain.org/aspsps");
+        assertNull(store.load(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>())));
+        assertEquals(SNAPSHOT, store.load(partnerConfiguration));
+    }
+
+    @Test
+    void save_concurrent() throws Exception {
+        // when: several plugin configurations are saved at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String pluginConfiguration = PLUGIN_CONFIGURATION + i;
+                saves.add(executor.submit(() -> store.save(partnerConfiguration, new DirectorySnapshotStore.Snapshot(pluginConfiguration, null, null))));
+            }
+            for (Future<?> save : saves) {
+                save.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // then: the file contains one of them entirely, and no temporary file is left
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(content.matches(Pattern.quote(DirectorySnapshotStore.HEADER + "\n\n" + PLUGIN_CONFIGURATION) + "[0-7]"));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void load_noFile() {
+        assertNull(store.load(partnerConfiguration));
+    }
+
+    @Test
+    void load_invalidFile() throws IOException {
+        // given: a file without the header
+        Files.write(file, PLUGIN_CONFIGURATION.getBytes(StandardCharsets.UTF_8));
+
+        // when: loading it, then: it's ignored
+        assertNull(store.load(partnerConfiguration));
+    }
+
+    @Test
+    void notPersisted() throws IOException {
+        // given: no snapshot path
+        doReturn("").when(config).get("directory.snapshot.path");
+
+        // when: saving a plugin configuration, then: it's only kept in memory
+        store.save(partnerConfiguration, SNAPSHOT);
+        assertEquals(SNAPSHOT, store.load(partnerConfiguration));
+        DirectorySnapshotStore restarted = new DirectorySnapshotStore();
+        restarted.config = config;
+        assertNull(restarted.load(partnerConfiguration));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void systemProperties() {
+        // given: a snapshot path referring to the temporary directory
+        doReturn("${java.io.tmpdir}/directory.snapshot").when(config).get("directory.snapshot.path");
+
+        // when: getting the snapshot file, then: it's in the temporary directory
+        Path path = store.path(partnerConfiguration);
+        assertEquals(Paths.get(System.getProperty("java.io.tmpdir")), path.getParent());
+        assertTrue(path.getFileName().toString().startsWith("directory.snapshot."));
+    }
+
+}
@@ -4,6 +4,8 @@ import com.payline.payment.equens.bean.business.payment.PaymentData;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.StringReader;
+
 class JsonServiceTest {
     JsonService jsonService = JsonService.getInstance();
 
@@ -20,6 +22,12 @@ class JsonServiceTest {
         Assertions.assertEquals(expectedPaymentData.getIban(), paymentData.getIban());
     }
 
+    @Test
+    void fromJson_reader() {
+        PaymentData paymentData = jsonService.fromJson(new StringReader(expectedJson), PaymentData.class);
+        Assertions.assertEquals(expectedPaymentData.getBic(), paymentData.getBic());
+        Assertions.assertEquals(expectedPaymentData.getIban(), paymentData.getIban());
+    }
 
     @Test
     void toJson() {
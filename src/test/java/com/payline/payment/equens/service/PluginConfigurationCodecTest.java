@@ -0,0 +1,115 @@
+package com.payline.payment.equens.service;
+
+import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doReturn;
+
+class PluginConfigurationCodecTest {
+
+    @InjectMocks
+    private PluginConfigurationCodec codec;
+
+    @Mock
+    private ConfigProperties config;
+
+    private JsonService jsonService = JsonService.getInstance();
+
+    private String pluginConfiguration;
+
+    @BeforeEach
+    void setup() throws IOException {
+        codec = new PluginConfigurationCodec();
+        MockitoAnnotations.initMocks(this);
+
+        try (InputStream input = this.getClass().getClassLoader().getResourceAsStream("test_plugin_configuration.json")) {
+            assertNotNull(input);
+            pluginConfiguration = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)).lines()
+                    .collect(Collectors.joining("\n"));
+        }
+    }
+
+    @Test
+    void encode_legacy() {
+        // given: the compact format is disabled
+        doReturn("false").when(config).get("pluginConfiguration.compact");
+
+        // when: encoding a directory
+        String encoded = codec.encode(jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class));
+
+        // then: it's encoded as JSON
+        assertFalse(PluginConfigurationCodec.isCompact(encoded));
+        assertTrue(encoded.startsWith("{"));
+    }
+
+    @Test
+    void encode_compact() {
+        // given: the compact format is enabled
+        doReturn("true").when(config).get("pluginConfiguration.compact");
+        GetAspspsResponse response = jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class);
+
+        // when: encoding a directory, then decoding it
+        String encoded = codec.encode(response);
+        List<Aspsp> decoded = codec.decode(encoded);
+
+        // then: the encoded directory is smaller, and the decoded ASPSPs are the same
+        assertTrue(PluginConfigurationCodec.isCompact(encoded));
+        assertTrue(encoded.length() < pluginConfiguration.length());
+        assertEquals(jsonService.toJson(response.getAspsps()), jsonService.toJson(decoded));
+    }
+
+    @Test
+    void decode_legacy() {
+        // when: decoding a JSON plugin configuration, then: it's read as before
+        List<Aspsp> decoded = codec.decode(pluginConfiguration);
+        assertEquals(jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class).getAspsps().size(), decoded.size());
+    }
+
+    @Test
+    void decode_invalid() {
+        // when: decoding an invalid compact plugin configuration, then: an exception is thrown
+        assertThrows(PluginException.class, () -> codec.decode(PluginConfigurationCodec.COMPACT_HEADER + "not base64!"));
+        assertThrows(PluginException.class, () -> codec.decode(PluginConfigurationCodec.COMPACT_HEADER + "AAAA"));
+    }
+
+    @Test
+    void isCurrentFormat_legacy() {
+        // given: the compact format is disabled
+        doReturn("false").when(config).get("pluginConfiguration.compact");
+        String encoded = codec.encode(jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class));
+
+        // then: only the JSON with the current content version is in the current format
+        assertEquals(PluginConfigurationCodec.CONTENT_VERSION, codec.decodeDirectory(encoded).getContentVersion());
+        assertTrue(codec.isCurrentFormat(encoded, codec.decodeDirectory(encoded)));
+        assertFalse(codec.isCurrentFormat(pluginConfiguration, codec.decodeDirectory(pluginConfiguration)));
+    }
+
+    @Test
+    void isCurrentFormat_compact() {
+        // given: the compact format is enabled
+        doReturn("true").when(config).get("pluginConfiguration.compact");
+        String encoded = codec.encode(jsonService.fromJson(pluginConfiguration, GetAspspsResponse.class));
+
+        // then: only the compact format with the current content version is in the current format
+        assertEquals(PluginConfigurationCodec.CONTENT_VERSION, codec.decodeDirectory(encoded).getContentVersion());
+        assertTrue(codec.isCurrentFormat(encoded, codec.decodeDirectory(encoded)));
+        assertFalse(codec.isCurrentFormat(pluginConfiguration, codec.decodeDirectory(pluginConfiguration)));
+    }
+
+}
@@ -4,9 +4,11 @@ import com.payline.payment.equens.MockUtils;
 import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse;
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.service.DirectorySnapshotStore;
 import com.payline.payment.equens.service.JsonService;
 import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.http.PisHttpClient;
+import com.payline.payment.equens.utils.metrics.Metrics;
 import com.payline.payment.equens.utils.properties.ReleaseProperties;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import com.payline.pmapi.bean.configuration.ReleaseInformation;
@@ -42,6 +44,8 @@ class ConfigurationServiceImplTest {
     private PisHttpClient pisHttpClient;
     @Mock
     private ReleaseProperties releaseProperties;
+    @Mock
+    private DirectorySnapshotStore snapshotStore;
 
     @InjectMocks
     private ConfigurationServiceImpl service;
@@ -237,6 +241,90 @@ class ConfigurationServiceImplTest {
         ContractConfiguration ccArg = requestConfigurationCaptor.getValue().getContractConfiguration();
         assertEquals( 2, ccArg.getContractProperties().size() );
         assertNotEquals( "000000", ccArg.getProperty( Constants.ContractConfigurationKeys.ONBOARDING_ID ).getValue() );
+
+        // verify the result is kept as snapshot
+        verify( snapshotStore, times(1) ).save( eq( request.getPartnerConfiguration() ), argThat( snapshot -> result.equals( snapshot.getPluginConfiguration() ) ) );
+    }
+
+    @Test
+    void retrievePluginConfiguration_unchanged(){
+        // given: a plugin configuration retrieved from the same directory as the HTTP client returns
+        String input = MockUtils.aPluginConfiguration();
+        doReturn( JsonService.getInstance().fromJson( input, GetAspspsResponse.class ) ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class) );
+        String previous = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration("")
+                .build() );
+        long unchanged = Metrics.getInstance().get( "directory.refresh.unchanged" );
+
+        // when: calling the method retrievePluginConfiguration with this previous plugin configuration
+        String result = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration(previous)
+                .build() );
+
+        // then: the previous plugin configuration is returned as is
+        assertSame( previous, result );
+        assertEquals( unchanged + 1, Metrics.getInstance().get( "directory.refresh.unchanged" ) );
+        verify( snapshotStore, times(2) ).save( any(PartnerConfiguration.class), any(DirectorySnapshotStore.Snapshot.class) );
+    }
+
+    @Test
+    void retrievePluginConfiguration_unchangedSnapshotUpToDate(){
+        // given: a plugin configuration retrieved from the same directory as the HTTP client returns, already kept as snapshot
+        String input = MockUtils.aPluginConfiguration();
+        doReturn( JsonService.getInstance().fromJson( input, GetAspspsResponse.class ) ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class) );
+        String previous = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration("")
+                .build() );
+        doReturn( new DirectorySnapshotStore.Snapshot( previous, null, null ) ).when( snapshotStore ).load( any(PartnerConfiguration.class) );
+
+        // when: calling the method retrievePluginConfiguration with this previous plugin configuration
+        String result = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration(previous)
+                .build() );
+
+        // then: the previous plugin configuration is returned as is, and not saved again
+        assertSame( previous, result );
+        verify( snapshotStore, times(1) ).save( any(PartnerConfiguration.class), any(DirectorySnapshotStore.Snapshot.class) );
+    }
+
+    @Test
+    void retrievePluginConfiguration_previousContentVersion(){
+        // given: a previous plugin configuration of the same directory, stored before the current content version
+        String input = MockUtils.aPluginConfiguration();
+        doReturn( JsonService.getInstance().fromJson( input, GetAspspsResponse.class ) ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class) );
+
+        // when: calling the method retrievePluginConfiguration with this previous plugin configuration
+        String result = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration(input)
+                .build() );
+
+        // then: the plugin configuration is built again
+        assertNotEquals( input, result );
+        assertTrue( result.contains( "PluginContentVersion" ) );
+        verify( snapshotStore, times(1) ).save( any(PartnerConfiguration.class), argThat( snapshot -> result.equals( snapshot.getPluginConfiguration() ) ) );
+    }
+
+    @Test
+    void retrievePluginConfiguration_notModified(){
+        // given: a snapshot with validators, built from the directory the HTTP client returns
+        String input = MockUtils.aPluginConfiguration();
+        doReturn( JsonService.getInstance().fromJson( input, GetAspspsResponse.class ) ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class) );
+        String snapshotConfiguration = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration("")
+                .build() );
+        doReturn( new DirectorySnapshotStore.Snapshot( snapshotConfiguration, "\"v1\"", null ) ).when( snapshotStore ).load( any(PartnerConfiguration.class) );
+        // the partner API answers the directory did not change
+        doReturn( null ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class), eq( "\"v1\"" ), isNull() );
+
+        // when: calling the method retrievePluginConfiguration after a restart (no previous plugin configuration)
+        String result = service.retrievePluginConfiguration( MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration("")
+                .build() );
+
+        // then: the request is conditional, and the snapshot is returned as is
+        assertSame( snapshotConfiguration, result );
+        verify( pisHttpClient, times(1) ).getAspsps( any(RequestConfiguration.class), eq( "\"v1\"" ), isNull() );
+        verify( pisHttpClient, times(1) ).getAspsps( any(RequestConfiguration.class) );
     }
 
     @Test
@@ -256,6 +344,24 @@ class ConfigurationServiceImplTest {
         assertEquals( initialConfiguration, result );
     }
 
+    @Test
+    void retrievePluginConfiguration_exceptionWithoutInitialConfiguration(){
+        // given: the HTTP client throws an exception, and there is no initial plugin configuration
+        doThrow( PluginException.class ).when( pisHttpClient ).getAspsps( any(RequestConfiguration.class) );
+        doReturn( new DirectorySnapshotStore.Snapshot( "snapshot configuration", null, null ) ).when( snapshotStore ).load( any(PartnerConfiguration.class) );
+
+        RetrievePluginConfigurationRequest request = MockUtils.aRetrievePluginConfigurationRequestBuilder()
+                .withPluginConfiguration("")
+                .build();
+
+        // when: calling the method retrievePluginConfiguration
+        String result = service.retrievePluginConfiguration( request );
+
+        // then: the returned value is the last plugin configuration retrieved
+        assertEquals( "snapshot configuration", result );
+        verify( snapshotStore, never() ).save( any(PartnerConfiguration.class), any(DirectorySnapshotStore.Snapshot.class) );
+    }
+
     @Test
     void retrievePluginConfiguration_missingPaylineClientName(){
         // given: the PartnerConfiguration is missing the paylineClientName
@@ -3,6 +3,8 @@ package com.payline.payment.equens.service.impl;
 import com.google.gson.JsonSyntaxException;
 import com.payline.payment.equens.MockUtils;
 import com.payline.payment.equens.bean.business.reachdirectory.Aspsp;
+import com.payline.payment.equens.bean.business.reachdirectory.AspspDirectory;
+import com.payline.payment.equens.service.BankFormService;
 import com.payline.payment.equens.service.BankService;
 import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.i18n.I18nService;
@@ -24,13 +26,12 @@ import com.payline.pmapi.bean.paymentform.response.configuration.PaymentFormConf
 import com.payline.pmapi.bean.paymentform.response.configuration.impl.PaymentFormConfigurationResponseFailure;
 import com.payline.pmapi.bean.paymentform.response.configuration.impl.PaymentFormConfigurationResponseSpecific;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.internal.util.reflection.FieldSetter;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -42,6 +43,8 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 class PaymentFormConfigurationServiceImplTest {
 
@@ -54,6 +57,9 @@ class PaymentFormConfigurationServiceImplTest {
     @InjectMocks
     private PaymentFormConfigurationServiceImpl underTest;
 
+    @InjectMocks
+    private BankFormService bankFormService;
+
     private final String aspspsJson = "{\"Application\":\"PIS\",\"ASPSP\":[" +
             // FR - Normal|Instant
             "{\"AspspId\":\"1234\",\"Name\":[\"a Bank\"],\"CountryCode\":\"FR\",\"Details\":[{\"Api\":\"POST /payments\",\"Fieldname\":\"PaymentProduct\",\"Type\":\"SUPPORTED\",\"Value\":\"Normal|Instant\",\"ProtocolVersion\":\"STET_V_1_4_0_47\"}],\"BIC\":\"MOOBARBAZXX\"}," +
@@ -72,9 +78,15 @@ class PaymentFormConfigurationServiceImplTest {
             "],\"MessageCreateDateTime\":\"2019-11-15T16:52:37.092+0100\",\"MessageId\":\"6f31954f-7ad6-4a63-950c-a2a363488e\"}";
 
     @BeforeEach
-    void setup() {
+    void setup() throws NoSuchFieldException {
         underTest = new PaymentFormConfigurationServiceImpl();
+        bankFormService = new BankFormService();
         MockitoAnnotations.initMocks(this);
+        // the bank part of the payment form is built from the mocked bank service
+        FieldSetter.setField(underTest, PaymentFormConfigurationServiceImpl.class.getDeclaredField("bankFormService"), bankFormService);
+
+        // the plugin configuration is a distinct directory
+        doReturn(new AspspDirectory(Collections.<Aspsp>emptyList())).when(bankService).getDirectory(aspspsJson);
 
         // We consider by default that i18n behaves normally
         doReturn("message")
@@ -180,94 +192,115 @@ class PaymentFormConfigurationServiceImplTest {
         assertEquals(FailureCause.INVALID_DATA, ((PaymentFormConfigurationResponseFailure) response).getFailureCause());
     }
 
-    @Nested
-    class bankScript {
-
-        @Test
-        void withEmptyBankList() {
-            String result = underTest.buildBankScript(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
-            assertEquals("", result);
-        }
-
-        @Test
-        void buildBankWithoutSubsidiary() {
-            final String expectedResult = "{ id : 'Axa Banque',\n" +
-                    " iban : false,  subList : []},{ id : 'La Banque Postale',\n" +
-                    " iban : false,  subList : []}";
-            final Aspsp bank1 = new Aspsp();
-            bank1.setCountryCode("FR");
-            bank1.setName(Collections.singletonList("Axa Banque"));
-            bank1.setAspspId("1");
-
-            final Aspsp bank2 = new Aspsp();
-            bank2.setCountryCode("FR");
-            bank2.setName(Collections.singletonList("La Banque Postale"));
-            bank2.setAspspId("2");
-
-            final List<Aspsp> aspspList = Arrays.asList(bank1, bank2);
-            final List<SelectOption> primaryList = new ArrayList<>();
-            final List<SelectOption> subsidiaryList = new ArrayList<>();
-            final String result = underTest.buildBankScript(aspspList, primaryList, subsidiaryList);
-            assertTrue(subsidiaryList.isEmpty());
-            assertEquals(expectedResult, result);
-
-            final SelectOption bank1Option = primaryList.get(0);
-            final SelectOption bank2Option = primaryList.get(1);
-
-            assertEquals("Axa Banque", bank1Option.getValue());
-            assertEquals("La Banque Postale", bank2Option.getValue());
-            assertEquals("1", bank1Option.getKey());
-            assertEquals("2", bank2Option.getKey());
-        }
-
-        @Test
-        void buildBankWithSubsidiary() {
-            final String expectedResult = "{ id : 'Axa Banque',\n" +
-                    " iban : false,  subList : []},{ id : 'Crédit Agricole',\n" +
-                    " iban : false,  subList : [{aspspId : '123', label : 'Crédit Agricole PACA',  iban : false}," +
-                    "{aspspId : '456', label : 'Crédit Agricole Paris',  iban : false}]}";
-            final Aspsp bank1 = new Aspsp();
-            bank1.setCountryCode("FR");
-            bank1.setName(Collections.singletonList("Axa Banque"));
-            bank1.setAspspId("1");
-
-            final Aspsp subAspsp = new Aspsp();
-            subAspsp.setName(Collections.singletonList("Crédit Agricole PACA"));
-            subAspsp.setAspspId("123");
-
-            final Aspsp subAspsp2 = new Aspsp();
-            subAspsp2.setName(Collections.singletonList("Crédit Agricole Paris"));
-            subAspsp2.setAspspId("456");
-
-            final Aspsp bank2 = new Aspsp();
-            bank2.setCountryCode("FR");
-            bank2.setName(Collections.singletonList("Crédit Agricole"));
-            bank2.setAspspId("");
-            bank2.setSubsidiariesList(Arrays.asList(subAspsp, subAspsp2));
-
-            final List<Aspsp> aspspList = Arrays.asList(bank1, bank2);
-            final List<SelectOption> primaryList = new ArrayList<>();
-            final List<SelectOption> subsidiaryList = new ArrayList<>();
-            final String result = underTest.buildBankScript(aspspList, primaryList, subsidiaryList);
-            assertFalse(subsidiaryList.isEmpty());
-            assertEquals(expectedResult, result);
-
-            final SelectOption bank1Option = primaryList.get(0);
-            final SelectOption bank2Option = primaryList.get(1);
-
-            assertEquals("Axa Banque", bank1Option.getValue());
-            assertEquals("Crédit Agricole", bank2Option.getValue());
-            assertEquals("1", bank1Option.getKey());
-            assertEquals("", bank2Option.getKey());
-
-            final SelectOption subsidiary1Option = subsidiaryList.get(0);
-            final SelectOption subsidiary2Option = subsidiaryList.get(1);
-
-            assertEquals("Crédit Agricole PACA", subsidiary1Option.getValue());
-            assertEquals("Crédit Agricole Paris", subsidiary2Option.getValue());
-            assertEquals("123", subsidiary1Option.getKey());
-            assertEquals("456", subsidiary2Option.getKey());
-        }
+    @Test
+    void getPaymentFormConfiguration_cached() {
+        final Aspsp bank = MockUtils.anAspsp();
+        doReturn(Collections.singletonList(bank)).when(bankService).fetchBanks(eq(aspspsJson), any(), any());
+
+        // given: the same directory displayed twice with the same locale and contract configuration
+        final PaymentFormConfigurationRequest request = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withLocale(Locale.FRANCE)
+                .withPluginConfiguration(aspspsJson)
+                .build();
+
+        // when: calling getPaymentFormConfiguration method twice
+        final PaymentFormConfigurationResponse response1 = underTest.getPaymentFormConfiguration(request);
+        final PaymentFormConfigurationResponse response2 = underTest.getPaymentFormConfiguration(request);
+
+        // then: the bank part of the payment form is built once, then a new response is returned for each call
+        assertEquals(PaymentFormConfigurationResponseSpecific.class, response1.getClass());
+        assertNotSame(response1, response2);
+        verify(bankService, times(1)).fetchBanks(eq(aspspsJson), any(), any());
+
+        // then: the script contains the banks
+        final String script = bankFormService.getBankScript(aspspsJson, Collections.singletonList("FR"), "Instant").getScript();
+        assertTrue(script.contains(bank.getName().get(0)));
+        assertFalse(script.contains("$BANKS_TO_REPLACE$"));
     }
-}
 
+    @Test
+    void getPaymentFormConfiguration_notShared() {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(eq(aspspsJson), any(), any());
+        final PaymentFormConfigurationRequest request = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withPluginConfiguration(aspspsJson)
+                .build();
+
+        // given: a caller modifies the payment form it received
+        final PaymentFormConfigurationResponse response1 = underTest.getPaymentFormConfiguration(request);
+        getBankOptions(response1).clear();
+
+        // when: calling getPaymentFormConfiguration method again, then: the payment form is unchanged
+        final PaymentFormConfigurationResponse response2 = underTest.getPaymentFormConfiguration(request);
+        assertEquals(1, getBankOptions(response2).size());
+    }
+
+    @Test
+    void getPaymentFormConfiguration_byDirectory() {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(any(), any(), any());
+
+        // given: two plugin configurations with distinct directories (two environments, for example)
+        final String otherJson = aspspsJson.replace("6f31954f", "7f31954f");
+        doReturn(new AspspDirectory(Collections.<Aspsp>emptyList())).when(bankService).getDirectory(otherJson);
+        final PaymentFormConfigurationRequest request = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withPluginConfiguration(aspspsJson)
+                .build();
+        final PaymentFormConfigurationRequest otherRequest = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withPluginConfiguration(otherJson)
+                .build();
+
+        // when: calling getPaymentFormConfiguration method alternately with each of them
+        underTest.getPaymentFormConfiguration(request);
+        underTest.getPaymentFormConfiguration(otherRequest);
+        underTest.getPaymentFormConfiguration(request);
+        underTest.getPaymentFormConfiguration(otherRequest);
+
+        // then: the bank part of the payment form is built once for each directory, then kept for both
+        verify(bankService, times(1)).fetchBanks(eq(aspspsJson), any(), any());
+        verify(bankService, times(1)).fetchBanks(eq(otherJson), any(), any());
+    }
+
+    @Test
+    void getPaymentFormConfiguration_byLocale() {
+        doReturn(Collections.singletonList(MockUtils.anAspsp())).when(bankService).fetchBanks(eq(aspspsJson), any(), any());
+
+        // given: the same directory and contract configuration displayed in two locales
+        final PaymentFormConfigurationRequest requestFr = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withLocale(Locale.FRANCE)
+                .withPluginConfiguration(aspspsJson)
+                .build();
+        final PaymentFormConfigurationRequest requestEn = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withLocale(Locale.ENGLISH)
+                .withPluginConfiguration(aspspsJson)
+                .build();
+
+        // when: calling getPaymentFormConfiguration method for each locale
+        final PaymentFormConfigurationResponse responseFr = underTest.getPaymentFormConfiguration(requestFr);
+        final PaymentFormConfigurationResponse responseEn = underTest.getPaymentFormConfiguration(requestEn);
+
+        // then: each payment form has the labels of its locale, and they share the same bank script
+        assertEquals(PaymentFormConfigurationResponseSpecific.class, responseEn.getClass());
+        assertNotSame(responseFr, responseEn);
+        verify(bankService, times(1)).fetchBanks(eq(aspspsJson), any(), any());
+        verify(i18n, times(1)).getMessage(Constants.FormKeys.FIELD_BANKS_LABEL, Locale.FRANCE);
+        verify(i18n, times(1)).getMessage(Constants.FormKeys.FIELD_BANKS_LABEL, Locale.ENGLISH);
+    }
+
+    @Test
+    void getPaymentFormConfiguration_failureNotCached() {
+        doThrow(JsonSyntaxException.class)
+                .doReturn(Collections.singletonList(MockUtils.anAspsp()))
+                .when(bankService).fetchBanks(any(), any(), any());
+        final PaymentFormConfigurationRequest request = MockUtils.aPaymentFormConfigurationRequestBuilder()
+                .withPluginConfiguration(aspspsJson)
+                .build();
+
+        // when: the first call fails, then: the next one builds the payment form
+        assertEquals(PaymentFormConfigurationResponseFailure.class, underTest.getPaymentFormConfiguration(request).getClass());
+        assertEquals(PaymentFormConfigurationResponseSpecific.class, underTest.getPaymentFormConfiguration(request).getClass());
+    }
+
+    private static List<SelectOption> getBankOptions(PaymentFormConfigurationResponse response) {
+        final CustomForm form = (CustomForm) ((PaymentFormConfigurationResponseSpecific) response).getPaymentForm();
+        return ((PaymentFormInputFieldSelect) form.getCustomFields().get(0)).getSelectOptions();
+    }
+}
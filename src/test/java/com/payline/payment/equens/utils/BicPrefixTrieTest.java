@@ -0,0 +1,53 @@
+package com.payline.payment.equens.utils;
+
+import com.payline.payment.equens.exception.InvalidDataException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BicPrefixTrieTest {
+
+    private BicPrefixTrie<String> trie;
+
+    @BeforeEach
+    void setup() {
+        trie = new BicPrefixTrie<>();
+        trie.put("AGRIFRPP", "Crédit Agricole");
+        trie.put("AGRIFRPP8", "Crédit Agricole Sud");
+        trie.put("CCBP", "Banque Populaire");
+    }
+
+    @Test
+    void getLongestPrefix() {
+        assertEquals("Crédit Agricole", trie.getLongestPrefix("AGRIFRPP882"));
+        assertEquals("Crédit Agricole Sud", trie.getLongestPrefix("AGRIFRPP813"));
+        assertEquals("Banque Populaire", trie.getLongestPrefix("CCBPFRPPNAN"));
+        // case insensitive
+        assertEquals("Banque Populaire", trie.getLongestPrefix("ccbpfrppnan"));
+    }
+
+    @Test
+    void getLongestPrefix_noMatch() {
+        assertNull(trie.getLongestPrefix("AGRIFRP"));
+        assertNull(trie.getLongestPrefix("PSSTFRPPXXX"));
+        assertNull(trie.getLongestPrefix("CC-BP"));
+        assertNull(trie.getLongestPrefix(""));
+        assertNull(trie.getLongestPrefix(null));
+    }
+
+    @Test
+    void put_replace() {
+        // when: associating another value to an existing prefix, then: it's replaced
+        trie.put("CCBP", "BPCE");
+        assertEquals("BPCE", trie.getLongestPrefix("CCBPFRPPNAN"));
+        assertEquals(3, trie.size());
+    }
+
+    @Test
+    void put_invalid() {
+        assertThrows(InvalidDataException.class, () -> trie.put("", "empty"));
+        assertThrows(InvalidDataException.class, () -> trie.put("AGRI FR", "space"));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.payline.payment.equens.utils;
+
+import com.payline.payment.equens.exception.PluginException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptTemplateTest {
+
+    @Test
+    void render() {
+        // given: a template with two placeholders, one used twice
+        final ScriptTemplate template = new ScriptTemplate("const a = [$A$];\nconst b = '$B$';\nconst c = [$A$];");
+        final Map<String, String> arguments = new HashMap<>();
+        arguments.put("$A$", "1, 2");
+        arguments.put("$B$", "b");
+
+        // when: rendering it, then: each placeholder is replaced
+        assertEquals(Arrays.asList("$A$", "$B$", "$A$"), template.getPlaceholders());
+        assertEquals("const a = [1, 2];\nconst b = 'b';\nconst c = [1, 2];", template.render(arguments));
+    }
+
+    @Test
+    void render_missingArgument() {
+        // given: a template and no value for its placeholder
+        final ScriptTemplate template = new ScriptTemplate("const a = [$A$];");
+
+        // when: rendering it, then: the placeholder is left as is
+        assertEquals("const a = [$A$];", template.render(Collections.emptyMap()));
+    }
+
+    @Test
+    void render_valueWithDollars() {
+        // given: a value looking like a placeholder
+        final ScriptTemplate template = new ScriptTemplate("$A$$B$");
+        final Map<String, String> arguments = new HashMap<>();
+        arguments.put("$A$", "$B$");
+        arguments.put("$B$", "b");
+
+        // when: rendering it, then: the values are not replaced again
+        assertEquals("$B$b", template.render(arguments));
+    }
+
+    @Test
+    void render_noPlaceholder() {
+        assertEquals("let a = 1;", new ScriptTemplate("let a = 1;").render(Collections.emptyMap()));
+    }
+
+    @Test
+    void load() {
+        // when: loading the form script, then: it contains the banks placeholder
+        final ScriptTemplate template = ScriptTemplate.load("equensForm.js");
+        assertTrue(template.getPlaceholders().contains("$BANKS_TO_REPLACE$"));
+    }
+
+    @Test
+    void load_missingResource() {
+        assertThrows(PluginException.class, () -> ScriptTemplate.load("doesNotExist.js"));
+    }
+
+}
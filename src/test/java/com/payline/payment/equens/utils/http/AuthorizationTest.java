@@ -1,5 +1,6 @@
 package com.payline.payment.equens.utils.http;
 
+import org.apache.http.HttpHeaders;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -33,6 +34,8 @@ class AuthorizationTest {
         assertEquals( "Type", instance.getTokenType() );
         assertEquals( now, instance.getExpiresAt() );
         assertEquals( "Type access token", instance.getHeaderValue() );
+        assertEquals( HttpHeaders.AUTHORIZATION, instance.getHeader().getName() );
+        assertEquals( "Type access token", instance.getHeader().getValue() );
     }
 
     @Test
@@ -0,0 +1,51 @@
+package com.payline.payment.equens.utils.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedInputStreamTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void read_withinLimit() throws IOException {
+        // given: a stream whose maximum size is the content size
+        BoundedInputStream in = new BoundedInputStream( new ByteArrayInputStream( CONTENT ), CONTENT.length, 5 );
+
+        // when: reading it entirely, byte by byte then by blocks
+        assertEquals( '0', in.read() );
+        in.drain();
+
+        // then: the excerpt contains the first bytes only
+        assertEquals( CONTENT.length, in.getCount() );
+        assertFalse( in.isExceeded() );
+        assertEquals( "01234", in.excerpt( StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    void read_exceeded() {
+        // given: a stream whose maximum size is lower than the content size
+        BoundedInputStream in = new BoundedInputStream( new ByteArrayInputStream( CONTENT ), 10, 5 );
+
+        // when: reading it entirely, then: an exception is thrown
+        assertThrows( IOException.class, in::drain );
+        assertTrue( in.isExceeded() );
+    }
+
+    @Test
+    void skip() throws IOException {
+        // given: a stream whose maximum size is lower than the content size
+        BoundedInputStream in = new BoundedInputStream( new ByteArrayInputStream( CONTENT ), 10, 5 );
+
+        // when: skipping bytes, then: they are counted
+        assertEquals( 3, in.skip( 3 ) );
+        assertEquals( 3, in.getCount() );
+        assertThrows( IOException.class, () -> in.skip( 10 ) );
+    }
+
+}
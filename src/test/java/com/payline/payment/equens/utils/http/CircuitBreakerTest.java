@@ -0,0 +1,149 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.utils.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    /**
+     * Window of 4 calls, rates computed from 4 calls, opens at 50% failures or 50% slow calls (slow from 1000ms),
+     * stays open 100ms and closes after 2 successful probes.
+     */
+    private static final CircuitBreaker.Config CONFIG = new CircuitBreaker.Config(4, 4, 50, 50, 1000, 100, 2);
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker("test", CONFIG);
+
+    @Test
+    void closed_nominal() {
+        // given: successful calls
+        for (int i = 0; i < 10; i++) {
+            assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.onResult(false, 10);
+        }
+
+        // then: the circuit stays closed
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void open_failureRate() {
+        // given: half of the calls fail
+        long before = Metrics.getInstance().get("circuitBreaker.test.rejected");
+        fail(2);
+        succeed(2);
+
+        // then: the circuit is open, and the calls are rejected
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(before + 1, Metrics.getInstance().get("circuitBreaker.test.rejected"));
+    }
+
+    @Test
+    void open_slowCallRate() {
+        // given: half of the calls are slow
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.tryAcquire();
+            circuitBreaker.onResult(false, i % 2 == 0 ? 5000 : 10);
+        }
+
+        // then: the circuit is open
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void closed_minimumCalls() {
+        // given: fewer calls than the minimum, all failed
+        fail(3);
+
+        // then: the circuit is still closed
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void closed_slidingWindow() {
+        // given: one failure, followed by enough successful calls to push it out of the window
+        fail(1);
+        succeed(4);
+        fail(1);
+
+        // then: the failure rate is computed on the last calls only
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void halfOpen_close() throws InterruptedException {
+        // given: an open circuit, whose open duration has passed
+        fail(4);
+        Thread.sleep(150);
+
+        // when: the probe calls succeed
+        assertTrue(circuitBreaker.tryAcquire());
+        assertTrue(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onResult(false, 10);
+        circuitBreaker.onResult(false, 10);
+
+        // then: the circuit closes
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpen_reopen() throws InterruptedException {
+        // given: an open circuit, whose open duration has passed
+        fail(4);
+        Thread.sleep(150);
+
+        // when: a probe call fails
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onResult(true, 10);
+
+        // then: the circuit opens again
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpen_release() throws InterruptedException {
+        // given: a half-open circuit, whose probes are all in progress
+        fail(4);
+        Thread.sleep(150);
+        assertTrue(circuitBreaker.tryAcquire());
+        assertTrue(circuitBreaker.tryAcquire());
+
+        // when: a probe call is released without result
+        circuitBreaker.release();
+
+        // then: another probe call is permitted
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void disabled() {
+        // a disabled circuit breaker never opens
+        CircuitBreaker disabled = new CircuitBreaker("disabled", CircuitBreaker.Config.DISABLED);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(disabled.tryAcquire());
+            disabled.onResult(true, 10);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, disabled.getState());
+    }
+
+    private void fail(int calls) {
+        for (int i = 0; i < calls; i++) {
+            circuitBreaker.tryAcquire();
+            circuitBreaker.onResult(true, 10);
+        }
+    }
+
+    private void succeed(int calls) {
+        for (int i = 0; i < calls; i++) {
+            circuitBreaker.tryAcquire();
+            circuitBreaker.onResult(false, 10);
+        }
+    }
+
+}
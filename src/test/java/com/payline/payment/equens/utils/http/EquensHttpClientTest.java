@@ -20,16 +20,21 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.internal.util.reflection.FieldSetter;
 import org.tomitribe.auth.signatures.Signature;
 
 import java.io.IOException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
+import java.security.GeneralSecurityException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -102,7 +107,7 @@ class EquensHttpClientTest {
         // given: the method generateSignature returns a valid signature
         String uri = "http://test.domain.fr/path";
         RequestConfiguration requestConfiguration = MockUtils.aRequestConfiguration();
-        doReturn( MockUtils.aSignature() ).when( equensHttpClient ).generateSignature( anyString(), anyMap() );
+        doReturn( MockUtils.aSignature() ).when( equensHttpClient ).generateSignature( any(PartnerContext.class), anyString(), anyMap() );
 
         // when: calling authorizationHeaders() method
         Map<String, String> headers = equensHttpClient.authorizationHeaders( uri, requestConfiguration );
@@ -118,10 +123,123 @@ class EquensHttpClientTest {
         assertTrue( headers.get( HttpHeaders.AUTHORIZATION ).matches( HTTP_SIGNATURE_PATTERN ) );
     }
 
+    @Test
+    void authDateFormatter(){
+        // the Date header has the same format as Date.toString(), in english
+        Date now = new Date();
+        assertEquals( new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy", Locale.US).format( now ),
+                EquensHttpClient.AUTH_DATE_FORMATTER.format( now.toInstant() ) );
+    }
+
+    // --- Test EquensHttpClient#getContext ---
+
+    @Test
+    void getContext_samePartnerConfiguration(){
+        // when: getting the context twice for the same partner configuration, in two distinct instances
+        PartnerContext first = equensHttpClient.getContext( MockUtils.aPartnerConfiguration() );
+        PartnerContext second = equensHttpClient.getContext( MockUtils.aPartnerConfiguration() );
+
+        // then: the context is built only once
+        assertSame( first, second );
+        assertEquals( 1, equensHttpClient.contextsCount() );
+    }
+
+    @Test
+    void getContext_otherTokenUrl(){
+        // given: two partner configurations with different token endpoint URLs
+        PartnerConfiguration partnerConfiguration = MockUtils.aPartnerConfiguration();
+        PartnerConfiguration otherConfiguration = aPartnerConfiguration( Constants.PartnerConfigurationKeys.API_URL_TOKEN, "https://other.domain.org/token" );
+
+        // when: getting their contexts
+        PartnerContext first = equensHttpClient.getContext( partnerConfiguration );
+        PartnerContext second = equensHttpClient.getContext( otherConfiguration );
+
+        // then: each configuration gets its own context, with its own token endpoint
+        assertNotSame( first, second );
+        assertEquals( partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.API_URL_TOKEN ), first.getTokenEndpointUrl() );
+        assertEquals( "https://other.domain.org/token", second.getTokenEndpointUrl() );
+        assertEquals( 2, equensHttpClient.contextsCount() );
+    }
+
+    @Test
+    void getContext_idleContextDiscarded() throws NoSuchFieldException {
+        // given: a context which has not been used for a long time
+        PartnerContext idle = equensHttpClient.getContext( MockUtils.aPartnerConfiguration() );
+        FieldSetter.setField( idle, PartnerContext.class.getDeclaredField("lastAccess"), 0L );
+
+        // when: a new partner configuration is used
+        equensHttpClient.getContext( aPartnerConfiguration( Constants.PartnerConfigurationKeys.API_URL_TOKEN, "https://other.domain.org/token" ) );
+
+        // then: the idle context is discarded
+        assertEquals( 1, equensHttpClient.contextsCount() );
+    }
+
+    @ParameterizedTest
+    @MethodSource("missingPartnerProperties")
+    void getContext_missingProperty( String key ){
+        // given: a partner configuration without one of the required properties
+        PartnerConfiguration partnerConfiguration = aPartnerConfiguration( key, null );
+
+        // when: getting the context, then: an exception is thrown
+        assertThrows( InvalidDataException.class, () -> equensHttpClient.getContext( partnerConfiguration ) );
+    }
+    static Stream<String> missingPartnerProperties(){
+        return Stream.of(
+                Constants.PartnerConfigurationKeys.API_URL_TOKEN,
+                Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE,
+                Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY
+        );
+    }
+
+    // --- Test EquensHttpClient#tokenRenewal ---
+
+    @Test
+    void tokenRenewal_currentContext() throws NoSuchFieldException {
+        // given: a token has been obtained for the default request configuration
+        RequestConfiguration requestConfiguration = MockUtils.aRequestConfiguration();
+        FieldSetter.setField( equensHttpClient, OAuthHttpClient.class.getDeclaredField("initialized"), new AtomicBoolean(true) );
+        doReturn( MockUtils.anAuthorization() ).when( equensHttpClient ).requestAuthorization( any(RequestConfiguration.class) );
+        doReturn( MockUtils.aSignature() ).when( equensHttpClient ).generateSignature( any(PartnerContext.class), anyString(), anyMap() );
+        equensHttpClient.authorize( requestConfiguration );
+
+        // when: resolving the renewal request of this token, then sending it
+        Supplier<Authorization> renewal = equensHttpClient.tokenRenewal( equensHttpClient.tokenKey( requestConfiguration ) );
+        doReturn( MockUtils.anAuthorization() ).when( equensHttpClient ).requestAuthorization( anyString(), anyMap() );
+        renewal.get();
+
+        // then: the token is requested to the endpoint of the current partner context, with the same credentials
+        String tokenEndpointUrl = requestConfiguration.getPartnerConfiguration().getProperty( Constants.PartnerConfigurationKeys.API_URL_TOKEN );
+        verify( equensHttpClient ).requestAuthorization( eq( tokenEndpointUrl ), argThat( headers ->
+                requestConfiguration.getContractConfiguration().getProperty( Constants.ContractConfigurationKeys.CLIENT_NAME ).getValue().equals( headers.get( EquensHttpClient.HEADER_AUTH_CLIENT ) )
+                        && headers.containsKey( HttpHeaders.AUTHORIZATION ) ) );
+    }
+
+    @Test
+    void tokenRenewal_unknownCredentials(){
+        // when: resolving the renewal request of a token which has not been obtained by this client, then: there is none
+        assertNull( equensHttpClient.tokenRenewal( "https://authorization.domain.org/token TEST client onboarding" ) );
+    }
+
+    @Test
+    void tokenRenewal_discardedContext() throws NoSuchFieldException {
+        // given: a token has been obtained, then its partner context has been discarded
+        RequestConfiguration requestConfiguration = MockUtils.aRequestConfiguration();
+        FieldSetter.setField( equensHttpClient, OAuthHttpClient.class.getDeclaredField("initialized"), new AtomicBoolean(true) );
+        doReturn( MockUtils.anAuthorization() ).when( equensHttpClient ).requestAuthorization( any(RequestConfiguration.class) );
+        equensHttpClient.authorize( requestConfiguration );
+        PartnerContext idle = equensHttpClient.getContext( requestConfiguration.getPartnerConfiguration() );
+        FieldSetter.setField( idle, PartnerContext.class.getDeclaredField("lastAccess"), 0L );
+        equensHttpClient.getContext( aPartnerConfiguration( Constants.PartnerConfigurationKeys.API_URL_TOKEN, "https://other.domain.org/token" ) );
+
+        // when: resolving the renewal request of this token, then: there is none, and the token has been discarded
+        assertNull( equensHttpClient.tokenRenewal( equensHttpClient.tokenKey( requestConfiguration ) ) );
+        assertFalse( equensHttpClient.isAuthorized( requestConfiguration ) );
+    }
+
     // --- Test EquensHttpClient#generateSignature ---
 
     @Test
-    void generateSignature_nominal() throws UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException {
+    void generateSignature_nominal() throws GeneralSecurityException {
         // given: valid input & RsaHolder returns valid pk and certificate
         String uri = "http://test.domain.fr/path";
         Map<String, String> headers = new LinkedHashMap<>();
@@ -131,13 +249,15 @@ class EquensHttpClientTest {
         headers.put( EquensHttpClient.HEADER_AUTH_ID, "0" );
         doReturn( MockUtils.aPrivateKey() ).when( rsaHolder ).getPrivateKey();
         doReturn( MockUtils.aClientCertificate() ).when( rsaHolder ).getClientCertificate();
+        PartnerContext context = new PartnerContext( "fingerprint", "https://authorization.domain.org/token", rsaHolder );
 
         // when: generating the signature
-        Signature signature = equensHttpClient.generateSignature( uri, headers );
+        Signature signature = equensHttpClient.generateSignature( context, uri, headers );
 
-        // then: the signature is valid
+        // then: the signature is valid, and so is the corresponding Authorization header
         assertNotNull( signature );
         assertTrue( signature.toString().matches( HTTP_SIGNATURE_PATTERN ) );
+        assertTrue( context.authorizationHeader( signature ).matches( HTTP_SIGNATURE_PATTERN ) );
     }
 
     // --- Test EquensHttpClient#handleError ---
@@ -185,6 +305,30 @@ class EquensHttpClientTest {
         return builder.build();
     }
 
+    @Test
+    void messageDateFormatter(){
+        // the MessageCreateDateTime header keeps the same format
+        Date now = new Date();
+        assertEquals( new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format( now ),
+                EquensHttpClient.MESSAGE_DATE_FORMATTER.format( now.toInstant() ) );
+    }
+
+    // --- Test EquensHttpClient#requestId ---
+
+    @Test
+    void requestId(){
+        // when: generating request identifiers
+        String first = EquensHttpClient.requestId();
+        String second = EquensHttpClient.requestId();
+
+        // then: they are different random UUIDs
+        assertNotEquals( first, second );
+        UUID uuid = UUID.fromString( first );
+        assertEquals( 4, uuid.version() );
+        assertEquals( 2, uuid.variant() );
+        assertEquals( first, uuid.toString() );
+    }
+
     // --- Test EquensHttpClient#initHeaders ---
 
     @Test
@@ -197,9 +341,31 @@ class EquensHttpClientTest {
         // when: initializing the headers
         List<Header> headers = equensHttpClient.initHeaders( MockUtils.aRequestConfiguration() );
 
-        // then: headers list contains the header Authorization
+        // then: headers list contains the header Authorization, the request id and the message date
         assertFalse( headers.isEmpty() );
         assertEquals( HttpHeaders.AUTHORIZATION, headers.get(0).getName() );
+        assertEquals( EquensHttpClient.HEADER_REQUEST_ID, headers.get(1).getName() );
+        assertEquals( EquensHttpClient.MESSAGE_CREATE_DATE_TIME, headers.get(2).getName() );
+    }
+
+    /**
+     * Build a valid partner configuration, in which the given property is replaced (or removed if the value is null).
+     */
+    private static PartnerConfiguration aPartnerConfiguration( String key, String value ){
+        PartnerConfiguration partnerConfiguration = MockUtils.aPartnerConfiguration();
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put( Constants.PartnerConfigurationKeys.API_URL_TOKEN, partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.API_URL_TOKEN ) );
+        Map<String, String> sensitiveConfigurationMap = new HashMap<>();
+        sensitiveConfigurationMap.put( Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE, partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE ) );
+        sensitiveConfigurationMap.put( Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY, partnerConfiguration.getProperty( Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY ) );
+
+        // replace the given property
+        if( Constants.PartnerConfigurationKeys.API_URL_TOKEN.equals( key ) ){
+            partnerConfigurationMap.put( key, value );
+        } else {
+            sensitiveConfigurationMap.put( key, value );
+        }
+        return new PartnerConfiguration( partnerConfigurationMap, sensitiveConfigurationMap );
     }
 
 }
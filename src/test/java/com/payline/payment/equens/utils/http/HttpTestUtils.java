@@ -1,5 +1,6 @@
 package com.payline.payment.equens.utils.http;
 
+import com.payline.payment.equens.service.JsonService;
 import org.apache.http.Header;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -7,6 +8,7 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicStatusLine;
 import org.mockito.internal.util.reflection.FieldSetter;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -85,4 +87,38 @@ class HttpTestUtils {
         return response;
     }
 
+    /**
+     * Build a JsonResponse with the given elements (no headers), decoding the content as the client would.
+     *
+     * @param statusCode The HTTP status code (ex: 200, 403)
+     * @param statusMessage The HTTP status message (ex: "OK", "Forbidden")
+     * @param content The response content as a string
+     * @param type The type of the decoded content
+     * @return A JsonResponse
+     */
+    public static <T> JsonResponse<T> mockJsonResponse( int statusCode, String statusMessage, String content, Class<T> type ){
+        return mockJsonResponse( statusCode, statusMessage, content, null, type );
+    }
+
+    /**
+     * Build a JsonResponse with the given elements, decoding the content as the client would.
+     *
+     * @param statusCode The HTTP status code (ex: 200, 403)
+     * @param statusMessage The HTTP status message (ex: "OK", "Forbidden")
+     * @param content The response content as a string
+     * @param headers The response headers
+     * @param type The type of the decoded content
+     * @return A JsonResponse
+     */
+    public static <T> JsonResponse<T> mockJsonResponse( int statusCode, String statusMessage, String content, Header[] headers, Class<T> type ){
+        try {
+            return JsonResponse.fromHttpResponse( mockHttpResponse( statusCode, statusMessage, content, headers ),
+                    type, JsonService.getInstance(), Long.MAX_VALUE, 2048 );
+        }
+        catch( IOException e ){
+            // This would happen in a testing context: spare the exception throw, the test case will probably fail anyway
+            return null;
+        }
+    }
+
 }
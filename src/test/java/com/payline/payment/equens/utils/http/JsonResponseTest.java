@@ -0,0 +1,91 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.bean.business.payment.PaymentStatusResponse;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.service.JsonService;
+import com.payline.pmapi.bean.common.FailureCause;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonResponseTest {
+
+    private JsonService jsonService = JsonService.getInstance();
+
+    @Test
+    void fromHttpResponse_nominal() throws IOException {
+        // given: a successful HTTP response with a JSON content
+        String content = "{\"AspspPaymentId\":\"123456\",\"PaymentStatus\":\"OPEN\"}";
+        CloseableHttpResponse httpResponse = HttpTestUtils.mockHttpResponse( 200, "OK", content,
+                new Header[]{ new BasicHeader("Name", "Value")} );
+
+        // when: converting it to JsonResponse
+        JsonResponse<PaymentStatusResponse> jsonResponse = JsonResponse.fromHttpResponse( httpResponse,
+                PaymentStatusResponse.class, jsonService, 1000, 10 );
+
+        // then: the content is decoded, and only its first bytes are kept as string
+        assertNotNull( jsonResponse );
+        assertEquals( 200, jsonResponse.getStatusCode() );
+        assertEquals( "OK", jsonResponse.getStatusMessage() );
+        assertEquals( "Value", jsonResponse.getHeader("name") );
+        assertEquals( "123456", jsonResponse.getBody().getAspspPaymentId() );
+        assertNull( jsonResponse.getParseError() );
+        assertEquals( content.substring(0, 10), jsonResponse.getContent() );
+    }
+
+    @Test
+    void fromHttpResponse_notJson() throws IOException {
+        // given: a successful HTTP response whose content is not JSON
+        String content = "<html><head><title>HTML Error 502</title></head></html>";
+        CloseableHttpResponse httpResponse = HttpTestUtils.mockHttpResponse( 200, "OK", content, null );
+
+        // when: converting it to JsonResponse
+        JsonResponse<PaymentStatusResponse> jsonResponse = JsonResponse.fromHttpResponse( httpResponse,
+                PaymentStatusResponse.class, jsonService, 1000, 1000 );
+
+        // then: the parse error and the content read are available to report the error
+        assertNull( jsonResponse.getBody() );
+        assertNotNull( jsonResponse.getParseError() );
+        assertTrue( content.startsWith( jsonResponse.getContent() ) );
+    }
+
+    @Test
+    void fromHttpResponse_error() throws IOException {
+        // given: an error HTTP response, whose content is longer than the excerpt size
+        String content = "{\"code\":\"002\",\"message\":\"Transaction could not be found\"}";
+        CloseableHttpResponse httpResponse = HttpTestUtils.mockHttpResponse( 404, "Not Found", content, null );
+
+        // when: converting it to JsonResponse
+        JsonResponse<PaymentStatusResponse> jsonResponse = JsonResponse.fromHttpResponse( httpResponse,
+                PaymentStatusResponse.class, jsonService, 1000, 10 );
+
+        // then: the content is not decoded, but kept entirely
+        assertFalse( jsonResponse.isSuccess() );
+        assertNull( jsonResponse.getBody() );
+        assertEquals( content, jsonResponse.getContent() );
+    }
+
+    @Test
+    void fromHttpResponse_tooLarge() {
+        // given: an HTTP response whose content exceeds the maximum size
+        String content = "{\"AspspPaymentId\":\"123456\",\"PaymentStatus\":\"OPEN\"}";
+        CloseableHttpResponse httpResponse = HttpTestUtils.mockHttpResponse( 200, "OK", content, null );
+
+        // when: converting it to JsonResponse, then: an exception is thrown
+        PluginException thrown = assertThrows( PluginException.class, () -> JsonResponse.fromHttpResponse( httpResponse,
+                PaymentStatusResponse.class, jsonService, 20, 10 ) );
+        assertEquals( FailureCause.PARTNER_UNKNOWN_ERROR, thrown.getFailureCause() );
+    }
+
+    @Test
+    void fromHttpResponse_null() throws IOException {
+        // when: converting null to JsonResponse, then: the result is null
+        assertNull( JsonResponse.fromHttpResponse( null, PaymentStatusResponse.class, jsonService, 1000, 10 ) );
+    }
+
+}
@@ -4,16 +4,29 @@ import com.payline.payment.equens.MockUtils;
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.Constants;
 import com.payline.payment.equens.utils.TestUtils;
+import com.payline.payment.equens.utils.properties.ConfigProperties;
+import com.payline.pmapi.bean.common.FailureCause;
+import com.payline.pmapi.bean.payment.ContractConfiguration;
+import com.payline.pmapi.bean.payment.ContractProperty;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -24,7 +37,12 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.*;
 import org.mockito.internal.util.reflection.FieldSetter;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -43,6 +61,16 @@ class OAuthHttpClientTest {
         protected Map<String, String> authorizationHeaders(String uri, RequestConfiguration requestConfiguration) {
             return new HashMap<>();
         }
+
+        @Override
+        protected String tokenEndpointUrl(RequestConfiguration requestConfiguration) {
+            return "https://authorization.domain.org/token";
+        }
+
+        @Override
+        protected String credentialsId(RequestConfiguration requestConfiguration) {
+            return requestConfiguration.getContractConfiguration().getProperty(Constants.ContractConfigurationKeys.CLIENT_NAME).getValue();
+        }
     }
 
     @Spy
@@ -62,8 +90,7 @@ class OAuthHttpClientTest {
         MockitoAnnotations.initMocks(this);
 
         // Manual init of private attributes
-        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("retries"), 3);
-        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("tokenEndpointUrl"), "https://authorization.domain.org/token");
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("retryPolicy"), new RetryPolicy(3, 0, 0, 100, 10000, "X-Request-ID"));
         FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("initialized"), new AtomicBoolean(true));
     }
 
@@ -74,6 +101,57 @@ class OAuthHttpClientTest {
         verify(client, never()).execute(any(HttpRequestBase.class), any(HttpContext.class));
     }
 
+    // --- Test OAuthHttpClient#init ---
+
+    private static Stream<Arguments> init_invalidTokenMargins_set() {
+        return Stream.of(
+                Arguments.of("120", "60"), // expiry skew greater than the refresh-ahead margin
+                Arguments.of("30", "30"), // expiry skew equal to the refresh-ahead margin
+                Arguments.of("-1", "120"), // negative expiry skew
+                Arguments.of("30", "-1"), // negative refresh-ahead margin
+                Arguments.of("30", "7200") // refresh-ahead margin longer than an hour
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("init_invalidTokenMargins_set")
+    void init_invalidTokenMargins(String expirySkew, String refreshAhead) throws NoSuchFieldException {
+        // given: the access tokens expiration margins are inconsistent
+        ConfigProperties config = mock(ConfigProperties.class);
+        doReturn("10").when(config).get(anyString());
+        doReturn(expirySkew).when(config).get("token.expirySkew");
+        doReturn(refreshAhead).when(config).get("token.refreshAhead");
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("config"), config);
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("initialized"), new AtomicBoolean(false));
+
+        // when: initializing the client, then: an exception is thrown, and the client stays uninitialized
+        assertThrows(PluginException.class, () -> oAuthHttpClient.init());
+        assertFalse(oAuthHttpClient.initialized.get());
+    }
+
+    @Test
+    void init_retriedAfterFailure() throws NoSuchFieldException {
+        // given: a first initialization failed because of invalid properties
+        ConfigProperties config = mock(ConfigProperties.class);
+        doReturn("10").when(config).get(anyString());
+        doReturn("abc").when(config).get("token.expirySkew");
+        doReturn("0").when(config).get("token.refreshAhead");
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("config"), config);
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("initialized"), new AtomicBoolean(false));
+        assertThrows(PluginException.class, () -> oAuthHttpClient.init());
+
+        // when: the properties are fixed and the client is initialized again
+        doReturn("30").when(config).get("token.expirySkew");
+        oAuthHttpClient.init();
+
+        // then: the client is initialized, with its HTTP client
+        assertTrue(oAuthHttpClient.initialized.get());
+        assertNotNull(oAuthHttpClient.client);
+        assertNotSame(client, oAuthHttpClient.client);
+        oAuthHttpClient.close();
+        assertFalse(oAuthHttpClient.initialized.get());
+    }
+
     // --- Test OAuthHttpClient#authorize ---
 
     @Test
@@ -84,20 +162,64 @@ class OAuthHttpClientTest {
         // when: calling the authorize method, then: an exception is thrown
         assertThrows(PluginException.class, () -> oAuthHttpClient.authorize(requestConfiguration));
 
-        // verify isAuthorized method is never called
-        verify(oAuthHttpClient, never()).isAuthorized();
+        // verify no token is ever requested
+        verify(oAuthHttpClient, never()).requestAuthorization(any(RequestConfiguration.class));
     }
 
     @Test
-    void authorize_alreadyAuthorized() {
+    void authorize_alreadyAuthorized() throws NoSuchFieldException {
         // given: a valid authorization is already stored in the client
-        doReturn(true).when(oAuthHttpClient).isAuthorized();
+        storeAuthorization(MockUtils.anAuthorization());
 
         // when: calling the authorize method
         oAuthHttpClient.authorize(MockUtils.aRequestConfiguration());
 
         // then: no HTTP request is built
-        verify(oAuthHttpClient, never()).post(anyString(), anyList(), any(HttpEntity.class));
+        verify(oAuthHttpClient, never()).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
+    }
+
+    @Test
+    void authorize_sameCredentials() throws NoSuchFieldException {
+        // given: the server returns a valid access token
+        doReturn(aTokenResponse()).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
+
+        // when: calling the authorize method twice with the same credentials
+        Authorization first = oAuthHttpClient.authorize(requestConfiguration);
+        Authorization second = oAuthHttpClient.authorize(MockUtils.aRequestConfiguration());
+
+        // then: only one token is requested, and it is reused
+        verify(oAuthHttpClient, times(1)).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
+        assertSame(first, second);
+    }
+
+    @Test
+    void authorize_otherCredentials() throws NoSuchFieldException {
+        // given: the server returns a valid access token, and a token is already stored for the default merchant
+        doReturn(aTokenResponse()).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
+        storeAuthorization(MockUtils.anAuthorization());
+
+        // when: calling the authorize method for another merchant
+        ContractConfiguration contractConfiguration = MockUtils.aContractConfiguration(MockUtils.getExampleCountry());
+        contractConfiguration.getContractProperties().put(Constants.ContractConfigurationKeys.CLIENT_NAME, new ContractProperty("OtherClient"));
+        oAuthHttpClient.authorize(new RequestConfiguration(contractConfiguration, MockUtils.anEnvironment(), MockUtils.aPartnerConfiguration()));
+
+        // then: a new token is requested for this merchant
+        verify(oAuthHttpClient, times(1)).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
+    }
+
+    @Test
+    void authorize_readTimeout() throws IOException {
+        // given: the token endpoint does not answer in time, then returns a valid access token
+        when(client.execute(any(HttpRequestBase.class)))
+                .thenThrow(new SocketTimeoutException("Read timed out"))
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "{\"access_token\":\"ABCD012345679\",\"token_type\":\"Bearer\",\"expires_in\":1800}", null));
+
+        // when: calling the authorize method
+        Authorization authorization = oAuthHttpClient.authorize(requestConfiguration);
+
+        // then: the token request, which has no side effects, is retried even though it has no idempotency key
+        verify(client, times(2)).execute(any(HttpRequestBase.class));
+        assertEquals("ABCD012345679", authorization.getAccessToken());
     }
 
     /**
@@ -125,7 +247,7 @@ class OAuthHttpClientTest {
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("content"), responseContent);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusCode"), HttpStatus.SC_OK);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusMessage"), "OK");
-        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class));
+        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
 
         // when: calling the authorize method, an exception is thrown
         assertThrows(PluginException.class, () -> oAuthHttpClient.authorize(requestConfiguration));
@@ -162,13 +284,13 @@ class OAuthHttpClientTest {
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("content"), responseContent);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusCode"), HttpStatus.SC_OK);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusMessage"), "OK");
-        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class));
+        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
 
         // when: calling the authorize method
         oAuthHttpClient.authorize(requestConfiguration);
 
         // then: the client now contains a valid authorization
-        assertTrue(oAuthHttpClient.isAuthorized());
+        assertTrue(oAuthHttpClient.isAuthorized(requestConfiguration));
 
         // assert the mock is working properly
         verify(oAuthHttpClient, never()).execute(any(HttpRequestBase.class));
@@ -202,7 +324,7 @@ class OAuthHttpClientTest {
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("content"), content);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusCode"), statusCode);
         FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusMessage"), statusMessage);
-        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class));
+        doReturn(response).when(oAuthHttpClient).post(anyString(), anyList(), any(HttpEntity.class), eq(true));
 
         // when: calling the authorize method, an exception is thrown
         assertThrows(PluginException.class, () -> oAuthHttpClient.authorize(requestConfiguration));
@@ -259,6 +381,73 @@ class OAuthHttpClientTest {
         assertThrows(PluginException.class, () -> oAuthHttpClient.execute(request));
     }
 
+    @Test
+    void execute_retryUnavailable() throws IOException {
+        // given: the first request gets a 503 response, the second one a proper response
+        HttpGet request = new HttpGet("http://domain.test.fr/endpoint");
+        when(client.execute(request))
+                .thenReturn(HttpTestUtils.mockHttpResponse(503, "Service Unavailable", "", null))
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "content", null));
+
+        // when: sending the request
+        StringResponse stringResponse = oAuthHttpClient.execute(request);
+
+        // then: the client finally gets the proper response
+        assertEquals(200, stringResponse.getStatusCode());
+        verify(client, times(2)).execute(request);
+    }
+
+    @Test
+    void execute_noRetryOnClientError() throws IOException {
+        // given: the request gets a 400 response
+        HttpGet request = new HttpGet("http://domain.test.fr/endpoint");
+        when(client.execute(request)).thenReturn(HttpTestUtils.mockHttpResponse(400, "Bad Request", "", null));
+
+        // when: sending the request, then: the response is returned without retry
+        assertEquals(400, oAuthHttpClient.execute(request).getStatusCode());
+        verify(client, times(1)).execute(request);
+    }
+
+    @Test
+    void execute_postWithoutIdempotencyKey() throws IOException {
+        // given: a POST request without X-Request-ID, whose response does not arrive
+        HttpPost request = new HttpPost("http://domain.test.fr/endpoint");
+        when(client.execute(request))
+                .thenThrow(SocketTimeoutException.class)
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "content", null));
+
+        // when: sending the request, then: it is not sent again, as it may have been processed
+        assertThrows(PluginException.class, () -> oAuthHttpClient.execute(request));
+        verify(client, times(1)).execute(request);
+    }
+
+    @Test
+    void execute_postWithIdempotencyKey() throws IOException {
+        // given: a POST request with X-Request-ID, whose first response does not arrive
+        HttpPost request = new HttpPost("http://domain.test.fr/endpoint");
+        request.setHeader("X-Request-ID", "a-request-id");
+        when(client.execute(request))
+                .thenThrow(SocketTimeoutException.class)
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "content", null));
+
+        // when: sending the request, then: it is sent again
+        assertNotNull(oAuthHttpClient.execute(request));
+        verify(client, times(2)).execute(request);
+    }
+
+    @Test
+    void execute_postConnectFailure() throws IOException {
+        // given: a POST request without X-Request-ID, which cannot reach the server the first time
+        HttpPost request = new HttpPost("http://domain.test.fr/endpoint");
+        when(client.execute(request))
+                .thenThrow(ConnectTimeoutException.class)
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "content", null));
+
+        // when: sending the request, then: it is sent again, as the server did not receive it
+        assertNotNull(oAuthHttpClient.execute(request));
+        verify(client, times(2)).execute(request);
+    }
+
     @Test
     void execute_invalidResponse() throws IOException {
         // given: a request that gets an invalid response (null)
@@ -269,6 +458,95 @@ class OAuthHttpClientTest {
         assertThrows(PluginException.class, () -> oAuthHttpClient.execute(request));
     }
 
+    // --- Test OAuthHttpClient#callEndpoint ---
+
+    @Test
+    void callEndpoint_open() throws NoSuchFieldException {
+        // given: circuit breakers which open after 2 failed calls
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("circuitBreakerConfig"),
+                new CircuitBreaker.Config(2, 2, 50, 100, 60000, 60000, 1));
+        StringResponse unavailable = HttpTestUtils.mockStringResponse(503, "Service Unavailable", "");
+        oAuthHttpClient.callEndpoint("endpoint", () -> unavailable);
+        assertThrows(PluginException.class, () -> oAuthHttpClient.callEndpoint("endpoint", () -> {
+            throw new PluginException("Failed to contact the partner API", FailureCause.COMMUNICATION_ERROR);
+        }));
+
+        // when: calling the endpoint again, then: the call fails fast, with a communication error
+        PluginException thrown = assertThrows(PluginException.class, () -> oAuthHttpClient.callEndpoint("endpoint", () -> {
+            throw new IllegalStateException("the endpoint should not be called");
+        }));
+        assertEquals(FailureCause.COMMUNICATION_ERROR, thrown.getFailureCause());
+
+        // the other endpoints are not affected
+        assertSame(unavailable, oAuthHttpClient.callEndpoint("otherEndpoint", () -> unavailable));
+    }
+
+    @Test
+    void callEndpoint_clientErrors() throws NoSuchFieldException {
+        // given: circuit breakers which open after 2 failed calls
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("circuitBreakerConfig"),
+                new CircuitBreaker.Config(2, 2, 50, 100, 60000, 60000, 1));
+
+        // when: the calls get 4xx responses or fail because of invalid data
+        StringResponse badRequest = HttpTestUtils.mockStringResponse(400, "Bad Request", "");
+        oAuthHttpClient.callEndpoint("endpoint", () -> badRequest);
+        assertThrows(InvalidDataException.class, () -> oAuthHttpClient.callEndpoint("endpoint", () -> {
+            throw new InvalidDataException("Target URL is invalid");
+        }));
+
+        // then: the circuit stays closed
+        assertSame(badRequest, oAuthHttpClient.callEndpoint("endpoint", () -> badRequest));
+    }
+
+    @Test
+    void callEndpoint_perAttempt() throws NoSuchFieldException, IOException {
+        // given: circuit breakers which open after 2 failed attempts, and a partner which answers 503 twice
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("circuitBreakerConfig"),
+                new CircuitBreaker.Config(4, 2, 100, 100, 60000, 60000, 1));
+        HttpGet request = new HttpGet("http://domain.test.fr/endpoint");
+        when(client.execute(request))
+                .thenReturn(HttpTestUtils.mockHttpResponse(503, "Service Unavailable", "", null))
+                .thenReturn(HttpTestUtils.mockHttpResponse(503, "Service Unavailable", "", null))
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "content", null));
+
+        // when: calling the endpoint, which retries the request
+        StringResponse response = oAuthHttpClient.callEndpoint("endpoint", () -> oAuthHttpClient.execute(request));
+
+        // then: each failed attempt counts, so the circuit opens and the request is not sent a third time
+        assertEquals(503, response.getStatusCode());
+        verify(client, times(2)).execute(request);
+        assertThrows(PluginException.class, () -> oAuthHttpClient.callEndpoint("endpoint", () -> oAuthHttpClient.execute(request)));
+    }
+
+    // --- Test OAuthHttpClient#keepAliveStrategy ---
+
+    private static Stream<Arguments> keepAliveStrategy_set() {
+        Stream.Builder<Arguments> builder = Stream.builder();
+        // no Keep-Alive header: default duration
+        builder.accept(Arguments.of(null, 30000L));
+        // the server hint is honoured
+        builder.accept(Arguments.of("timeout=5, max=100", 5000L));
+        // the server hint is capped
+        builder.accept(Arguments.of("timeout=600", 120000L));
+        return builder.build();
+    }
+
+    @ParameterizedTest
+    @MethodSource("keepAliveStrategy_set")
+    void keepAliveStrategy(String keepAliveHeader, long expectedDuration) {
+        // given: a response with or without a Keep-Alive header
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"));
+        if (keepAliveHeader != null) {
+            response.addHeader(HTTP.CONN_KEEP_ALIVE, keepAliveHeader);
+        }
+
+        // when: computing the keep-alive duration
+        long duration = OAuthHttpClient.keepAliveStrategy(30000L, 120000L).getKeepAliveDuration(response, new BasicHttpContext());
+
+        // then: the duration is the expected one
+        assertEquals(expectedDuration, duration);
+    }
+
     // --- Test OAuthHttpClient#get ---
 
     @Test
@@ -301,25 +579,66 @@ class OAuthHttpClientTest {
         assertEquals(200, stringResponse.getStatusCode());
     }
 
+    @Test
+    void get_json() throws IOException {
+        // given: properly formatted request elements, that would return an OK response
+        String url = "https://authorization.domain.org/token";
+        Mockito.doReturn(HttpTestUtils.mockHttpResponse(200, "OK", "{\"content\":\"success\"}", null))
+                .when(client)
+                .execute(any(HttpRequestBase.class));
+
+        // when: building and executing the request, decoding the response
+        JsonResponse<Map> jsonResponse = oAuthHttpClient.get(url, headers, Map.class);
+
+        // then: the response content is decoded
+        assertNotNull(jsonResponse);
+        assertEquals(200, jsonResponse.getStatusCode());
+        assertEquals("success", jsonResponse.getBody().get("content"));
+    }
+
+    @Test
+    void get_jsonReadFailure() throws IOException {
+        // given: the connection is reset while the first response content is read
+        String url = "https://authorization.domain.org/token";
+        CloseableHttpResponse reset = HttpTestUtils.mockHttpResponse(200, "OK", "", null);
+        HttpEntity entity = mock(HttpEntity.class);
+        doReturn(new SequenceInputStream(new ByteArrayInputStream("{\"content\":".getBytes(StandardCharsets.UTF_8)), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new SocketException("Connection reset");
+            }
+        })).when(entity).getContent();
+        doReturn(entity).when(reset).getEntity();
+        when(client.execute(any(HttpRequestBase.class)))
+                .thenReturn(reset)
+                .thenReturn(HttpTestUtils.mockHttpResponse(200, "OK", "{\"content\":\"success\"}", null));
+
+        // when: building and executing the request, decoding the response
+        JsonResponse<Map> jsonResponse = oAuthHttpClient.get(url, headers, Map.class);
+
+        // then: the request is retried, and the second response content is decoded
+        assertEquals("success", jsonResponse.getBody().get("content"));
+        verify(client, times(2)).execute(any(HttpRequestBase.class));
+    }
+
     // --- Test OAuthHttpClient#isAuthorized ---
 
     @Test
     void isAuthorized_valid() throws NoSuchFieldException {
         // given: a valid authorization
         Authorization validAuth = MockUtils.anAuthorizationBuilder().build();
-        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("authorization"), validAuth);
+        storeAuthorization(validAuth);
 
         // when called, isAuthorized method returns true
-        assertTrue(oAuthHttpClient.isAuthorized());
+        assertTrue(oAuthHttpClient.isAuthorized(requestConfiguration));
     }
 
     @Test
-    void isAuthorized_null() throws NoSuchFieldException {
-        // given: the client does not contain a valid authorization
-        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("authorization"), null);
+    void isAuthorized_null() {
+        // given: the client does not contain any authorization
 
         // when called, isAuthorized method returns false
-        assertFalse(oAuthHttpClient.isAuthorized());
+        assertFalse(oAuthHttpClient.isAuthorized(requestConfiguration));
     }
 
     @Test
@@ -328,10 +647,10 @@ class OAuthHttpClientTest {
         Authorization expiredAuth = MockUtils.anAuthorizationBuilder()
                 .withExpiresAt(TestUtils.addTime(new Date(), Calendar.HOUR, -1))
                 .build();
-        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("authorization"), expiredAuth);
+        storeAuthorization(expiredAuth);
 
         // when called, isAuthorized method returns false
-        assertFalse(oAuthHttpClient.isAuthorized());
+        assertFalse(oAuthHttpClient.isAuthorized(requestConfiguration));
     }
 
     // --- Test OAuthHttpClient#post ---
@@ -367,4 +686,42 @@ class OAuthHttpClientTest {
         assertEquals(200, stringResponse.getStatusCode());
     }
 
+    @Test
+    void post_json() throws IOException {
+        // given: properly formatted request elements, that would return an OK response
+        String url = "https://authorization.domain.org/token";
+        StringEntity body = new StringEntity("toto", StandardCharsets.UTF_8);
+        Mockito.doReturn(HttpTestUtils.mockHttpResponse(201, "Created", "{\"content\":\"success\"}", null))
+                .when(client)
+                .execute(any(HttpRequestBase.class));
+
+        // when: building and posting the request, decoding the response
+        JsonResponse<Map> jsonResponse = oAuthHttpClient.post(url, headers, body, Map.class);
+
+        // then: the response content is decoded
+        assertNotNull(jsonResponse);
+        assertEquals(201, jsonResponse.getStatusCode());
+        assertEquals("success", jsonResponse.getBody().get("content"));
+    }
+
+    /**
+     * Store the given authorization in the client, for the credentials of the default request configuration.
+     */
+    private void storeAuthorization(Authorization authorization) throws NoSuchFieldException {
+        TokenCache tokenCache = new TokenCache();
+        tokenCache.getOrRequest(oAuthHttpClient.tokenKey(requestConfiguration), () -> authorization);
+        FieldSetter.setField(oAuthHttpClient, OAuthHttpClient.class.getDeclaredField("tokenCache"), tokenCache);
+    }
+
+    /**
+     * @return a successful response from the token endpoint.
+     */
+    private static StringResponse aTokenResponse() throws NoSuchFieldException {
+        StringResponse response = new StringResponse();
+        FieldSetter.setField(response, StringResponse.class.getDeclaredField("content"), "{\"access_token\":\"ABCD012345679\",\"token_type\":\"Bearer\",\"expires_in\":1800}");
+        FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusCode"), HttpStatus.SC_OK);
+        FieldSetter.setField(response, StringResponse.class.getDeclaredField("statusMessage"), "OK");
+        return response;
+    }
+
 }
@@ -0,0 +1,63 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.MockUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tomitribe.auth.signatures.Signature;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.tomitribe.auth.signatures.Algorithm.RSA_SHA256;
+
+class PartnerContextTest {
+
+    private PartnerContext partnerContext;
+
+    @BeforeEach
+    void setup() throws GeneralSecurityException {
+        partnerContext = new PartnerContext("fingerprint", "https://authorization.domain.org/token", MockUtils.anRsaHolder());
+    }
+
+    @Test
+    void keyId() throws GeneralSecurityException {
+        // given: the SHA1 hash of the client certificate, in hexadecimal
+        byte[] sha1 = MessageDigest.getInstance("SHA1").digest(MockUtils.aClientCertificate().getEncoded());
+        StringBuilder expected = new StringBuilder();
+        for (byte b : sha1) {
+            expected.append(String.format("%02X", b));
+        }
+
+        // then: the key id is this hash, without any separator
+        assertEquals(expected.toString(), partnerContext.getKeyId());
+    }
+
+    @Test
+    void authorizationHeader() throws IOException {
+        // given: a signature generated by the signer of the context
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(EquensHttpClient.HEADER_AUTH_APP, "TEST");
+        headers.put(EquensHttpClient.HEADER_AUTH_CLIENT, "MarketPay");
+        headers.put(EquensHttpClient.HEADER_AUTH_DATE, "Mon Jan 04 10:00:00 CET 2021");
+        headers.put(EquensHttpClient.HEADER_AUTH_ID, "XXXXXX");
+        Signature signature = partnerContext.getSigner().sign("POST", "/token", headers);
+
+        // when: building the Authorization header
+        String header = partnerContext.authorizationHeader(signature);
+
+        // then: it's the signature with the JVM name of the algorithm
+        assertEquals(signature.toString().replace(RSA_SHA256.getPortableName(), RSA_SHA256.getJmvName()), header);
+    }
+
+    @Test
+    void fingerprint() {
+        // moving characters from one value to the next gives a different fingerprint
+        assertEquals(PartnerContext.fingerprint("ab", "c"), PartnerContext.fingerprint("ab", "c"));
+        assertNotEquals(PartnerContext.fingerprint("ab", "c"), PartnerContext.fingerprint("a", "bc"));
+    }
+
+}
@@ -8,12 +8,17 @@ import com.payline.payment.equens.bean.business.reachdirectory.GetAspspsResponse
 import com.payline.payment.equens.bean.configuration.RequestConfiguration;
 import com.payline.payment.equens.exception.InvalidDataException;
 import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.Constants;
+import com.payline.payment.equens.utils.metrics.Metrics;
 import com.payline.pmapi.bean.common.FailureCause;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import com.payline.pmapi.bean.payment.ContractConfiguration;
+import com.payline.pmapi.bean.payment.ContractProperty;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.message.BasicHeader;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -22,6 +27,11 @@ import org.mockito.*;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -49,6 +59,7 @@ class PisHttpClientTest {
         /* verify that execute() method is never called ! it ensures the mocks are working properly and there is no
         false negative that could be related to a failed HTTP request sent to the partner API. */
         verify(pisHttpClient, never()).execute(any(HttpRequestBase.class));
+        verify(pisHttpClient, never()).execute(any(HttpRequestBase.class), any());
     }
 
     // --- Test PisHttpClient#getAspsps ---
@@ -71,13 +82,13 @@ class PisHttpClientTest {
                 "}";
 
         String goodUrl = "https://xs2a.awltest.de/xs2a/routingservice/services/directory/v1/aspsps?allDetails=true";
-        doReturn(HttpTestUtils.mockStringResponse(200, "OK", responseBody))
+        doReturn(HttpTestUtils.mockJsonResponse(200, "OK", responseBody, GetAspspsResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: calling the method
         GetAspspsResponse response = pisHttpClient.getAspsps(goodRequestConfiguration);
-        Mockito.verify(pisHttpClient, atLeastOnce()).get(eq(goodUrl), any());
+        Mockito.verify(pisHttpClient, atLeastOnce()).get(eq(goodUrl), any(), any());
 
         // then: the list contains 1 Aspsp
         assertNotNull(response);
@@ -102,9 +113,9 @@ class PisHttpClientTest {
                 "  \"MessageId\":\"6f31954f-7ad6-4a63-950c-a2a363488e\"," +
                 "  \"Application\":\"PIS\"" +
                 "}";
-        doReturn(HttpTestUtils.mockStringResponse(200, "OK", responseBody))
+        doReturn(HttpTestUtils.mockJsonResponse(200, "OK", responseBody, GetAspspsResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: calling the method
         GetAspspsResponse response = pisHttpClient.getAspsps(goodRequestConfiguration);
@@ -116,9 +127,9 @@ class PisHttpClientTest {
     @Test
     void getAspsps_error() {
         // given: the partner API returns a valid error response
-        doReturn(HttpTestUtils.mockStringResponse(401, "Unauthorized", ""))
+        doReturn(HttpTestUtils.mockJsonResponse(401, "Unauthorized", "", GetAspspsResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: calling the method, then: an exception is thrown
         assertThrows(PluginException.class, () -> pisHttpClient.getAspsps(goodRequestConfiguration));
@@ -129,15 +140,120 @@ class PisHttpClientTest {
         // given: the partner API returns a valid error response
         // @see PAYLAPMEXT-265
         String error = "<html><head><title>HTML Error 502</title></head><body><p><h2>equensWorldline - HTML Error 502</h2></p></body></html>";
-        doReturn(HttpTestUtils.mockStringResponse(200, "", error))
+        doReturn(HttpTestUtils.mockJsonResponse(200, "", error, GetAspspsResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: calling the method, then: an exception is thrown
         PluginException e = assertThrows(PluginException.class, () -> pisHttpClient.getAspsps(goodRequestConfiguration));
         Assertions.assertEquals(error.substring(0,50), e.getErrorCode());
     }
 
+    @Test
+    void getAspsps_coalesced() throws Exception {
+        // given: the partner API answers slowly
+        String responseBody = "{\"Application\":\"PIS\",\"ASPSP\":[{\"AspspId\":\"7005\",\"Name\":[\"Ing Bank\"]}]}";
+        CountDownLatch answer = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            answer.await(5, TimeUnit.SECONDS);
+            return HttpTestUtils.mockJsonResponse(200, "OK", responseBody, GetAspspsResponse.class);
+        }).when(pisHttpClient).get(anyString(), anyList(), any());
+        long coalesced = Metrics.getInstance().get(PisHttpClient.METRIC_ASPSPS_COALESCED);
+
+        // when: calling the method twice concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<GetAspspsResponse> first = executor.submit(() -> pisHttpClient.getAspsps(goodRequestConfiguration));
+            verify(pisHttpClient, timeout(5000)).get(anyString(), anyList(), any());
+            Future<GetAspspsResponse> second = executor.submit(() -> pisHttpClient.getAspsps(goodRequestConfiguration));
+            while (Metrics.getInstance().get(PisHttpClient.METRIC_ASPSPS_COALESCED) == coalesced) {
+                Thread.sleep(10);
+            }
+            answer.countDown();
+
+            // then: the partner API is requested once, and both calls get its response
+            assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+            verify(pisHttpClient, times(1)).get(anyString(), anyList(), any());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // when: calling the method again, then: the partner API is requested again
+        pisHttpClient.getAspsps(goodRequestConfiguration);
+        verify(pisHttpClient, times(2)).get(anyString(), anyList(), any());
+    }
+
+    @Test
+    void getAspsps_otherCredentials() throws Exception {
+        // given: the partner API answers slowly, and a request configuration with another client name
+        String responseBody = "{\"Application\":\"PIS\",\"ASPSP\":[{\"AspspId\":\"7005\",\"Name\":[\"Ing Bank\"]}]}";
+        CountDownLatch answer = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            answer.await(5, TimeUnit.SECONDS);
+            return HttpTestUtils.mockJsonResponse(200, "OK", responseBody, GetAspspsResponse.class);
+        }).when(pisHttpClient).get(anyString(), anyList(), any());
+        ContractConfiguration otherContract = MockUtils.aContractConfiguration("FR");
+        otherContract.getContractProperties().put(Constants.ContractConfigurationKeys.CLIENT_NAME, new ContractProperty("OtherClient"));
+        RequestConfiguration otherRequestConfiguration = new RequestConfiguration(otherContract,
+                MockUtils.anEnvironment(), MockUtils.aPartnerConfiguration());
+
+        // when: calling the method concurrently with both request configurations
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<GetAspspsResponse> first = executor.submit(() -> pisHttpClient.getAspsps(goodRequestConfiguration));
+            Future<GetAspspsResponse> second = executor.submit(() -> pisHttpClient.getAspsps(otherRequestConfiguration));
+
+            // then: the partner API is requested with each credentials
+            verify(pisHttpClient, timeout(5000).times(2)).get(anyString(), anyList(), any());
+            answer.countDown();
+            assertNotSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void getAspsps_notModified() {
+        // given: the partner API returns the directory with an ETag, then answers it did not change
+        String responseBody = "{\"Application\":\"PIS\",\"ASPSP\":[{\"AspspId\":\"7005\",\"Name\":[\"Ing Bank\"]}]}";
+        doReturn(HttpTestUtils.mockJsonResponse(200, "OK", responseBody,
+                new Header[]{new BasicHeader(HttpHeaders.ETAG, "\"v1\"")}, GetAspspsResponse.class))
+                .doReturn(HttpTestUtils.mockJsonResponse(304, "Not Modified", "", GetAspspsResponse.class))
+                .when(pisHttpClient)
+                .get(anyString(), anyList(), any());
+
+        // when: calling the method, then again with the validators of the first response (kept in the snapshot)
+        GetAspspsResponse first = pisHttpClient.getAspsps(goodRequestConfiguration);
+        GetAspspsResponse second = pisHttpClient.getAspsps(goodRequestConfiguration, first.getEtag(), first.getLastModified());
+
+        // then: the validators are returned with the first response, and the second request is conditional
+        assertEquals("\"v1\"", first.getEtag());
+        assertNull(first.getLastModified());
+        assertNull(second);
+        ArgumentCaptor<List<Header>> headersCaptor = ArgumentCaptor.forClass(List.class);
+        verify(pisHttpClient, times(2)).get(anyString(), headersCaptor.capture(), any());
+        assertNull(header(headersCaptor.getAllValues().get(0), HttpHeaders.IF_NONE_MATCH));
+        assertEquals("\"v1\"", header(headersCaptor.getAllValues().get(1), HttpHeaders.IF_NONE_MATCH));
+        assertNull(header(headersCaptor.getAllValues().get(1), HttpHeaders.IF_MODIFIED_SINCE));
+        // the content encoding is negotiated by the HTTP client itself
+        assertNull(header(headersCaptor.getAllValues().get(1), HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    @Test
+    void getAspsps_notModifiedWithoutValidators() {
+        // given: the partner API answers a 304 to an unconditional request
+        doReturn(HttpTestUtils.mockJsonResponse(304, "Not Modified", "", GetAspspsResponse.class))
+                .when(pisHttpClient)
+                .get(anyString(), anyList(), any());
+
+        // when: calling the method, then: the unexpected 304 is an error
+        assertThrows(PluginException.class, () -> pisHttpClient.getAspsps(goodRequestConfiguration));
+    }
+
+    private static String header(List<Header> headers, String name) {
+        return headers.stream().filter(h -> name.equals(h.getName())).map(Header::getValue).findFirst().orElse(null);
+    }
+
     // --- Test PisHttpClient#initPayment ---
 
     @Test
@@ -151,9 +267,9 @@ class PisHttpClientTest {
                 "    \"InitiatingPartyReferenceId\": \"REF1574181352\",\n" +
                 "    \"PaymentStatus\": \"Open\",\n" +
                 "    \"Links\":{\"AspspRedirectUrl\":{\"Href\":\"" + redirectionUrl + "\"}}}";
-        doReturn(HttpTestUtils.mockStringResponse(201, "Created", responseContent))
+        doReturn(HttpTestUtils.mockJsonResponse(201, "Created", responseContent, PaymentInitiationResponse.class))
                 .when(pisHttpClient)
-                .post(anyString(), anyList(), any(HttpEntity.class));
+                .post(anyString(), anyList(), any(HttpEntity.class), any());
 
         // when: initializing a payment
         PaymentInitiationResponse response = pisHttpClient.initPayment(MockUtils.aPaymentInitiationRequest(MockUtils.getIbanFR()), goodRequestConfiguration, MockUtils.aPISHttpClientHeader());
@@ -169,7 +285,7 @@ class PisHttpClientTest {
         // verify the post() method has been called and the content of the arguments passed
         ArgumentCaptor<List<Header>> headersCaptor = ArgumentCaptor.forClass(List.class);
         ArgumentCaptor<HttpEntity> bodyCaptor = ArgumentCaptor.forClass(HttpEntity.class);
-        verify(pisHttpClient, times(1)).post(anyString(), headersCaptor.capture(), bodyCaptor.capture());
+        verify(pisHttpClient, times(1)).post(anyString(), headersCaptor.capture(), bodyCaptor.capture(), any());
         this.verifyAuthorizationHeader(headersCaptor.getValue());
         assertNotNull(bodyCaptor.getValue());
     }
@@ -195,9 +311,9 @@ class PisHttpClientTest {
                 "    \"MessageCreateDateTime\":\"2019-11-25T15:02:36.555+0100\"," +
                 "    \"MessageId\":\"c2a4ce10086547019b1d50411ea6a99e\"" +
                 "}";
-        doReturn(HttpTestUtils.mockStringResponse(400, "Bad Request", responseContent))
+        doReturn(HttpTestUtils.mockJsonResponse(400, "Bad Request", responseContent, PaymentInitiationResponse.class))
                 .when(pisHttpClient)
-                .post(anyString(), anyList(), any(HttpEntity.class));
+                .post(anyString(), anyList(), any(HttpEntity.class), any());
 
         // when: initializing a payment, then: an exception is thrown
         PaymentInitiationRequest request = MockUtils.aPaymentInitiationRequest(MockUtils.getIbanFR());
@@ -224,9 +340,9 @@ class PisHttpClientTest {
                 "    \"DebtorAgent\": \"BNPADEFF\",\n" +
                 "    \"DebtorAccount\": \"AT880000000000000001\"\n" +
                 "}";
-        doReturn(HttpTestUtils.mockStringResponse(200, "OK", responseContent))
+        doReturn(HttpTestUtils.mockJsonResponse(200, "OK", responseContent, PaymentStatusResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: retrieving the payment status
         PaymentStatusResponse response = pisHttpClient.paymentStatus(paymentId, goodRequestConfiguration, false);
@@ -238,7 +354,7 @@ class PisHttpClientTest {
         // verify the get() method has been called and the content of the arguments passed
         ArgumentCaptor<String> urlCaptor = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<List<Header>> headersCaptor = ArgumentCaptor.forClass(List.class);
-        verify(pisHttpClient, times(1)).get(urlCaptor.capture(), headersCaptor.capture());
+        verify(pisHttpClient, times(1)).get(urlCaptor.capture(), headersCaptor.capture(), any());
         assertTrue(urlCaptor.getValue().contains(paymentId));
         this.verifyAuthorizationHeader(headersCaptor.getValue());
     }
@@ -263,9 +379,9 @@ class PisHttpClientTest {
                 "    \"MessageCreateDateTime\":\"22019-12-03T15:27:32.629+0000\"," +
                 "    \"MessageId\":\"3274abb431c8410f886a903b88285ebd\"" +
                 "}";
-        doReturn(HttpTestUtils.mockStringResponse(404, "Not Found", responseContent))
+        doReturn(HttpTestUtils.mockJsonResponse(404, "Not Found", responseContent, PaymentStatusResponse.class))
                 .when(pisHttpClient)
-                .get(anyString(), anyList());
+                .get(anyString(), anyList(), any());
 
         // when: retrieving the payment status, then: an exception is thrown
         PluginException thrown = assertThrows(PluginException.class,
@@ -0,0 +1,108 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.utils.metrics.Metrics;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    private static final String URL = "http://domain.test.fr/endpoint";
+
+    private RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000, 10, 60000, "X-Request-ID");
+
+    @Test
+    void shouldRetry_success() {
+        // a proper response is never retried
+        assertFalse(retryPolicy.shouldRetry(new HttpGet(URL), 1, HttpTestUtils.mockStringResponse(200, "OK", "content"), null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {502, 503})
+    void shouldRetry_unavailable(int statusCode) {
+        // a transient partner failure is retried
+        assertTrue(retryPolicy.shouldRetry(new HttpGet(URL), 1, HttpTestUtils.mockStringResponse(statusCode, "KO", ""), null));
+    }
+
+    @Test
+    void shouldRetry_exhausted() {
+        // given: the maximum number of attempts is reached
+        long before = Metrics.getInstance().get(RetryPolicy.METRIC_EXHAUSTED);
+
+        // when: deciding, then: the request is not retried, and the decision is counted
+        assertFalse(retryPolicy.shouldRetry(new HttpGet(URL), 3, null, new IOException()));
+        assertEquals(before + 1, Metrics.getInstance().get(RetryPolicy.METRIC_EXHAUSTED));
+    }
+
+    @Test
+    void shouldRetry_notIdempotent() {
+        // given: a POST request without idempotency key, whose response did not arrive
+        long before = Metrics.getInstance().get(RetryPolicy.METRIC_NOT_IDEMPOTENT);
+
+        // when: deciding, then: the request is not retried, and the decision is counted
+        assertFalse(retryPolicy.shouldRetry(new HttpPost(URL), 1, null, new SocketTimeoutException()));
+        assertEquals(before + 1, Metrics.getInstance().get(RetryPolicy.METRIC_NOT_IDEMPOTENT));
+    }
+
+    @Test
+    void shouldRetry_idempotentPost() {
+        // a POST request with an idempotency key is retried
+        HttpPost request = new HttpPost(URL);
+        request.setHeader("X-Request-ID", "a-request-id");
+        assertTrue(retryPolicy.shouldRetry(request, 1, null, new SocketTimeoutException()));
+    }
+
+    @Test
+    void shouldRetry_postMarkedIdempotent() {
+        // a POST request marked as idempotent by the caller is retried, even without idempotency key
+        HttpPost request = new RetryPolicy.IdempotentPost(URI.create(URL));
+        assertTrue(retryPolicy.shouldRetry(request, 1, null, new SocketTimeoutException()));
+    }
+
+    @Test
+    void shouldRetry_connectFailure() {
+        // a POST request which did not reach the server is retried
+        assertTrue(retryPolicy.shouldRetry(new HttpPost(URL), 1, null, new ConnectException()));
+    }
+
+    @Test
+    void shouldRetry_budgetExhausted() {
+        // given: a policy allowing 2 retries per window
+        RetryPolicy limitedPolicy = new RetryPolicy(3, 0, 0, 2, 60000, null);
+        long before = Metrics.getInstance().get(RetryPolicy.METRIC_BUDGET_EXHAUSTED);
+
+        // when: 3 requests fail, then: only the first 2 are retried
+        assertTrue(limitedPolicy.shouldRetry(new HttpGet(URL), 1, null, new IOException()));
+        assertTrue(limitedPolicy.shouldRetry(new HttpGet(URL), 1, null, new IOException()));
+        assertFalse(limitedPolicy.shouldRetry(new HttpGet(URL), 1, null, new IOException()));
+        assertEquals(before + 1, Metrics.getInstance().get(RetryPolicy.METRIC_BUDGET_EXHAUSTED));
+    }
+
+    @Test
+    void delay() {
+        // the delay is random, and its maximum doubles at each attempt, up to the max delay
+        for (int i = 0; i < 100; i++) {
+            assertTrue(retryPolicy.delay(1) <= 100);
+            assertTrue(retryPolicy.delay(2) <= 200);
+            assertTrue(retryPolicy.delay(10) <= 1000);
+            assertTrue(retryPolicy.delay(100) <= 1000);
+            assertTrue(retryPolicy.delay(1) >= 0);
+        }
+    }
+
+    @Test
+    void delay_noBackoff() {
+        assertEquals(0, new RetryPolicy(3, 0, 0, 10, 60000, null).delay(2));
+        assertTrue(new RetryPolicy(3, 0, 0, 10, 60000, null).pause(2));
+    }
+
+}
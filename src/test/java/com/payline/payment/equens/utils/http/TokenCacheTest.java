@@ -0,0 +1,215 @@
+package com.payline.payment.equens.utils.http;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.exception.PluginException;
+import com.payline.payment.equens.utils.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenCacheTest {
+
+    private TokenCache tokenCache = new TokenCache();
+
+    @Test
+    void get_missing() {
+        assertNull(tokenCache.get("key"));
+    }
+
+    @Test
+    void getOrRequest_storesToken() {
+        // given: a token request which returns a valid authorization
+        Authorization authorization = MockUtils.anAuthorization();
+
+        // when: requesting the token twice
+        Authorization first = tokenCache.getOrRequest("key", () -> authorization);
+        Authorization second = tokenCache.getOrRequest("key", () -> {
+            throw new IllegalStateException("token should not be requested twice");
+        });
+
+        // then: the stored token is reused
+        assertSame(authorization, first);
+        assertSame(authorization, second);
+        assertSame(authorization, tokenCache.get("key"));
+    }
+
+    @Test
+    void getOrRequest_expiredToken() {
+        // given: an expired token is stored
+        Authorization expired = MockUtils.anAuthorizationBuilder()
+                .withExpiresAt(TestUtils.addTime(new Date(), Calendar.HOUR, -1))
+                .build();
+        tokenCache.getOrRequest("key", () -> expired);
+
+        // when: requesting the token again
+        Authorization renewed = MockUtils.anAuthorization();
+        Authorization result = tokenCache.getOrRequest("key", () -> renewed);
+
+        // then: a new token is obtained
+        assertSame(renewed, result);
+    }
+
+    @Test
+    void getOrRequest_error() {
+        // when: the token request fails, then: the exception is propagated and nothing is stored
+        assertThrows(PluginException.class, () -> tokenCache.getOrRequest("key", () -> {
+            throw new PluginException("token endpoint unavailable");
+        }));
+        assertNull(tokenCache.get("key"));
+    }
+
+    @Test
+    void invalidate() {
+        // given: a stored token
+        tokenCache.getOrRequest("key", MockUtils::anAuthorization);
+
+        // when: invalidating it
+        tokenCache.invalidate("key");
+
+        // then: it is not available anymore
+        assertNull(tokenCache.get("key"));
+    }
+
+    @Test
+    void getOrRequest_concurrentRequests() throws Exception {
+        // given: a slow token endpoint and many threads needing the same token at the same time
+        int threads = 8;
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Authorization>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return tokenCache.getOrRequest("key", () -> {
+                        requests.incrementAndGet();
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return MockUtils.anAuthorization();
+                    });
+                }));
+            }
+
+            // when: all the threads ask for the token
+            start.countDown();
+
+            // then: only one request is sent, and all the threads get its result
+            Authorization expected = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Authorization> result : results) {
+                assertSame(expected, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, requests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_expirySkew() {
+        // given: a cache with a 5 minutes expiry skew, and a token which expires in 1 minute
+        TokenCache skewedCache = new TokenCache(5 * 60 * 1000L, 0, key -> null);
+        Authorization almostExpired = MockUtils.anAuthorizationBuilder()
+                .withExpiresAt(TestUtils.addTime(new Date(), Calendar.MINUTE, 1))
+                .build();
+        skewedCache.getOrRequest("key", () -> almostExpired);
+
+        // when: getting the token, then: it is not considered valid anymore
+        assertNull(skewedCache.get("key"));
+        assertFalse(skewedCache.isValid(almostExpired));
+    }
+
+    @Test
+    void backgroundRenewal_usedToken() throws InterruptedException {
+        // given: a short-lived token, renewed in background 900ms before its expiration
+        AtomicInteger requests = new AtomicInteger();
+        Supplier<Authorization> tokenRequest = () -> {
+            requests.incrementAndGet();
+            return MockUtils.anAuthorizationBuilder()
+                    .withExpiresAt(new Date(System.currentTimeMillis() + 1000))
+                    .build();
+        };
+        TokenCache refreshingCache = new TokenCache(0, 900, key -> tokenRequest);
+        try {
+            refreshingCache.getOrRequest("key", tokenRequest);
+
+            // when: the token is used, then the renewal time passes
+            assertNotNull(refreshingCache.get("key"));
+            Thread.sleep(800);
+
+            // then: a new token has been requested in background
+            assertEquals(2, requests.get());
+            assertNotNull(refreshingCache.get("key"));
+        } finally {
+            refreshingCache.close();
+        }
+    }
+
+    @Test
+    void backgroundRenewal_unusedToken() throws InterruptedException {
+        // given: a short-lived token, renewed in background 900ms before its expiration
+        AtomicInteger requests = new AtomicInteger();
+        Supplier<Authorization> tokenRequest = () -> {
+            requests.incrementAndGet();
+            return MockUtils.anAuthorizationBuilder()
+                    .withExpiresAt(new Date(System.currentTimeMillis() + 1000))
+                    .build();
+        };
+        TokenCache refreshingCache = new TokenCache(0, 900, key -> tokenRequest);
+        try {
+            refreshingCache.getOrRequest("key", tokenRequest);
+
+            // when: the token is not used before the renewal time
+            Thread.sleep(800);
+
+            // then: it is left to expire
+            assertEquals(1, requests.get());
+        } finally {
+            refreshingCache.close();
+        }
+    }
+
+    @Test
+    void backgroundRenewal_resolvedAtRenewalTime() throws InterruptedException {
+        // given: a short-lived token, whose renewal request cannot be resolved anymore when the renewal is due
+        AtomicInteger requests = new AtomicInteger();
+        List<String> resolvedKeys = new CopyOnWriteArrayList<>();
+        TokenCache refreshingCache = new TokenCache(0, 900, key -> {
+            resolvedKeys.add(key);
+            return null;
+        });
+        try {
+            refreshingCache.getOrRequest("key", () -> {
+                requests.incrementAndGet();
+                return MockUtils.anAuthorizationBuilder()
+                        .withExpiresAt(new Date(System.currentTimeMillis() + 1000))
+                        .build();
+            });
+
+            // when: the token is used, then the renewal time passes
+            assertNotNull(refreshingCache.get("key"));
+            Thread.sleep(800);
+
+            // then: the renewal request has been resolved from the key, and the token is left to expire
+            assertEquals(1, resolvedKeys.size());
+            assertEquals("key", resolvedKeys.get(0));
+            assertEquals(1, requests.get());
+            assertNotNull(refreshingCache.get("key"));
+        } finally {
+            refreshingCache.close();
+        }
+    }
+
+}
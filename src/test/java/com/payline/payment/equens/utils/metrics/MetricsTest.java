@@ -0,0 +1,50 @@
+package com.payline.payment.equens.utils.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    private Metrics metrics = new Metrics();
+
+    @Test
+    void get_unknown() {
+        assertEquals(0, metrics.get("unknown"));
+    }
+
+    @Test
+    void increment() {
+        // when: incrementing counters
+        metrics.increment("a.counter");
+        metrics.increment("a.counter");
+        metrics.add("another.counter", 5);
+
+        // then: their values are available, individually or all together
+        assertEquals(2, metrics.get("a.counter"));
+        assertEquals(5, metrics.get("another.counter"));
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(Long.valueOf(2), snapshot.get("a.counter"));
+    }
+
+    @Test
+    void report() {
+        // given: a counter
+        metrics.increment("a.counter");
+
+        // when: reporting twice, then once more after an increment
+        boolean first = metrics.report();
+        boolean unchanged = metrics.report();
+        metrics.increment("a.counter");
+        boolean changed = metrics.report();
+
+        // then: the counters are logged only when they changed
+        assertTrue(first);
+        assertFalse(unchanged);
+        assertTrue(changed);
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.payline.payment.equens.utils.security;
+
+import com.payline.payment.equens.MockUtils;
+import com.payline.payment.equens.utils.Constants;
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RSAHolderCacheTest {
+
+    private static String pemCertificate;
+    private static String pemPk;
+
+    private RSAHolderCache rsaHolderCache;
+
+    @BeforeEach
+    void setup() {
+        rsaHolderCache = new RSAHolderCache();
+        PartnerConfiguration partnerConfiguration = MockUtils.aPartnerConfiguration();
+        pemCertificate = partnerConfiguration.getProperty(Constants.PartnerConfigurationKeys.CLIENT_CERTIFICATE);
+        pemPk = partnerConfiguration.getProperty(Constants.PartnerConfigurationKeys.CLIENT_PRIVATE_KEY);
+    }
+
+    @Test
+    void get_sameCredentials() throws IOException, GeneralSecurityException {
+        // when: getting a holder twice with the same PEM strings
+        RSAHolder first = rsaHolderCache.get(pemCertificate, pemPk);
+        RSAHolder second = rsaHolderCache.get(new String(pemCertificate), new String(pemPk));
+
+        // then: the holder is built only once
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(1, rsaHolderCache.size());
+    }
+
+    @Test
+    void get_rotatedCredentials() throws IOException, GeneralSecurityException {
+        // given: a holder in cache
+        RSAHolder first = rsaHolderCache.get(pemCertificate, pemPk);
+
+        // when: the certificate chain changes
+        RSAHolder second = rsaHolderCache.get(pemCertificate + System.lineSeparator() + pemCertificate, pemPk);
+
+        // then: a new holder is built
+        assertNotSame(first, second);
+        assertEquals(3, second.getKeyStore().size());
+        assertEquals(2, rsaHolderCache.size());
+    }
+
+    @Test
+    void get_invalidCredentials() {
+        // when: the PEM strings are invalid, then: an exception is thrown and nothing is cached
+        assertThrows(Exception.class, () -> rsaHolderCache.get("not a certificate", pemPk));
+        assertEquals(0, rsaHolderCache.size());
+    }
+
+    @Test
+    void get_bounded() throws IOException, GeneralSecurityException {
+        // when: getting more holders than the cache can contain (trailing line breaks change the fingerprint only)
+        StringBuilder chain = new StringBuilder(pemCertificate);
+        for (int i = 0; i <= RSAHolderCache.MAX_ENTRIES; i++) {
+            rsaHolderCache.get(chain.append('\n').toString(), pemPk);
+        }
+
+        // then: the eldest ones are evicted
+        assertEquals(RSAHolderCache.MAX_ENTRIES, rsaHolderCache.size());
+    }
+
+    @Test
+    void fingerprint() throws GeneralSecurityException {
+        // moving characters from one PEM string to the other gives a different fingerprint
+        assertEquals(RSAHolderCache.fingerprint("ab", "c"), RSAHolderCache.fingerprint("ab", "c"));
+        assertNotEquals(RSAHolderCache.fingerprint("ab", "c"), RSAHolderCache.fingerprint("a", "bc"));
+    }
+
+}